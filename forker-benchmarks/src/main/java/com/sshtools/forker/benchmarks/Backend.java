@@ -0,0 +1,109 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.benchmarks;
+
+import com.sshtools.forker.client.ForkerConfiguration;
+import com.sshtools.forker.client.impl.VirtualThreadProcessFactory;
+import com.sshtools.forker.common.IO;
+
+/**
+ * The process factories being compared. Which factory handles a process is
+ * decided by its I/O mode, so each backend is an I/O mode, plus the switch that
+ * enables the virtual thread factory ahead of the native non-blocking one.
+ */
+public enum Backend {
+	/**
+	 * {@link com.sshtools.forker.client.NonBlockingProcessFactory}, using
+	 * epoll, kqueue or IOCP.
+	 */
+	NON_BLOCKING(IO.NON_BLOCKING, false, true, true),
+	/**
+	 * {@link VirtualThreadProcessFactory}, using {@link ProcessBuilder} with
+	 * stream pumps on virtual threads where available.
+	 */
+	VIRTUAL_THREADS(IO.NON_BLOCKING, true, true, true),
+	/**
+	 * {@link com.sshtools.forker.client.impl.LocalProcessFactory}, a plain
+	 * {@link ProcessBuilder} process.
+	 */
+	LOCAL(IO.IO, false, true, true),
+	/**
+	 * {@link com.sshtools.forker.client.impl.POpenProcessFactory}, reading the
+	 * output using popen().
+	 */
+	POPEN(IO.INPUT, false, true, false),
+	/**
+	 * {@link com.sshtools.forker.client.impl.SystemProcessFactory}, using
+	 * system() with no I/O at all.
+	 */
+	SYSTEM(IO.SINK, false, false, false);
+
+	private final IO io;
+	private final boolean virtualThreads;
+	private final boolean readsOutput;
+	private final boolean writesInput;
+
+	Backend(IO io, boolean virtualThreads, boolean readsOutput, boolean writesInput) {
+		this.io = io;
+		this.virtualThreads = virtualThreads;
+		this.readsOutput = readsOutput;
+		this.writesInput = writesInput;
+	}
+
+	/**
+	 * Get the I/O mode that selects this backend.
+	 * 
+	 * @return I/O mode
+	 */
+	public IO io() {
+		return io;
+	}
+
+	/**
+	 * Get whether processes are driven by a listener rather than streams.
+	 * 
+	 * @return non-blocking
+	 */
+	public boolean isNonBlocking() {
+		return io == IO.NON_BLOCKING;
+	}
+
+	/**
+	 * Get whether the output of the process can be read.
+	 * 
+	 * @return reads output
+	 */
+	public boolean isReadsOutput() {
+		return readsOutput;
+	}
+
+	/**
+	 * Get whether the input of the process can be written.
+	 * 
+	 * @return writes input
+	 */
+	public boolean isWritesInput() {
+		return writesInput;
+	}
+
+	/**
+	 * Configure the default {@link ForkerConfiguration} so this backend is
+	 * chosen.
+	 */
+	public void select() {
+		ForkerConfiguration.getDefault().processFactory(VirtualThreadProcessFactory.class).setEnabled(virtualThreads);
+	}
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so allocation rates are reported
+ * alongside times. Any arguments are regular expressions selecting the
+ * benchmarks to run, otherwise all are run. For the full set of JMH options,
+ * run the JMH main class directly, i.e.
+ * <code>java -cp target/benchmarks.jar org.openjdk.jmh.Main -h</code>.
+ */
+public class Benchmarks {
+
+	public static void main(String[] args) throws RunnerException {
+		ChainedOptionsBuilder options = new OptionsBuilder().addProfiler(GCProfiler.class);
+		if (args.length == 0) {
+			options.include(Benchmarks.class.getPackage().getName() + ".*");
+		} else {
+			for (String arg : args)
+				options.include(arg);
+		}
+		new Runner(options.build()).run();
+	}
+}
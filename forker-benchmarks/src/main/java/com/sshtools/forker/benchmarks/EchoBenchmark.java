@@ -0,0 +1,68 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Bidirectional throughput, by writing to <code>cat</code> and reading
+ * everything back while still writing. Only backends that can both write and
+ * read are included.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EchoBenchmark {
+
+	@Param({ "NON_BLOCKING", "VIRTUAL_THREADS", "LOCAL" })
+	public Backend backend;
+
+	@Param({ "1048576", "16777216" })
+	public int size;
+
+	private final byte[] input = new byte[65536];
+	private final byte[] buffer = new byte[65536];
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		backend.select();
+		Workloads.data(input);
+	}
+
+	@Benchmark
+	public long echo() throws Exception {
+		long read = Workloads.echo(backend, input, size, buffer);
+		if (read != size)
+			throw new IllegalStateException(String.format("Expected %d bytes, read %d.", size, read));
+		return read;
+	}
+}
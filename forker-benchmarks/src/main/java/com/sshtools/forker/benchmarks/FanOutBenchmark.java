@@ -0,0 +1,76 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sshtools.forker.client.ForkerProcess;
+
+/**
+ * Fan-out, by starting a number of children that all produce some output at
+ * the same time, then waiting for them all. This shows how well a backend
+ * scales with the number of concurrent processes, where the blocking backends
+ * need threads for each one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FanOutBenchmark {
+
+	@Param({ "NON_BLOCKING", "VIRTUAL_THREADS", "LOCAL", "POPEN" })
+	public Backend backend;
+
+	@Param({ "10", "100" })
+	public int children;
+
+	private final byte[] buffer = new byte[8192];
+	private ForkerProcess[] processes;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		backend.select();
+		processes = new ForkerProcess[children];
+	}
+
+	@Benchmark
+	public long fanOut() throws Exception {
+		for (int i = 0; i < children; i++) {
+			processes[i] = Workloads.start(backend, "seq", "1", "1000");
+		}
+		long total = 0;
+		for (int i = 0; i < children; i++) {
+			total += Workloads.finish(backend, processes[i], buffer);
+			processes[i] = null;
+		}
+		return total;
+	}
+}
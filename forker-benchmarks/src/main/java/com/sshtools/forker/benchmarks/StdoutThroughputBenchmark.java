@@ -0,0 +1,83 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of standard output, by running <code>cat</code> over a large
+ * file. {@link Backend#SYSTEM} is excluded as it cannot read output.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class StdoutThroughputBenchmark {
+
+	@Param({ "NON_BLOCKING", "VIRTUAL_THREADS", "LOCAL", "POPEN" })
+	public Backend backend;
+
+	@Param({ "1048576", "67108864" })
+	public int size;
+
+	private final byte[] buffer = new byte[65536];
+	private Path file;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		backend.select();
+		file = Files.createTempFile("forker-bench", ".dat");
+		byte[] block = Workloads.data(new byte[65536]);
+		try (OutputStream out = Files.newOutputStream(file)) {
+			for (int written = 0; written < size; written += block.length) {
+				out.write(block, 0, Math.min(block.length, size - written));
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	public long cat() throws Exception {
+		long read = Workloads.count(backend, buffer, "cat", file.toString());
+		if (read != size)
+			throw new IllegalStateException(String.format("Expected %d bytes, read %d.", size, read));
+		return read;
+	}
+}
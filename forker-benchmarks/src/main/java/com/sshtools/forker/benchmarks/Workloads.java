@@ -0,0 +1,215 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sshtools.forker.client.DefaultNonBlockingProcessListener;
+import com.sshtools.forker.client.ForkerBuilder;
+import com.sshtools.forker.client.ForkerProcess;
+import com.sshtools.forker.client.NonBlockingProcess;
+
+/**
+ * The work done by each benchmark, for any {@link Backend}. Non-blocking
+ * backends are driven through a listener, the others through the process
+ * streams. Nothing is retained, so what is allocated is down to the backend.
+ */
+public final class Workloads {
+
+	private Workloads() {
+	}
+
+	/**
+	 * Fill a buffer with arbitrary binary data, the same every time so runs are
+	 * comparable.
+	 * 
+	 * @param block buffer to fill
+	 * @return the buffer
+	 */
+	public static byte[] data(byte[] block) {
+		new Random(0).nextBytes(block);
+		return block;
+	}
+
+	/**
+	 * Start a process and consume all of its output.
+	 * 
+	 * @param backend backend
+	 * @param command command and arguments
+	 * @return started process, whose output is being read or will be read in
+	 *         {@link #finish(Backend, ForkerProcess, byte[])}
+	 * @throws IOException on error
+	 */
+	public static ForkerProcess start(Backend backend, String... command) throws IOException {
+		ForkerBuilder builder = new ForkerBuilder(command).io(backend.io());
+		if (backend.isNonBlocking()) {
+			return builder.start(new DefaultNonBlockingProcessListener() {
+				@Override
+				public void onStdout(NonBlockingProcess process, ByteBuffer buffer, boolean closed) {
+					buffer.position(buffer.limit());
+				}
+			});
+		}
+		return builder.start();
+	}
+
+	/**
+	 * Wait for a process started by {@link #start(Backend, String...)} to exit,
+	 * reading its output first if it is stream based.
+	 * 
+	 * @param backend backend
+	 * @param process process
+	 * @param buffer  buffer to read into
+	 * @return number of bytes read for stream based backends, or zero
+	 * @throws IOException          on error
+	 * @throws InterruptedException if interrupted
+	 */
+	public static long finish(Backend backend, ForkerProcess process, byte[] buffer)
+			throws IOException, InterruptedException {
+		long total = 0;
+		if (!backend.isNonBlocking() && backend.isReadsOutput()) {
+			total = drain(process.getInputStream(), buffer);
+		}
+		process.waitFor();
+		return total;
+	}
+
+	/**
+	 * Run a process to completion, consuming all of its output.
+	 * 
+	 * @param backend backend
+	 * @param buffer  buffer to read into for stream based backends
+	 * @param command command and arguments
+	 * @return exit code
+	 * @throws IOException          on error
+	 * @throws InterruptedException if interrupted
+	 */
+	public static int run(Backend backend, byte[] buffer, String... command) throws IOException, InterruptedException {
+		ForkerProcess process = start(backend, command);
+		finish(backend, process, buffer);
+		return process.exitValue();
+	}
+
+	/**
+	 * Count the bytes of output of a process.
+	 * 
+	 * @param backend backend
+	 * @param buffer  buffer to read into for stream based backends
+	 * @param command command and arguments
+	 * @return number of bytes of output
+	 * @throws IOException          on error
+	 * @throws InterruptedException if interrupted
+	 */
+	public static long count(Backend backend, byte[] buffer, String... command)
+			throws IOException, InterruptedException {
+		ForkerBuilder builder = new ForkerBuilder(command).io(backend.io());
+		if (backend.isNonBlocking()) {
+			AtomicLong total = new AtomicLong();
+			NonBlockingProcess process = builder.start(new DefaultNonBlockingProcessListener() {
+				@Override
+				public void onStdout(NonBlockingProcess process, ByteBuffer buffer, boolean closed) {
+					total.addAndGet(buffer.remaining());
+					buffer.position(buffer.limit());
+				}
+			});
+			process.waitFor();
+			return total.get();
+		}
+		ForkerProcess process = builder.start();
+		return finish(backend, process, buffer);
+	}
+
+	/**
+	 * Write bytes to <code>cat</code> and read them all back.
+	 * 
+	 * @param backend backend
+	 * @param input   bytes to write, repeatedly
+	 * @param length  total number of bytes to write
+	 * @param buffer  buffer to read into for stream based backends
+	 * @return number of bytes read back
+	 * @throws IOException          on error
+	 * @throws InterruptedException if interrupted
+	 */
+	public static long echo(Backend backend, byte[] input, long length, byte[] buffer)
+			throws IOException, InterruptedException {
+		ForkerBuilder builder = new ForkerBuilder("cat").io(backend.io());
+		if (backend.isNonBlocking()) {
+			AtomicLong read = new AtomicLong();
+			NonBlockingProcess process = builder.start(new DefaultNonBlockingProcessListener() {
+				private long written;
+
+				@Override
+				public void onStdout(NonBlockingProcess process, ByteBuffer buffer, boolean closed) {
+					read.addAndGet(buffer.remaining());
+					buffer.position(buffer.limit());
+				}
+
+				@Override
+				public boolean onStdinReady(NonBlockingProcess process, ByteBuffer buffer) {
+					while (buffer.hasRemaining() && written < length) {
+						int n = (int) Math.min(Math.min(buffer.remaining(), input.length), length - written);
+						buffer.put(input, 0, n);
+						written += n;
+					}
+					buffer.flip();
+					if (written < length)
+						return true;
+					try {
+						process.closeStdin(false);
+					} catch (IOException ioe) {
+						throw new UncheckedIOException(ioe);
+					}
+					return false;
+				}
+			});
+			process.wantWrite();
+			process.waitFor();
+			return read.get();
+		}
+		ForkerProcess process = builder.start();
+		Thread writer = new Thread(() -> {
+			try (OutputStream out = process.getOutputStream()) {
+				for (long written = 0; written < length;) {
+					int n = (int) Math.min(input.length, length - written);
+					out.write(input, 0, n);
+					written += n;
+				}
+			} catch (IOException ioe) {
+				throw new UncheckedIOException(ioe);
+			}
+		}, "EchoWriter");
+		writer.start();
+		long total = drain(process.getInputStream(), buffer);
+		writer.join();
+		process.waitFor();
+		return total;
+	}
+
+	private static long drain(InputStream in, byte[] buffer) throws IOException {
+		long total = 0;
+		int r;
+		while ((r = in.read(buffer)) != -1) {
+			total += r;
+		}
+		return total;
+	}
+}
@@ -0,0 +1,303 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An asynchronous view of a {@link NonBlockingProcess}, as returned by
+ * {@link ForkerBuilder#startAsync()}. The exit code is available as a
+ * {@link CompletableFuture}, and standard output and standard error as
+ * {@link Flow.Publisher}s of {@link ByteBuffer}s. No thread is used to wait for
+ * the process.
+ * <p>
+ * Each publisher accepts a single subscriber, and only reads from the child as
+ * fast as the subscriber requests. When there is no outstanding demand, at
+ * most one chunk of output is held and reading from the child is paused, so
+ * the child blocks once the pipe is full. If the process implementation cannot
+ * pause reading, output is queued until requested instead.
+ * <p>
+ * Because of this, output should always be subscribed to. If it is never
+ * subscribed to, a child that writes more than a pipe's worth of output will
+ * never exit.
+ * <p>
+ * If a publisher fails, either because of an error reading from the process or
+ * because its subscriber broke the rules (e.g. requested a non-positive amount),
+ * any further output can no longer be delivered, so the process is destroyed.
+ */
+public class AsyncProcess {
+
+	private final BufferPublisher stdout = new BufferPublisher(false);
+	private final BufferPublisher stderr = new BufferPublisher(true);
+	private final CompletableFuture<Integer> exit = new CompletableFuture<>();
+	private final NonBlockingProcess process;
+
+	AsyncProcess(ForkerBuilder builder) throws IOException {
+		NonBlockingProcessListener listener = new NonBlockingProcessListener() {
+			@Override
+			public void onError(Exception exception, NonBlockingProcess process, boolean exiting) {
+				stdout.fail(exception);
+				stderr.fail(exception);
+			}
+
+			@Override
+			public void onStart(NonBlockingProcess process) {
+			}
+
+			@Override
+			public void onStarted(NonBlockingProcess process) {
+			}
+
+			@Override
+			public void onExit(int exitCode, NonBlockingProcess process) {
+				stdout.complete();
+				stderr.complete();
+				exit.complete(exitCode);
+			}
+
+			@Override
+			public void onStdout(NonBlockingProcess process, ByteBuffer buffer, boolean closed) {
+				stdout.offer(process, buffer);
+				if (closed)
+					stdout.complete();
+			}
+
+			@Override
+			public void onStderr(NonBlockingProcess process, ByteBuffer buffer, boolean closed) {
+				if (builder.redirectErrorStream()) {
+					stdout.offer(process, buffer);
+				} else {
+					stderr.offer(process, buffer);
+					if (closed)
+						stderr.complete();
+				}
+			}
+
+			@Override
+			public boolean onStdinReady(NonBlockingProcess process, ByteBuffer buffer) {
+				return false;
+			}
+		};
+		ForkerProcess started = builder.start(listener);
+		if (!(started instanceof NonBlockingProcess)) {
+			started.destroy();
+			throw new IOException(String.format("Process was not a %s, so cannot be used asynchronously.",
+					NonBlockingProcess.class.getSimpleName()));
+		}
+		process = (NonBlockingProcess) started;
+		stdout.attach(process);
+		stderr.attach(process);
+		if (builder.redirectErrorStream()) {
+			stderr.complete();
+		}
+	}
+
+	/**
+	 * Get the underlying process, for example to write to its standard input.
+	 * 
+	 * @return process
+	 */
+	public NonBlockingProcess getProcess() {
+		return process;
+	}
+
+	/**
+	 * Get a future that completes with the exit code once the process has exited
+	 * and all of its output has been read.
+	 * 
+	 * @return exit code future
+	 */
+	public CompletableFuture<Integer> onExit() {
+		return exit;
+	}
+
+	/**
+	 * Get a publisher of the process's standard output. Each buffer delivered
+	 * belongs to the subscriber.
+	 * 
+	 * @return standard output publisher
+	 */
+	public Flow.Publisher<ByteBuffer> stdout() {
+		return stdout;
+	}
+
+	/**
+	 * Get a publisher of the process's standard error. Each buffer delivered
+	 * belongs to the subscriber. If the error stream is redirected, this completes
+	 * immediately.
+	 * 
+	 * @return standard error publisher
+	 */
+	public Flow.Publisher<ByteBuffer> stderr() {
+		return stderr;
+	}
+
+	/**
+	 * Publishes one of the process's output streams, pausing reads while the
+	 * subscriber has no outstanding demand. Signals are serialized with a work
+	 * in progress counter, so whichever thread (the I/O thread or a thread calling
+	 * {@link Flow.Subscription#request(long)}) finds work does the delivery.
+	 */
+	static class BufferPublisher implements Flow.Publisher<ByteBuffer> {
+		private final boolean stderr;
+		private final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger wip = new AtomicInteger();
+		private final AtomicReference<Flow.Subscriber<? super ByteBuffer>> subscriber = new AtomicReference<>();
+		private final AtomicBoolean subscribed = new AtomicBoolean();
+		private volatile NonBlockingProcess process;
+		private volatile boolean done;
+		private volatile Throwable error;
+		private volatile boolean cancelled;
+		private boolean terminated;
+		private boolean paused;
+
+		BufferPublisher(boolean stderr) {
+			this.stderr = stderr;
+		}
+
+		@Override
+		public void subscribe(Flow.Subscriber<? super ByteBuffer> s) {
+			if (!subscribed.compareAndSet(false, true)) {
+				s.onSubscribe(new Flow.Subscription() {
+					@Override
+					public void request(long n) {
+					}
+
+					@Override
+					public void cancel() {
+					}
+				});
+				s.onError(new IllegalStateException("Only one subscriber is supported."));
+				return;
+			}
+			s.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(long n) {
+					if (n <= 0) {
+						fail(new IllegalArgumentException("Request must be positive."));
+					} else {
+						demand.getAndUpdate(d -> d + n < 0 ? Long.MAX_VALUE : d + n);
+					}
+					drain();
+				}
+
+				@Override
+				public void cancel() {
+					cancelled = true;
+					queue.clear();
+					updateInterest();
+				}
+			});
+			subscriber.set(s);
+			drain();
+		}
+
+		void attach(NonBlockingProcess process) {
+			this.process = process;
+			if (error != null)
+				process.destroy();
+			updateInterest();
+		}
+
+		void offer(NonBlockingProcess process, ByteBuffer buffer) {
+			this.process = process;
+			if (!buffer.hasRemaining())
+				return;
+			if (cancelled || done) {
+				/* Nothing will ever be delivered, so the output must not be queued */
+				buffer.position(buffer.limit());
+				return;
+			}
+			ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+			copy.put(buffer);
+			copy.flip();
+			queue.add(copy);
+			drain();
+		}
+
+		void complete() {
+			done = true;
+			drain();
+		}
+
+		void fail(Throwable throwable) {
+			if (error == null)
+				error = throwable;
+			done = true;
+			/* Otherwise the child would run on with its output discarded */
+			NonBlockingProcess p = process;
+			if (p != null)
+				p.destroy();
+			drain();
+		}
+
+		private void drain() {
+			if (wip.getAndIncrement() != 0)
+				return;
+			int missed = 1;
+			do {
+				Flow.Subscriber<? super ByteBuffer> s = subscriber.get();
+				if (s != null && !terminated) {
+					if (cancelled) {
+						queue.clear();
+					} else {
+						while (demand.get() > 0) {
+							ByteBuffer next = queue.poll();
+							if (next == null)
+								break;
+							demand.decrementAndGet();
+							s.onNext(next);
+						}
+						if (done && (queue.isEmpty() || error != null)) {
+							terminated = true;
+							queue.clear();
+							if (error == null)
+								s.onComplete();
+							else
+								s.onError(error);
+						}
+					}
+				}
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+			updateInterest();
+		}
+
+		/*
+		 * Read while nothing is waiting to be delivered. Synchronized so that each
+		 * decision is made with the latest state, whichever thread makes it
+		 */
+		private synchronized void updateInterest() {
+			NonBlockingProcess p = process;
+			if (p == null)
+				return;
+			boolean pause = !cancelled && !done && !queue.isEmpty();
+			if (pause != paused && p.setReadInterest(stderr, !pause)) {
+				paused = pause;
+			}
+		}
+	}
+}
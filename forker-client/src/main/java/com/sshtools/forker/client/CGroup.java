@@ -0,0 +1,324 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.jna.Platform;
+
+/**
+ * A Linux cgroup v2 created for processes started with {@link ResourceLimits}.
+ * Obtain the cgroup of a process using {@link ForkerProcess#getCGroup()}.
+ */
+public final class CGroup {
+
+	/**
+	 * System property that may be set to the path of the cgroup under which
+	 * process cgroups are created.
+	 */
+	public final static String ROOT_PROPERTY = "forker.cgroup.root";
+
+	private final static Logger LOG = Logger.getLogger(CGroup.class.getName());
+
+	private final static Path MOUNT = Paths.get("/sys/fs/cgroup");
+	private final static AtomicLong COUNTER = new AtomicLong();
+
+	private final Path path;
+	private final boolean temporary;
+
+	private CGroup(Path path, boolean temporary) {
+		this.path = path;
+		this.temporary = temporary;
+	}
+
+	/**
+	 * Get a cgroup given its path.
+	 * 
+	 * @param path path
+	 * @return cgroup
+	 */
+	public static CGroup of(Path path) {
+		return new CGroup(path, false);
+	}
+
+	/**
+	 * Get the default cgroup under which process cgroups are created. This is
+	 * the value of the {@link #ROOT_PROPERTY} system property if set,
+	 * otherwise the cgroup of this JVM.
+	 * <p>
+	 * Note that cgroup v2 does not allow a cgroup that contains processes to
+	 * pass controllers on to its children, so the cgroup of this JVM may only
+	 * be used for a {@link ResourceLimits#group(String)} without any limits.
+	 * To use limits, delegate an empty cgroup to the user (e.g.
+	 * <code>systemd-run --user -p Delegate=yes</code>) and point
+	 * {@link #ROOT_PROPERTY} or {@link ResourceLimits#root(Path)} at it.
+	 * 
+	 * @return default root
+	 * @throws IOException if cgroup v2 is not available
+	 */
+	public static Path getDefaultRoot() throws IOException {
+		Path root = getConfiguredRoot();
+		if (root != null)
+			return root;
+		if (!Platform.isLinux())
+			throw new IOException("cgroups are only available on Linux.");
+		Path mount = getMount();
+		for (String line : Files.readAllLines(Paths.get("/proc/self/cgroup"))) {
+			if (line.startsWith("0::")) {
+				Path path = mount.resolve(line.substring(3).replaceFirst("^/+", ""));
+				if (Files.exists(path.resolve("cgroup.procs")))
+					return path;
+			}
+		}
+		throw new IOException("cgroup v2 is not available.");
+	}
+
+	private static Path getConfiguredRoot() {
+		String root = System.getProperty(ROOT_PROPERTY);
+		return root == null || root.length() == 0 ? null : Paths.get(root);
+	}
+
+	private static Path getMount() throws IOException {
+		/* Hybrid systems mount cgroup v2 somewhere other than the usual place */
+		for (String line : Files.readAllLines(Paths.get("/proc/self/mountinfo"))) {
+			int idx = line.indexOf(" - ");
+			if (idx != -1 && line.startsWith("cgroup2 ", idx + 3)) {
+				String[] fields = line.substring(0, idx).split(" ");
+				if (fields.length > 4)
+					return Paths.get(fields[4].replace("\\040", " "));
+			}
+		}
+		return MOUNT;
+	}
+
+	/**
+	 * Get the path of this cgroup.
+	 * 
+	 * @return path
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * Get the name of this cgroup.
+	 * 
+	 * @return name
+	 */
+	public String getName() {
+		return path.getFileName().toString();
+	}
+
+	/**
+	 * Get whether this cgroup was created for a single process, and will be
+	 * removed when it exits.
+	 * 
+	 * @return temporary
+	 */
+	public boolean isTemporary() {
+		return temporary;
+	}
+
+	/**
+	 * Get the IDs of all processes in this cgroup.
+	 * 
+	 * @return process IDs
+	 * @throws IOException on error
+	 */
+	public List<Long> getProcesses() throws IOException {
+		List<Long> pids = new ArrayList<>();
+		for (String line : Files.readAllLines(path.resolve("cgroup.procs"))) {
+			if (line.length() > 0)
+				pids.add(Long.parseLong(line.trim()));
+		}
+		return pids;
+	}
+
+	/**
+	 * Read an interface file of this cgroup, for example
+	 * <code>memory.current</code>.
+	 * 
+	 * @param name name of file
+	 * @return value, without the trailing newline
+	 * @throws IOException on error
+	 */
+	public String get(String name) throws IOException {
+		return new String(Files.readAllBytes(path.resolve(name)), StandardCharsets.UTF_8).trim();
+	}
+
+	/**
+	 * Write an interface file of this cgroup, for example
+	 * <code>memory.high</code>.
+	 * 
+	 * @param name  name of file
+	 * @param value value
+	 * @throws IOException on error
+	 */
+	public void set(String name, String value) throws IOException {
+		Files.write(path.resolve(name), value.getBytes(StandardCharsets.UTF_8), StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Kill every process in this cgroup, including any that have left their
+	 * process group. Uses <code>cgroup.kill</code> where the kernel supports
+	 * it (5.14 and later), otherwise each process is sent
+	 * <code>SIGKILL</code> in turn.
+	 * 
+	 * @throws IOException on error
+	 */
+	public void kill() throws IOException {
+		if (Files.exists(path.resolve("cgroup.kill"))) {
+			set("cgroup.kill", "1");
+		} else {
+			for (Long pid : getProcesses()) {
+				ProcessHandle.of(pid).ifPresent(ProcessHandle::destroyForcibly);
+			}
+		}
+	}
+
+	/**
+	 * Remove this cgroup. This will fail if it still contains any processes.
+	 * 
+	 * @return removed
+	 */
+	public boolean remove() {
+		try {
+			Files.deleteIfExists(path);
+			return true;
+		} catch (IOException ioe) {
+			LOG.log(Level.FINE, String.format("Could not remove cgroup %s.", path), ioe);
+			return false;
+		}
+	}
+
+	/**
+	 * Remove this cgroup, retrying for a short while if it is not yet empty. The
+	 * leader of a process group may be reaped before the rest of its group has
+	 * exited.
+	 * 
+	 * @param attempts maximum attempts
+	 */
+	void removeWhenEmpty(int attempts) {
+		if (!remove() && attempts > 1) {
+			CompletableFuture.runAsync(() -> removeWhenEmpty(attempts - 1),
+					CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS));
+		}
+	}
+
+	/**
+	 * Create (or re-use if named and already existing) the cgroup for a process
+	 * and apply limits to it.
+	 * 
+	 * @param limits limits
+	 * @return cgroup
+	 * @throws IOException on error
+	 */
+	static CGroup create(ResourceLimits limits) throws IOException {
+		Path root = limits.root() == null ? getConfiguredRoot() : limits.root();
+		if (root == null) {
+			if (!limits.controllers().isEmpty())
+				throw new IOException(String.format(
+						"Resource limits need a delegated cgroup that contains no processes, set %s or use ResourceLimits.root().",
+						ROOT_PROPERTY));
+			root = getDefaultRoot();
+		}
+		enableControllers(root, limits.controllers());
+		CGroup cgroup;
+		if (limits.group() == null) {
+			cgroup = new CGroup(root.resolve("forker-" + ProcessHandle.current().pid() + "-" + COUNTER.incrementAndGet()),
+					true);
+			Files.createDirectory(cgroup.path);
+		} else {
+			cgroup = new CGroup(root.resolve(limits.group()), false);
+			if (!Files.exists(cgroup.path))
+				Files.createDirectories(cgroup.path);
+		}
+		try {
+			if (limits.memoryMax() != -1)
+				cgroup.set("memory.max", String.valueOf(limits.memoryMax()));
+			if (limits.cpuQuota() != -1)
+				cgroup.set("cpu.max", limits.cpuQuota() + " " + limits.cpuPeriod());
+			if (limits.pidsMax() != -1)
+				cgroup.set("pids.max", String.valueOf(limits.pidsMax()));
+			if (limits.ioWeight() != 0)
+				cgroup.set("io.weight", "default " + limits.ioWeight());
+		} catch (IOException ioe) {
+			if (cgroup.temporary)
+				cgroup.remove();
+			throw ioe;
+		}
+		return cgroup;
+	}
+
+	private static void enableControllers(Path root, Set<String> controllers) throws IOException {
+		if (controllers.isEmpty())
+			return;
+		Set<String> available;
+		Set<String> enabled;
+		try {
+			available = words(root.resolve("cgroup.controllers"));
+			enabled = words(root.resolve("cgroup.subtree_control"));
+		} catch (NoSuchFileException nsfe) {
+			throw new IOException(String.format("%s is not a cgroup v2 directory.", root), nsfe);
+		}
+		StringBuilder add = new StringBuilder();
+		for (String controller : controllers) {
+			if (!available.contains(controller))
+				throw new IOException(
+						String.format("The '%s' cgroup controller is not available to %s.", controller, root));
+			if (!enabled.contains(controller)) {
+				if (add.length() > 0)
+					add.append(' ');
+				add.append('+').append(controller);
+			}
+		}
+		if (add.length() > 0) {
+			try {
+				Files.write(root.resolve("cgroup.subtree_control"), add.toString().getBytes(StandardCharsets.UTF_8),
+						StandardOpenOption.WRITE);
+			} catch (IOException ioe) {
+				throw new IOException(String.format(
+						"Could not enable %s in %s. The cgroup must be writable and must not itself contain processes, set %s to an empty delegated cgroup.",
+						add, root, ROOT_PROPERTY), ioe);
+			}
+		}
+	}
+
+	private static Set<String> words(Path file) throws IOException {
+		return new HashSet<>(Arrays.asList(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim().split("\\s+")));
+	}
+
+	@Override
+	public String toString() {
+		return "CGroup [path=" + path + "]";
+	}
+}
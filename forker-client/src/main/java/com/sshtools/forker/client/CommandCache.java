@@ -0,0 +1,214 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.jna.Platform;
+
+/**
+ * Resolves command names against a <code>PATH</code> in process, and caches the
+ * results for {@link OSCommand#hasCommand(String)}. An entry is used until its
+ * time to live expires, the <code>PATH</code> it was resolved against changes,
+ * or the modification time of a directory it depends on changes (the directory
+ * the command was found in, or for a command that was not found, every
+ * directory on the <code>PATH</code>), so newly installed or removed commands
+ * are noticed within a second.
+ * <p>
+ * The time to live and maximum number of entries may be set with the
+ * <code>forker.commandCacheTtl</code> (milliseconds, default 60000) and
+ * <code>forker.commandCacheMaxSize</code> (default 256) system properties.
+ */
+final class CommandCache {
+
+	private final static class Entry {
+		private final String path;
+		private final Path found;
+		private final long[] mtimes;
+		private final long expires;
+		private volatile long checked;
+
+		private Entry(String path, Path found, long[] mtimes, long now, long expires) {
+			this.path = path;
+			this.found = found;
+			this.mtimes = mtimes;
+			this.checked = now;
+			this.expires = expires;
+		}
+	}
+
+	/* How often directory modification times are checked, at most */
+	private final static long RECHECK = TimeUnit.SECONDS.toNanos(1);
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final long ttl;
+	private final int maxSize;
+
+	CommandCache() {
+		this(TimeUnit.MILLISECONDS.toNanos(Long.getLong("forker.commandCacheTtl", 60000)),
+				Integer.getInteger("forker.commandCacheMaxSize", 256));
+	}
+
+	CommandCache(long ttlNanos, int maxSize) {
+		this.ttl = ttlNanos;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Find a command, using the cache if possible.
+	 * 
+	 * @param command command
+	 * @param path    search path
+	 * @return path of command or <code>null</code> if not found
+	 */
+	Path find(String command, String path) {
+		long now = System.nanoTime();
+		Entry entry = entries.get(command);
+		if (entry != null && now - entry.expires < 0 && entry.path.equals(path)) {
+			if (now - entry.checked < RECHECK)
+				return entry.found;
+			if (sameMtimes(entry.found == null ? directories(path) : singleton(entry.found.getParent()),
+					entry.mtimes)) {
+				entry.checked = now;
+				return entry.found;
+			}
+		}
+		Path found = resolve(command, path);
+		List<Path> dirs = found == null ? directories(path) : singleton(found.getParent());
+		if (entries.size() >= maxSize)
+			evict(now);
+		entries.put(command, new Entry(path, found, mtimes(dirs), now, now + ttl));
+		return found;
+	}
+
+	/**
+	 * Discard all entries.
+	 */
+	void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Find a command on a search path without using the cache.
+	 * 
+	 * @param command command
+	 * @param path    search path
+	 * @return path of command or <code>null</code> if not found
+	 */
+	static Path resolve(String command, String path) {
+		try {
+			if (command.indexOf('/') != -1 || command.indexOf(File.separatorChar) != -1) {
+				Path p = Paths.get(command);
+				return isCommand(p) ? p : null;
+			}
+			List<String> names = names(command);
+			for (Path dir : directories(path)) {
+				for (String name : names) {
+					Path p = dir.resolve(name);
+					if (isCommand(p))
+						return p;
+				}
+			}
+		} catch (InvalidPathException ipe) {
+		}
+		return null;
+	}
+
+	private void evict(long now) {
+		entries.values().removeIf(e -> now - e.expires >= 0);
+		Iterator<String> it = entries.keySet().iterator();
+		while (entries.size() >= maxSize && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	private static boolean isCommand(Path p) {
+		return Files.isRegularFile(p) && (Platform.isWindows() || Files.isExecutable(p));
+	}
+
+	private static List<String> names(String command) {
+		List<String> names = new ArrayList<>();
+		if (Platform.isWindows()) {
+			String pathext = System.getenv("PATHEXT");
+			for (String ext : (pathext == null ? ".COM;.EXE;.BAT;.CMD" : pathext).split(";")) {
+				if (ext.length() > 0)
+					names.add(command + ext.toLowerCase());
+			}
+		}
+		names.add(command);
+		return names;
+	}
+
+	private static List<Path> directories(String path) {
+		List<Path> dirs = new ArrayList<>();
+		if (path != null) {
+			for (String p : path.split(File.pathSeparator)) {
+				if (p.length() > 0) {
+					try {
+						dirs.add(Paths.get(p));
+					} catch (InvalidPathException ipe) {
+					}
+				}
+			}
+		}
+		return dirs;
+	}
+
+	private static List<Path> singleton(Path dir) {
+		List<Path> l = new ArrayList<>(1);
+		l.add(dir);
+		return l;
+	}
+
+	private static long[] mtimes(List<Path> dirs) {
+		long[] mtimes = new long[dirs.size()];
+		for (int i = 0; i < mtimes.length; i++)
+			mtimes[i] = mtime(dirs.get(i));
+		return mtimes;
+	}
+
+	private static boolean sameMtimes(List<Path> dirs, long[] mtimes) {
+		if (dirs.size() != mtimes.length)
+			return false;
+		for (int i = 0; i < mtimes.length; i++) {
+			if (mtime(dirs.get(i)) != mtimes[i])
+				return false;
+		}
+		return true;
+	}
+
+	private static long mtime(Path dir) {
+		if (dir == null)
+			return -1;
+		try {
+			return Files.getLastModifiedTime(dir).toMillis();
+		} catch (IOException ioe) {
+			return -1;
+		}
+	}
+}
@@ -1,6 +1,11 @@
 package com.sshtools.forker.client;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
 
 /**
  * Replacement for {@link Runtime#exec(String)} and friends.
@@ -51,6 +56,53 @@ public class Forker {
 		Forker.forkerComponentsClasspath = forkerComponentsClasspath;
 	}
 
+	/**
+	 * Start many processes at once. See
+	 * {@link #startAll(Collection, Function)}.
+	 * 
+	 * @param builders builders
+	 * @return group of started processes
+	 * @throws IOException on any error
+	 */
+	public static ProcessGroup startAll(Collection<ForkerBuilder> builders) throws IOException {
+		return startAll(builders, null);
+	}
+
+	/**
+	 * Start many processes at once, for example one for each of a list of
+	 * hosts, returning them as a {@link ProcessGroup} with a single future
+	 * that completes when all have exited.
+	 * <p>
+	 * Processes are started in the order of the builders. If any fails to
+	 * start, those already started are forcibly killed before the exception is
+	 * thrown.
+	 * <p>
+	 * Each process is still started individually. In particular, registration
+	 * of non-blocking processes with epoll is not batched, as each process must
+	 * be registered as soon as its pipes exist so no output is missed.
+	 * 
+	 * @param builders        builders
+	 * @param listenerFactory creates the listener for each builder, or
+	 *                        <code>null</code> for no listeners
+	 * @return group of started processes
+	 * @throws IOException on any error
+	 */
+	public static ProcessGroup startAll(Collection<ForkerBuilder> builders,
+			Function<ForkerBuilder, ? extends ForkerProcessListener> listenerFactory) throws IOException {
+		List<ForkerProcess> processes = new ArrayList<>(builders.size());
+		try {
+			for (ForkerBuilder builder : builders) {
+				processes.add(builder.start(listenerFactory == null ? null : listenerFactory.apply(builder)));
+			}
+		} catch (IOException | RuntimeException e) {
+			for (ForkerProcess process : processes) {
+				process.destroyForcibly();
+			}
+			throw e;
+		}
+		return new ProcessGroup(processes);
+	}
+
 	/**
 	 * Get a cut-down classpath that may be used to launch forker from the
 	 * current classpath.
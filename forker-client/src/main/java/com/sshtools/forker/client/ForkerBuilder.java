@@ -19,6 +19,7 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.ProcessBuilder.Redirect;
 import java.security.AccessControlException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -51,6 +52,9 @@ public class ForkerBuilder {
 	private Command command = new Command();
 	private ForkerConfiguration configuration;
 	private EffectiveUser effectiveUser;
+	private SpliceTarget spliceOutput;
+	private PreparedCommand prepared;
+	private ResourceLimits resourceLimits;
 
 	/**
 	 * Construct a new builder given a list of command arguments. The first
@@ -80,6 +84,11 @@ public class ForkerBuilder {
 		this.command.getArguments().addAll(Arrays.asList(command));
 	}
 
+	ForkerBuilder(ForkerConfiguration configuration, Command command) {
+		this.configuration = configuration;
+		this.command = command;
+	}
+
 	/**
 	 * Construct a new builder given a list of command arguments. The first
 	 * element is the command to execute, anything remaining is passed to this
@@ -279,6 +288,55 @@ public class ForkerBuilder {
 		return this;
 	}
 
+	/**
+	 * Get where standard output will be moved to using <code>splice(2)</code>
+	 * rather than being delivered to the listener, or <code>null</code> if
+	 * output is not spliced. See {@link SpliceTarget}.
+	 * 
+	 * @return splice target
+	 */
+	public SpliceTarget spliceOutput() {
+		return spliceOutput;
+	}
+
+	/**
+	 * Set where standard output will be moved to using <code>splice(2)</code>
+	 * rather than being delivered to the listener. Only supported in
+	 * {@link IO#NON_BLOCKING} mode on Linux. See {@link SpliceTarget}.
+	 * 
+	 * @param spliceOutput splice target or <code>null</code> to deliver output
+	 *            to the listener as normal
+	 * @return this for chaining
+	 */
+	public ForkerBuilder spliceOutput(SpliceTarget spliceOutput) {
+		this.spliceOutput = spliceOutput;
+		return this;
+	}
+
+	/**
+	 * Get the resource limits and process group options the process will be
+	 * started with, or <code>null</code> if none. See {@link ResourceLimits}.
+	 * 
+	 * @return resource limits
+	 */
+	public ResourceLimits resourceLimits() {
+		return resourceLimits;
+	}
+
+	/**
+	 * Set the resource limits and process group options the process will be
+	 * started with. Limits are only supported on Linux with cgroup v2, and a
+	 * process group requires the <code>setsid</code> command. See
+	 * {@link ResourceLimits}.
+	 * 
+	 * @param resourceLimits resource limits or <code>null</code> for none
+	 * @return this for chaining
+	 */
+	public ForkerBuilder resourceLimits(ResourceLimits resourceLimits) {
+		this.resourceLimits = resourceLimits;
+		return this;
+	}
+
 	/**
 	 * Get the environment to pass to the child process. Values may be added,
 	 * removed or changed in this map.
@@ -473,6 +531,47 @@ public class ForkerBuilder {
 		return this;
 	}
 
+	/**
+	 * Take an immutable snapshot of this builder, with the native argument and
+	 * environment blocks encoded ready for launching the same command many
+	 * times. See {@link PreparedCommand}.
+	 * 
+	 * @return prepared command
+	 */
+	public PreparedCommand prepare() {
+		return new PreparedCommand(this);
+	}
+
+	/**
+	 * Get the {@link PreparedCommand} this builder was created by, or
+	 * <code>null</code> if it was not created by one. Process implementations
+	 * may use this to avoid encoding the command again.
+	 * 
+	 * @return prepared command
+	 */
+	public PreparedCommand prepared() {
+		return prepared;
+	}
+
+	void prepared(PreparedCommand prepared) {
+		this.prepared = prepared;
+	}
+
+	/**
+	 * Start the process using {@link IO#NON_BLOCKING} I/O and return an
+	 * {@link AsyncProcess}, which provides the exit code as a
+	 * {@link java.util.concurrent.CompletableFuture} and the output streams as
+	 * {@link java.util.concurrent.Flow.Publisher}s. No thread is used to wait for
+	 * the process. This sets the I/O mode of this builder.
+	 * 
+	 * @return asynchronous process
+	 * @throws IOException on any error
+	 */
+	public AsyncProcess startAsync() throws IOException {
+		io(IO.NON_BLOCKING);
+		return new AsyncProcess(this);
+	}
+
 	/**
 	 * Start the process and return immediately. Upon exit, an active
 	 * {@link Process} will be returned that can be used in the normal way.
@@ -515,15 +614,51 @@ public class ForkerBuilder {
 			}
 		}
 		P process = null;
-		for (ForkerProcessFactory processFactory : configuration.getProcessFactories()) {
+		CGroup cgroup = null;
+		List<String> original = null;
+		PreparedCommand wasPrepared = prepared;
+		if (resourceLimits != null) {
+			/*
+			 * Wrap the command so the child places itself in its process group
+			 * and cgroup before running it. The prepared blocks no longer match
+			 * the command, so are not used.
+			 */
+			original = new ArrayList<String>(command.getArguments());
 			try {
-				process = (P)processFactory.createProcess(this, listener);
-				if (process != null)
-					return process;
+				if (resourceLimits.isCGroup())
+					cgroup = CGroup.create(resourceLimits);
+				List<String> wrapped = resourceLimits.wrap(original, cgroup);
+				command.getArguments().clear();
+				command.getArguments().addAll(wrapped);
 			} catch (IOException e) {
+				if (cgroup != null && cgroup.isTemporary())
+					cgroup.remove();
 				throw handleIOException(prog, security, dir, e);
-			} catch (IllegalArgumentException e) {
-				throw handleIllegalArgumentException(prog, dir, e);
+			}
+			prepared = null;
+		}
+		try {
+			for (ForkerProcessFactory processFactory : configuration.getProcessFactories()) {
+				try {
+					process = (P)processFactory.createProcess(this, listener);
+					if (process != null) {
+						if (resourceLimits != null)
+							process.resourceLimits(cgroup, resourceLimits.processGroup());
+						return process;
+					}
+				} catch (IOException e) {
+					throw handleIOException(prog, security, dir, e);
+				} catch (IllegalArgumentException e) {
+					throw handleIllegalArgumentException(prog, dir, e);
+				}
+			}
+		} finally {
+			if (original != null) {
+				command.getArguments().clear();
+				command.getArguments().addAll(original);
+				prepared = wasPrepared;
+				if (process == null && cgroup != null && cgroup.isTemporary())
+					cgroup.remove();
 			}
 		}
 		throw new UnsupportedOperationException("No factory was willing to handle this type of process.");
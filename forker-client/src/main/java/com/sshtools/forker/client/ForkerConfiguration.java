@@ -23,6 +23,7 @@ import com.sshtools.forker.client.impl.DefaultProcessFactory;
 import com.sshtools.forker.client.impl.LocalProcessFactory;
 import com.sshtools.forker.client.impl.POpenProcessFactory;
 import com.sshtools.forker.client.impl.SystemProcessFactory;
+import com.sshtools.forker.client.impl.VirtualThreadProcessFactory;
 
 /**
  * Holds the list of {@link ForkerProcessFactory} instances that a
@@ -41,6 +42,7 @@ public abstract class ForkerConfiguration {
 		for (ForkerProcessFactory io : ServiceLoader.load(ForkerProcessFactory.class)) {
 			processFactories.add(io);
 		}
+		processFactories.add(new VirtualThreadProcessFactory());
 		processFactories.add(new NonBlockingProcessFactory());
 		processFactories.add(new POpenProcessFactory());
 		processFactories.add(new SystemProcessFactory());
@@ -20,6 +20,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 
+import com.sshtools.forker.client.impl.jna.posix.LibC;
 import com.sshtools.forker.common.IO;
 
 /**
@@ -27,6 +28,49 @@ import com.sshtools.forker.common.IO;
  */
 public abstract class ForkerProcess extends Process {
 
+	private CGroup cgroup;
+	private boolean processGroup;
+
+	/**
+	 * Get the cgroup this process was placed in when started with
+	 * {@link ForkerBuilder#resourceLimits(ResourceLimits)}, or
+	 * <code>null</code> if none.
+	 * 
+	 * @return cgroup
+	 */
+	public CGroup getCGroup() {
+		return cgroup;
+	}
+
+	/**
+	 * Get whether this process was started in its own session and process
+	 * group using {@link ResourceLimits#processGroup(boolean)}.
+	 * 
+	 * @return process group
+	 */
+	public boolean isProcessGroup() {
+		return processGroup;
+	}
+
+	/**
+	 * Signal the whole process group this process leads, so any children it
+	 * has started are terminated too. If the process was not started in its own
+	 * process group, this is the same as {@link #destroy()} or
+	 * {@link #destroyForcibly()}.
+	 * 
+	 * @param forcibly send <code>SIGKILL</code> rather than
+	 *                 <code>SIGTERM</code>
+	 */
+	public void destroyProcessGroup(boolean forcibly) {
+		if (processGroup) {
+			LibC.kill(-(int) pid(), forcibly ? LibC.SIGKILL : LibC.SIGTERM);
+		} else if (forcibly) {
+			destroyForcibly();
+		} else {
+			destroy();
+		}
+	}
+
 	/**
 	 * Close the STDIN pipe to the process. This is similar to using
 	 * {@link OutputStream#close()} on the stream returned from
@@ -86,6 +130,14 @@ public abstract class ForkerProcess extends Process {
 		getOutputStream().flush();
 	}
 
+	void resourceLimits(CGroup cgroup, boolean processGroup) {
+		this.cgroup = cgroup;
+		this.processGroup = processGroup;
+		if (cgroup != null && cgroup.isTemporary()) {
+			onExit().thenRun(() -> cgroup.removeWhenEmpty(50));
+		}
+	}
+
 	/**
 	 * Utility to read from an input stream (i.e. in a blocking fashion) and write
 	 * the data to a processes stdin in a non-block fashinng (where supported).
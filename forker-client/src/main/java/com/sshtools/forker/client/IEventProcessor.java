@@ -79,4 +79,25 @@ public interface IEventProcessor<T extends NonBlockingProcess> extends Runnable
 	 * @param process process
 	 */
 	void wantWrite(NonBlockingProcess process);
+
+	/**
+	 * Get the number of file descriptors (or other handles) currently registered
+	 * with this processor. Used as a measure of load by {@link PlacementStrategy}.
+	 *
+	 * @return registered count
+	 */
+	default int getRegisteredCount() {
+		return 0;
+	}
+
+	/**
+	 * Get the approximate number of bytes read from or written to processes by
+	 * this processor over the last second or two. Used as a measure of load by
+	 * {@link PlacementStrategy}.
+	 *
+	 * @return recent bytes
+	 */
+	default long getRecentBytes() {
+		return 0;
+	}
 }
@@ -0,0 +1,141 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A {@link NonBlockingProcessListener} that splits standard output and
+ * standard error into lines using a {@link LineSplitter}, and delivers them to
+ * {@link #onStdoutLine(NonBlockingProcess, CharSequence)} and
+ * {@link #onStderrLine(NonBlockingProcess, CharSequence)}. The
+ * {@link CharSequence} is only valid for the duration of the call.
+ * <p>
+ * An instance holds the partial lines of one process, so must not be shared
+ * between processes. If standard error is redirected, both streams are
+ * delivered to {@link #onStdoutLine(NonBlockingProcess, CharSequence)}. Each
+ * stream is still split separately, so only whole lines are ever merged. Any
+ * final unterminated line is delivered when the process exits, so subclasses
+ * that override {@link #onExit(int, NonBlockingProcess)} must call the super
+ * method.
+ * 
+ * <pre>
+ * new ForkerBuilder("journalctl", "-f").io(IO.NON_BLOCKING).start(new LineProcessListener() {
+ * 	&#64;Override
+ * 	public void onStdoutLine(NonBlockingProcess process, CharSequence line) {
+ * 		if (startsWith(line, "ERROR"))
+ * 			errors.add(line.toString());
+ * 	}
+ * });
+ * </pre>
+ */
+public class LineProcessListener extends DefaultNonBlockingProcessListener {
+
+	private final LineSplitter stdout;
+	private final LineSplitter stderr;
+	private final LineSplitter redirected;
+	private ByteBuffer stdoutBuffer;
+	private NonBlockingProcess process;
+
+	/**
+	 * Constructor, using the default charset.
+	 */
+	public LineProcessListener() {
+		this(Charset.defaultCharset(), LineSplitter.DEFAULT_MAX_LINE_LENGTH);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param charset       charset
+	 * @param maxLineLength maximum length of a line in bytes
+	 */
+	public LineProcessListener(Charset charset, int maxLineLength) {
+		stdout = new LineSplitter(line -> onStdoutLine(process, line), charset, maxLineLength);
+		stderr = new LineSplitter(line -> onStderrLine(process, line), charset, maxLineLength);
+		redirected = new LineSplitter(line -> onStdoutLine(process, line), charset, maxLineLength);
+	}
+
+	@Override
+	public void onStdout(NonBlockingProcess process, ByteBuffer buffer, boolean closed) {
+		this.process = process;
+		if (process.builder.redirectErrorStream()) {
+			/*
+			 * A redirected standard error is also delivered here, from its own pipe,
+			 * so it is told apart by its buffer and split on its own, otherwise it
+			 * would be joined to the middle of a partial line of standard output
+			 */
+			if (stdoutBuffer == null)
+				stdoutBuffer = buffer;
+			if (buffer != stdoutBuffer) {
+				redirected.feed(buffer, closed);
+				return;
+			}
+		}
+		stdout.feed(buffer, closed);
+	}
+
+	@Override
+	public void onStderr(NonBlockingProcess process, ByteBuffer buffer, boolean closed) {
+		this.process = process;
+		stderr.feed(buffer, closed);
+	}
+
+	@Override
+	public void onExit(int exitCode, NonBlockingProcess process) {
+		this.process = process;
+		stdout.flush();
+		stderr.flush();
+		redirected.flush();
+	}
+
+	/**
+	 * A line has been read from standard output (or standard error if it is
+	 * redirected).
+	 * 
+	 * @param process process
+	 * @param line    line, only valid for the duration of the call
+	 */
+	public void onStdoutLine(NonBlockingProcess process, CharSequence line) {
+	}
+
+	/**
+	 * A line has been read from standard error.
+	 * 
+	 * @param process process
+	 * @param line    line, only valid for the duration of the call
+	 */
+	public void onStderrLine(NonBlockingProcess process, CharSequence line) {
+	}
+
+	/**
+	 * Test if a line starts with a prefix, without converting it to a string.
+	 * 
+	 * @param line   line
+	 * @param prefix prefix
+	 * @return starts with prefix
+	 */
+	public static boolean startsWith(CharSequence line, String prefix) {
+		if (line.length() < prefix.length())
+			return false;
+		for (int i = 0; i < prefix.length(); i++) {
+			if (line.charAt(i) != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.sshtools.forker.common.IO;
+
+/**
+ * A {@link Spliterator} over the lines of output of a process started in
+ * {@link IO#NON_BLOCKING} mode. Lines are split on the I/O thread by a
+ * {@link LineSplitter} and queued for the consumer. When the queue reaches its
+ * capacity, reading of both standard output and standard error is paused
+ * using {@link NonBlockingProcess#pauseStdout()} and
+ * {@link NonBlockingProcess#pauseStderr()}, so the child blocks rather than the
+ * queue growing, and is resumed once the consumer has taken half of the queued
+ * lines. Closing before the end of the output kills the process.
+ * <p>
+ * Lines can only be taken one at a time as they arrive, so this never splits,
+ * and a parallel stream over it is processed sequentially.
+ */
+final class LineSpliterator extends Spliterators.AbstractSpliterator<String> implements AutoCloseable {
+
+	/**
+	 * The default number of lines that may be queued before reading is paused.
+	 */
+	final static int DEFAULT_CAPACITY = 1024;
+
+	private final static Object END = new Object();
+
+	private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+	private final int capacity;
+	private final String description;
+	private final Object lock = new Object();
+	private final NonBlockingProcess process;
+	private boolean paused;
+	private boolean canPause = true;
+	private volatile boolean closed;
+	private volatile int exitCode;
+	private volatile Exception error;
+	private boolean done;
+
+	LineSpliterator(ForkerBuilder builder, int capacity) throws IOException {
+		super(Long.MAX_VALUE, ORDERED | NONNULL);
+		if (capacity < 2)
+			throw new IllegalArgumentException("Capacity must be at least 2.");
+		this.capacity = capacity;
+		this.description = String.join(" ", builder.command());
+		builder.io(IO.NON_BLOCKING);
+		process = builder.start(new LineProcessListener(Charset.defaultCharset(), LineSplitter.DEFAULT_MAX_LINE_LENGTH) {
+			@Override
+			public void onStdoutLine(NonBlockingProcess process, CharSequence line) {
+				queued(process, line.toString());
+			}
+
+			@Override
+			public void onStderrLine(NonBlockingProcess process, CharSequence line) {
+				queued(process, line.toString());
+			}
+
+			@Override
+			public void onError(Exception exception, NonBlockingProcess process, boolean existing) {
+				error = exception;
+			}
+
+			@Override
+			public void onExit(int exitCode, NonBlockingProcess process) {
+				super.onExit(exitCode, process);
+				LineSpliterator.this.exitCode = exitCode;
+				queue.add(END);
+			}
+		});
+	}
+
+	/**
+	 * Get a sequential stream over the lines. Closing the stream closes this
+	 * spliterator.
+	 * 
+	 * @return stream
+	 */
+	Stream<String> stream() {
+		return StreamSupport.stream(this, false).onClose(this::close);
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super String> action) {
+		if (done)
+			return false;
+		Object next;
+		try {
+			next = queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			close();
+			throw new UncheckedIOException(new InterruptedIOException("Interrupted reading output of " + description));
+		}
+		if (next == END) {
+			done = true;
+			if (!closed) {
+				if (error != null)
+					throw new UncheckedIOException(new IOException("Command '" + description + "' failed.", error));
+				if (exitCode != 0)
+					throw new UncheckedIOException(new IOException(
+							"Command '" + description + "' returned non-zero status. Returned " + exitCode + ". "));
+			}
+			return false;
+		}
+		if (queue.size() <= capacity / 2)
+			setPaused(process, false);
+		action.accept((String) next);
+		return true;
+	}
+
+	@Override
+	public Spliterator<String> trySplit() {
+		/*
+		 * The default splits by taking a batch of lines, which would block until
+		 * that many lines had been output
+		 */
+		return null;
+	}
+
+	@Override
+	public void close() {
+		if (!done && !closed) {
+			closed = true;
+			process.destroyForcibly();
+			setPaused(process, false);
+		}
+	}
+
+	private void queued(NonBlockingProcess process, String line) {
+		queue.add(line);
+		if (queue.size() >= capacity)
+			setPaused(process, true);
+	}
+
+	private void setPaused(NonBlockingProcess process, boolean paused) {
+		synchronized (lock) {
+			if (canPause && this.paused != paused) {
+				try {
+					if (paused) {
+						process.pauseStdout();
+						process.pauseStderr();
+					} else {
+						process.resumeStdout();
+						process.resumeStderr();
+					}
+					this.paused = paused;
+				} catch (UnsupportedOperationException uoe) {
+					/* Cannot bound the queue on this platform */
+					canPause = false;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Splits the output delivered to
+ * {@link NonBlockingProcessListener#onStdout(NonBlockingProcess, ByteBuffer, boolean)}
+ * or
+ * {@link NonBlockingProcessListener#onStderr(NonBlockingProcess, ByteBuffer, boolean)}
+ * into lines. The buffer is scanned for newlines in place, any partial line at
+ * the end is carried over to the next call in a reused buffer, and each line is
+ * decoded into a reused {@link CharBuffer}, so once the buffers have grown to
+ * fit the longest line no further allocation takes place.
+ * <p>
+ * The {@link CharSequence} passed to the consumer is only valid for the
+ * duration of the call, use {@link CharSequence#toString()} to keep it. Line
+ * terminators (<code>\n</code> or <code>\r\n</code>) are removed. Lines longer
+ * than the maximum length are delivered in pieces, which for UTF-8 are never
+ * split part way through a character. The charset must encode
+ * <code>\n</code> as a single byte, as UTF-8 and the ISO-8859 and similar
+ * charsets do.
+ * <p>
+ * A splitter holds state for one stream, so a separate instance is needed for
+ * each stream of each process. See {@link LineProcessListener}.
+ */
+public final class LineSplitter {
+
+	/**
+	 * The default maximum line length in bytes.
+	 */
+	public final static int DEFAULT_MAX_LINE_LENGTH = 65536;
+
+	private final static int INITIAL_CAPACITY = 256;
+
+	private final Consumer<CharSequence> consumer;
+	private final CharsetDecoder decoder;
+	private final int maxLineLength;
+	private final boolean utf8;
+	private ByteBuffer pending = ByteBuffer.allocate(INITIAL_CAPACITY);
+	private CharBuffer chars = CharBuffer.allocate(INITIAL_CAPACITY);
+
+	/**
+	 * Constructor, using the default charset.
+	 * 
+	 * @param consumer receives each line
+	 */
+	public LineSplitter(Consumer<CharSequence> consumer) {
+		this(consumer, Charset.defaultCharset(), DEFAULT_MAX_LINE_LENGTH);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param consumer      receives each line
+	 * @param charset       charset
+	 * @param maxLineLength maximum length of a line in bytes
+	 */
+	public LineSplitter(Consumer<CharSequence> consumer, Charset charset, int maxLineLength) {
+		if (!Arrays.equals(new byte[] { '\n' }, "\n".getBytes(charset)))
+			throw new IllegalArgumentException(String.format("Charset %s cannot be split into lines.", charset));
+		if (maxLineLength < 1)
+			throw new IllegalArgumentException("Maximum line length must be at least 1.");
+		this.consumer = consumer;
+		this.maxLineLength = maxLineLength;
+		utf8 = charset.equals(StandardCharsets.UTF_8);
+		decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Split the remaining contents of a buffer into lines, passing each complete
+	 * line to the consumer. The buffer is always fully consumed.
+	 * 
+	 * @param buffer buffer
+	 * @param closed whether the stream is closed, in which case any partial line
+	 *               is delivered too
+	 */
+	public void feed(ByteBuffer buffer, boolean closed) {
+		int start = buffer.position();
+		int limit = buffer.limit();
+		for (int i = start; i < limit; i++) {
+			if (buffer.get(i) == '\n') {
+				line(buffer, start, i, true);
+				start = i + 1;
+			} else if (i - start + pending.position() == maxLineLength) {
+				/* Only split once the line is known to be too long */
+				append(buffer, start, i);
+				piece(buffer.get(i));
+				start = i;
+			}
+		}
+		if (start < limit)
+			append(buffer, start, limit);
+		buffer.limit(limit);
+		buffer.position(limit);
+		if (closed)
+			flush();
+	}
+
+	/**
+	 * Deliver any partial line that has been carried over, as if the stream had
+	 * been closed.
+	 */
+	public void flush() {
+		if (pending.position() > 0) {
+			pending.flip();
+			emit(pending, false);
+			pending.clear();
+		}
+	}
+
+	private void line(ByteBuffer buffer, int from, int to, boolean terminated) {
+		if (pending.position() == 0) {
+			/* Decode directly from the buffer, the common case */
+			int limit = buffer.limit();
+			buffer.position(from);
+			buffer.limit(to);
+			emit(buffer, terminated);
+			buffer.limit(limit);
+		} else {
+			append(buffer, from, to);
+			pending.flip();
+			emit(pending, terminated);
+			pending.clear();
+		}
+	}
+
+	private void piece(byte next) {
+		/*
+		 * If the next byte continues a UTF-8 sequence, carry the start of that
+		 * sequence over to the next piece rather than cutting the character
+		 */
+		int cut = pending.position();
+		if (utf8 && isContinuation(next)) {
+			int lead = cut - 1;
+			while (lead > 0 && lead > cut - 3 && isContinuation(pending.get(lead)))
+				lead--;
+			if (lead > 0 && (pending.get(lead) & 0xc0) == 0xc0)
+				cut = lead;
+		}
+		int end = pending.position();
+		pending.position(0);
+		pending.limit(cut);
+		emit(pending, false);
+		pending.limit(end);
+		pending.position(cut);
+		pending.compact();
+	}
+
+	private static boolean isContinuation(byte b) {
+		return (b & 0xc0) == 0x80;
+	}
+
+	private void append(ByteBuffer buffer, int from, int to) {
+		int len = to - from;
+		if (pending.remaining() < len) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + len));
+			pending.flip();
+			larger.put(pending);
+			pending = larger;
+		}
+		for (int i = from; i < to; i++)
+			pending.put(buffer.get(i));
+	}
+
+	private void emit(ByteBuffer bytes, boolean terminated) {
+		int needed = (int) Math.ceil(bytes.remaining() * (double) decoder.maxCharsPerByte());
+		if (chars.capacity() < needed)
+			chars = CharBuffer.allocate(Math.max(chars.capacity() * 2, needed));
+		chars.clear();
+		decoder.reset();
+		decoder.decode(bytes, chars, true);
+		decoder.flush(chars);
+		chars.flip();
+		if (terminated && chars.limit() > 0 && chars.get(chars.limit() - 1) == '\r')
+			chars.limit(chars.limit() - 1);
+		consumer.accept(chars);
+	}
+}
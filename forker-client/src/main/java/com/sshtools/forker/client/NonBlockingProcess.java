@@ -3,17 +3,22 @@ package com.sshtools.forker.client;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.sshtools.forker.client.impl.nonblocking.ByteRing;
+
 /**
  * Non-blocking implementation of {@link AbstractOSProcess}. Uses JNA.
  */
@@ -31,8 +36,18 @@ public abstract class NonBlockingProcess extends ForkerProcess {
 	protected ConcurrentLinkedQueue<ByteBuffer> pendingWrites;
 	protected volatile boolean isRunning;
 	private final Object lock = new Object();
-	private PipedInputStream pipeIn;
-	private PipedInputStream pipeErr;
+	private ByteRing stdoutRing;
+	private ByteRing stderrRing;
+	private volatile ByteRing stdinRing;
+	private final AtomicBoolean stdinArmed = new AtomicBoolean();
+	private final CompletableFuture<Process> exitFuture = new CompletableFuture<>();
+	private InputStream stdoutIn;
+	private InputStream stderrIn;
+	private final ProcessMetrics metrics;
+	private long startNanos;
+	private boolean firstByte;
+	private volatile boolean recordedStart;
+	private volatile long exitNoticedNanos;
 
 	/**
 	 * Constructor
@@ -45,87 +60,87 @@ public abstract class NonBlockingProcess extends ForkerProcess {
 			NonBlockingProcessListener listener) {
 		if (listener == null) {
 			/*
-			 * If there is no listener, the we create one so that getInputStream() / getErrorStream() can be
-			 * used instead if wanted.
+			 * If there is no listener, the we create one so that getInputStream() /
+			 * getErrorStream() / getOutputStream() can be used instead if wanted. Data is
+			 * copied directly between the I/O thread's buffers and bounded rings, so
+			 * nothing is allocated per callback. As with any Process, the caller must
+			 * keep reading, as the I/O thread will block when a ring is full.
 			 */
-			pipeIn = new PipedInputStream();
-			try {
-				PipedOutputStream pipeOut = new PipedOutputStream(pipeIn);
-				PipedOutputStream pipeErrOut = null;
-				if(!builder.redirectErrorStream()) {
-					pipeErr = new PipedInputStream();
-					pipeErrOut = new PipedOutputStream(pipeErr);
-				}
-				final PipedOutputStream fPipeErrOut = pipeErrOut;
-				this.listener = new NonBlockingProcessListener() {
+			stdoutRing = new ByteRing(BUFFER_CAPACITY);
+			if (!builder.redirectErrorStream()) {
+				stderrRing = new ByteRing(BUFFER_CAPACITY);
+			}
+			this.listener = new NonBlockingProcessListener() {
 
-					@Override
-					public void onStdout(NonBlockingProcess process, ByteBuffer buffer, boolean closed) {
-						if (!closed) {
-							byte[] bytes = new byte[buffer.remaining()];
-							/* Consume bytes from buffer (so position is updated) */
-							buffer.get(bytes);
-							try {
-								pipeOut.write(bytes);
-							} catch (IOException e) {
-								throw new IllegalStateException(
-										"Failed to write back to pipe for simulated non-blocking I/O.", e);
-							}
-						}
-					}
+				@Override
+				public void onStdout(NonBlockingProcess process, ByteBuffer buffer, boolean closed) {
+					transfer(stdoutRing, buffer);
+				}
 
-					@Override
-					public boolean onStdinReady(NonBlockingProcess process, ByteBuffer buffer) {
+				@Override
+				public boolean onStdinReady(NonBlockingProcess process, ByteBuffer buffer) {
+					ByteRing ring = stdinRing;
+					if (ring == null) {
 						return false;
 					}
-
-					@Override
-					public void onStderr(NonBlockingProcess process, ByteBuffer buffer, boolean closed) {
-						if(!closed) {
-							if(builder.redirectErrorStream()) {
-								onStdout(process, buffer, closed);
-							}
-							else {
-								byte[] bytes = new byte[buffer.remaining()];
-								/* Consume bytes from buffer (so position is updated) */
-								buffer.get(bytes);
-								try {
-									fPipeErrOut.write(bytes);
-								} catch (IOException e) {
-									throw new IllegalStateException(
-											"Failed to write back to pipe for simulated non-blocking I/O.", e);
-								}
-							}
-						}
+					ring.read(buffer);
+					buffer.flip();
+					if (!ring.isEmpty()) {
+						return true;
 					}
+					/*
+					 * Disarm, then check again in case the writer added more after we looked but
+					 * before it could see it needed to call wantWrite()
+					 */
+					stdinArmed.set(false);
+					return !ring.isEmpty() && stdinArmed.compareAndSet(false, true);
+				}
 
-					@Override
-					public void onStarted(NonBlockingProcess process) {
+				@Override
+				public void onStderr(NonBlockingProcess process, ByteBuffer buffer, boolean closed) {
+					if (builder.redirectErrorStream()) {
+						onStdout(process, buffer, closed);
+					} else {
+						transfer(stderrRing, buffer);
 					}
+				}
 
-					@Override
-					public void onStart(NonBlockingProcess process) {
-					}
+				@Override
+				public void onStarted(NonBlockingProcess process) {
+				}
 
-					@Override
-					public void onExit(int exitCode, NonBlockingProcess process) {
-						try {
-							pipeOut.close();
-						} catch (IOException e) {
-						}
-					}
+				@Override
+				public void onStart(NonBlockingProcess process) {
+				}
 
-					@Override
-					public void onError(Exception exception, NonBlockingProcess process, boolean exiting) {
+				@Override
+				public void onExit(int exitCode, NonBlockingProcess process) {
+					stdoutRing.closeWrite();
+					if (stderrRing != null)
+						stderrRing.closeWrite();
+					ByteRing ring = stdinRing;
+					if (ring != null)
+						ring.closeRead();
+				}
+
+				@Override
+				public void onError(Exception exception, NonBlockingProcess process, boolean exiting) {
+				}
+
+				private void transfer(ByteRing ring, ByteBuffer buffer) {
+					try {
+						ring.write(buffer);
+					} catch (InterruptedIOException e) {
+						throw new IllegalStateException(
+								"Interrupted writing back to stream for simulated blocking I/O.", e);
 					}
-				};
-			} catch (IOException ioe) {
-				throw new IllegalStateException("Joining of input pipe failed.", ioe);
-			}
+				}
+			};
 		} else
 			this.listener = listener;
 		this.builder = builder;
 		this.factory = factory;
+		this.metrics = factory == null ? ProcessMetrics.NONE : factory.getMetrics();
 		this.exitCode = new AtomicInteger();
 		this.exitPending = new CountDownLatch(1);
 	}
@@ -160,10 +175,109 @@ public abstract class NonBlockingProcess extends ForkerProcess {
 		return true;
 	}
 
+	/**
+	 * Returns a {@link CompletableFuture} that completes when the process exits.
+	 * Unlike the default implementation, this does not use a thread to wait for
+	 * the process, it is completed by the I/O thread that sees the exit.
+	 * 
+	 * @return future completed with this process on exit
+	 */
+	@Override
+	public CompletableFuture<Process> onExit() {
+		return exitFuture;
+	}
+
+	/**
+	 * Stop reading standard output. No more
+	 * {@link NonBlockingProcessListener#onStdout(NonBlockingProcess, ByteBuffer, boolean)}
+	 * callbacks will be made until {@link #resumeStdout()} is called, and once the
+	 * pipe is full the child will block writing to it. This lets a slow consumer
+	 * throttle a fast producer without buffering its output. The exit of the
+	 * process is not reported until paused output has been resumed and read.
+	 * <p>
+	 * May be called from any thread, including from inside a listener callback.
+	 * Callbacks already in progress, or for data already read, may still be
+	 * made.
+	 * 
+	 * @throws UnsupportedOperationException if not supported on this platform
+	 */
+	public void pauseStdout() {
+		readInterest(false, false);
+	}
+
+	/**
+	 * Resume reading standard output after {@link #pauseStdout()}.
+	 * 
+	 * @throws UnsupportedOperationException if not supported on this platform
+	 */
+	public void resumeStdout() {
+		readInterest(false, true);
+	}
+
+	/**
+	 * Stop reading standard error. See {@link #pauseStdout()}.
+	 * 
+	 * @throws UnsupportedOperationException if not supported on this platform
+	 */
+	public void pauseStderr() {
+		readInterest(true, false);
+	}
+
+	/**
+	 * Resume reading standard error after {@link #pauseStderr()}.
+	 * 
+	 * @throws UnsupportedOperationException if not supported on this platform
+	 */
+	public void resumeStderr() {
+		readInterest(true, true);
+	}
+
 	@Override
 	public OutputStream getOutputStream() {
 		synchronized (lock) {
-			if (legacyOut == null) {
+			if (legacyOut == null && stdoutRing != null) {
+				stdinRing = new ByteRing(BUFFER_CAPACITY);
+				legacyOut = new OutputStream() {
+					private final byte[] single = new byte[1];
+					private boolean closed;
+
+					@Override
+					public void write(int b) throws IOException {
+						single[0] = (byte) b;
+						write(single, 0, 1);
+					}
+
+					@Override
+					public void write(byte[] b, int off, int len) throws IOException {
+						stdinRing.write(b, off, len);
+						if (stdinArmed.compareAndSet(false, true)) {
+							try {
+								wantWrite();
+							} catch (IllegalStateException ise) {
+								throw new IOException("Standard input is closed.", ise);
+							}
+						}
+					}
+
+					@Override
+					public void close() throws IOException {
+						synchronized (this) {
+							if (closed)
+								return;
+							closed = true;
+						}
+						try {
+							stdinRing.drain();
+							if (isRunning)
+								closeStdin(false);
+						} catch (IllegalStateException ise) {
+							// Already closed
+						} finally {
+							stdinRing.closeWrite();
+						}
+					}
+				};
+			} else if (legacyOut == null) {
 				legacyOut = new BufferedOutputStream(new OutputStream() {
 					@Override
 					public void write(int b) throws IOException {
@@ -177,7 +291,7 @@ public abstract class NonBlockingProcess extends ForkerProcess {
 
 					@Override
 					public void write(byte[] b, int off, int len) throws IOException {
-						ByteBuffer buf = factory.isAllocateDirect() ? ByteBuffer.allocate(len)
+						ByteBuffer buf = factory.isAllocateDirect() ? ByteBuffer.allocateDirect(len)
 								: ByteBuffer.allocate(len);
 						buf.put(b, off, len);
 						buf.flip();
@@ -196,20 +310,30 @@ public abstract class NonBlockingProcess extends ForkerProcess {
 
 	@Override
 	public InputStream getInputStream() {
-		if (pipeIn == null)
-			throw new UnsupportedOperationException(
-					"This process is a non-blocking one. Please use NonBlockProcess.listen() instead.");
-		else
-			return pipeIn;
+		synchronized (lock) {
+			if (stdoutRing == null)
+				throw new UnsupportedOperationException(
+						"This process is a non-blocking one. Please use NonBlockProcess.listen() instead.");
+			else {
+				if (stdoutIn == null)
+					stdoutIn = stdoutRing.getInputStream();
+				return stdoutIn;
+			}
+		}
 	}
 
 	@Override
 	public InputStream getErrorStream() {
-		if (pipeErr == null)
-			throw new UnsupportedOperationException(
-					"This process is a non-blocking one. Please use NonBlockProcess.listen() instead.");
-		else
-			return pipeErr;
+		synchronized (lock) {
+			if (stderrRing == null)
+				throw new UnsupportedOperationException(
+						"This process is a non-blocking one. Please use NonBlockProcess.listen() instead.");
+			else {
+				if (stderrIn == null)
+					stderrIn = stderrRing.getInputStream();
+				return stderrIn;
+			}
+		}
 	}
 
 	@Override
@@ -226,6 +350,88 @@ public abstract class NonBlockingProcess extends ForkerProcess {
 
 	protected abstract IEventProcessor<? extends NonBlockingProcess> createProcessor();
 
+	/**
+	 * Start or stop reading standard output or standard error. While not reading,
+	 * the listener receives no more data from that stream, and the child blocks
+	 * once the pipe is full. Implementations that cannot do this return
+	 * <code>false</code>.
+	 * 
+	 * @param stderr     <code>true</code> for standard error, otherwise standard
+	 *                   output
+	 * @param interested whether to read
+	 * @return whether supported
+	 */
+	protected boolean setReadInterest(boolean stderr, boolean interested) {
+		return false;
+	}
+
+	private void readInterest(boolean stderr, boolean interested) {
+		if (!setReadInterest(stderr, interested))
+			throw new UnsupportedOperationException(
+					String.format("Pausing output is not supported by %s.", getClass().getSimpleName()));
+	}
+
+	/**
+	 * Mark the process as exited, releasing anything waiting in
+	 * {@link #waitFor()} or on {@link #onExit()}. Must only be called once the
+	 * exit code has been set.
+	 */
+	protected void exited() {
+		if (recordedStart) {
+			long noticed = exitNoticedNanos;
+			metrics.onExit(this, noticed == 0 ? -1 : System.nanoTime() - noticed);
+		}
+		exitPending.countDown();
+		exitFuture.complete(this);
+	}
+
+	/**
+	 * Record that the process has started, for {@link ProcessMetrics}.
+	 */
+	protected void recordStarted() {
+		if (metrics != ProcessMetrics.NONE) {
+			startNanos = System.nanoTime();
+			metrics.onStarted(this);
+			recordedStart = true;
+		}
+	}
+
+	/**
+	 * Record output read from the process, for {@link ProcessMetrics}. Must
+	 * only be called from the I/O thread.
+	 * 
+	 * @param bytes number of bytes
+	 */
+	protected void recordRead(long bytes) {
+		if (metrics != ProcessMetrics.NONE) {
+			if (!firstByte) {
+				firstByte = true;
+				metrics.onFirstByte(this, System.nanoTime() - startNanos);
+			}
+			metrics.onRead(this, bytes);
+		}
+	}
+
+	/**
+	 * Record input written to the process, for {@link ProcessMetrics}.
+	 * 
+	 * @param bytes number of bytes
+	 */
+	protected void recordWritten(long bytes) {
+		metrics.onWritten(this, bytes);
+	}
+
+	/**
+	 * Record that the process has been found to have exited, or to have closed
+	 * its output, but the exit may not be delivered yet. Only the first call
+	 * has any effect.
+	 */
+	protected void exitNoticed() {
+		if (exitNoticedNanos == 0 && metrics != ProcessMetrics.NONE) {
+			exitNoticedNanos = System.nanoTime();
+		}
+	}
+
 	protected void inializeBuffers() {
 		pendingWrites = new ConcurrentLinkedQueue<ByteBuffer>();
 	}
@@ -238,4 +444,43 @@ public abstract class NonBlockingProcess extends ForkerProcess {
 		}
 		return environment;
 	}
+
+	/**
+	 * Encode a string as a NUL terminated C string, as passed to the native
+	 * spawn functions.
+	 * 
+	 * @param s string, may be <code>null</code>
+	 * @return encoded string, or <code>null</code>
+	 */
+	protected static byte[] toCString(String s) {
+		if (s == null)
+			return null;
+		byte[] bytes = s.getBytes();
+		/* Zero filled, so already terminated */
+		return Arrays.copyOf(bytes, bytes.length + 1);
+	}
+
+	/**
+	 * Encode strings as one block of consecutive NUL terminated C strings, as
+	 * passed to the native spawn functions for arguments and environment.
+	 * 
+	 * @param strings strings
+	 * @return encoded block
+	 */
+	protected static byte[] toBlock(List<String> strings) {
+		byte[][] encoded = new byte[strings.size()][];
+		int size = encoded.length; // For added NUL bytes
+		for (int i = 0; i < encoded.length; i++) {
+			encoded[i] = strings.get(i).getBytes();
+			size += encoded[i].length;
+		}
+		byte[] block = new byte[size];
+		int i = 0;
+		for (byte[] bytes : encoded) {
+			System.arraycopy(bytes, 0, block, i, bytes.length);
+			i += bytes.length + 1;
+			// No need to write NUL bytes explicitly
+		}
+		return block;
+	}
 }
\ No newline at end of file
@@ -3,8 +3,10 @@ package com.sshtools.forker.client;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import com.sshtools.forker.client.impl.nonblocking.NativeBufferPool;
 import com.sshtools.forker.client.impl.nonblocking.NonBlockingLinuxProcess;
 import com.sshtools.forker.client.impl.nonblocking.NonBlockingOsxProcess;
 import com.sshtools.forker.client.impl.nonblocking.NonBlockingWindowsProcess;
@@ -18,12 +20,18 @@ public class NonBlockingProcessFactory implements ForkerProcessFactory {
 	private int numberOfIOThreads;
 	private boolean shutdownHook = true;
 	private boolean softExitDetection = true;
-	private boolean firstRun;
+	private volatile boolean firstRun;
 	private Object lock = new Object();
 	private boolean allocateDirect;
 	private int lingerTimeMs = 2500;
 	private int deadPoolPollMs = 250;
-	private List<IEventProcessor<? extends NonBlockingProcess>> processors = null;
+	private int eventBatchSize = 1;
+	private boolean eventDrivenReaping = true;
+	private int pipeSize;
+	private volatile ProcessMetrics metrics = ProcessMetrics.NONE;
+	private final NativeBufferPool bufferPool = new NativeBufferPool(16 * 1024 * 1024);
+	private volatile PlacementStrategy placementStrategy = PlacementStrategy.ROUND_ROBIN;
+	private volatile List<IEventProcessor<? extends NonBlockingProcess>> processors = null;
 	{
 		numberOfIOThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
 	}
@@ -64,6 +72,134 @@ public class NonBlockingProcessFactory implements ForkerProcessFactory {
 		this.deadPoolPollMs = deadPoolPollMs;
 	}
 
+	/**
+	 * Get the maximum number of ready events each I/O thread will retrieve and
+	 * dispatch per wakeup. A value of 1 (the default) retrieves a single event
+	 * at a time, larger values drain up to this many ready file descriptors in
+	 * one system call, and reap exited processes once per batch.
+	 * 
+	 * @return event batch size
+	 */
+	public int getEventBatchSize() {
+		return eventBatchSize;
+	}
+
+	/**
+	 * Set the maximum number of ready events each I/O thread will retrieve and
+	 * dispatch per wakeup. A value of 1 (the default) retrieves a single event
+	 * at a time, larger values drain up to this many ready file descriptors in
+	 * one system call, and reap exited processes once per batch. Cannot be
+	 * used after the first I/O thread has been started, i.e. after the first
+	 * process is created.
+	 * 
+	 * @param eventBatchSize event batch size
+	 * @throws IllegalStateException if first process has already been created.
+	 */
+	public void setEventBatchSize(int eventBatchSize) {
+		if (firstRun)
+			throw new IllegalStateException("Cannot set event batch size after processors have been created.");
+		if (eventBatchSize < 1)
+			throw new IllegalArgumentException("Event batch size must be at least 1.");
+		synchronized (lock) {
+			this.eventBatchSize = eventBatchSize;
+		}
+	}
+
+	/**
+	 * Get whether exited processes are detected by an event registered with
+	 * the I/O thread's event set (a pidfd on Linux 5.3 and above) rather than
+	 * by polling the dead pool every {@link #getDeadPoolPollMs()}. Where not
+	 * supported, polling is used regardless.
+	 * 
+	 * @return event driven reaping
+	 */
+	public boolean isEventDrivenReaping() {
+		return eventDrivenReaping;
+	}
+
+	/**
+	 * Set whether exited processes are detected by an event registered with
+	 * the I/O thread's event set (a pidfd on Linux 5.3 and above) rather than
+	 * by polling the dead pool every {@link #getDeadPoolPollMs()}. Where not
+	 * supported, polling is used regardless.
+	 * 
+	 * @param eventDrivenReaping event driven reaping
+	 */
+	public void setEventDrivenReaping(boolean eventDrivenReaping) {
+		this.eventDrivenReaping = eventDrivenReaping;
+	}
+
+	/**
+	 * Get the capacity in bytes requested for the standard output and standard
+	 * error pipes of new processes, or zero to leave them at the operating
+	 * system default (64 KiB on Linux). See {@link #setPipeSize(int)}.
+	 * 
+	 * @return pipe size
+	 */
+	public int getPipeSize() {
+		return pipeSize;
+	}
+
+	/**
+	 * Set the capacity in bytes requested for the standard output and standard
+	 * error pipes of new processes, or zero to leave them at the operating
+	 * system default. A larger pipe lets a high volume producer write more
+	 * before it must wait for this side to read, so fewer wakeups are needed
+	 * for the same amount of output. To also read more per wakeup, increase
+	 * {@link NonBlockingProcess#BUFFER_CAPACITY} to match.
+	 * <p>
+	 * Only supported on Linux, using <code>F_SETPIPE_SZ</code>. The kernel rounds
+	 * the size up to a power of two number of pages. Unprivileged processes may
+	 * not exceed <code>/proc/sys/fs/pipe-max-size</code> (1 MiB by default), and
+	 * large pipes count against the per user pipe memory limits. If the size
+	 * cannot be set, the pipe is left at the default.
+	 * 
+	 * @param pipeSize pipe size
+	 */
+	public void setPipeSize(int pipeSize) {
+		if (pipeSize < 0)
+			throw new IllegalArgumentException("Pipe size may not be negative.");
+		this.pipeSize = pipeSize;
+	}
+
+	/**
+	 * Get where measurements of the I/O threads and the processes they handle
+	 * are sent. Defaults to {@link ProcessMetrics#NONE}.
+	 * 
+	 * @return metrics
+	 */
+	public ProcessMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Set where measurements of the I/O threads and the processes they handle
+	 * are sent, for example a
+	 * {@link com.sshtools.forker.client.impl.JmxProcessMetrics}. Processes
+	 * already started continue to use the metrics that were set when they
+	 * started.
+	 * 
+	 * @param metrics metrics, or {@link ProcessMetrics#NONE} to record nothing
+	 */
+	public void setMetrics(ProcessMetrics metrics) {
+		if (metrics == null)
+			throw new IllegalArgumentException("Metrics may not be null, use ProcessMetrics.NONE.");
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Get the pool of native memory used for the stdio buffers of processes
+	 * created by this factory. Buffers are leased when a process starts and
+	 * returned when it exits. By default the pool will hold up to 16 MiB of
+	 * idle buffers, use {@link NativeBufferPool#setMaxBytes(long)} to change
+	 * this.
+	 * 
+	 * @return buffer pool
+	 */
+	public NativeBufferPool getBufferPool() {
+		return bufferPool;
+	}
+
 	/**
 	 * Get whether to use {@link ByteBuffer#allocateDirect(int)} where possible
 	 * when creating internal byte buffers.
@@ -91,16 +227,44 @@ public class NonBlockingProcessFactory implements ForkerProcessFactory {
 	 * @return processors
 	 */
 	public List<IEventProcessor<? extends NonBlockingProcess>> getProcessors(NonBlockingProcess process) {
+		List<IEventProcessor<? extends NonBlockingProcess>> current = processors;
+		if (current != null)
+			return current;
 		synchronized (lock) {
 			if (processors == null) {
-				processors = new ArrayList<IEventProcessor<? extends NonBlockingProcess>>(numberOfIOThreads);
+				List<IEventProcessor<? extends NonBlockingProcess>> newProcessors = new ArrayList<IEventProcessor<? extends NonBlockingProcess>>(
+						numberOfIOThreads);
 				for (int i = 0; i < numberOfIOThreads; i++)
-					processors.add(process.createProcessor());
+					newProcessors.add(process.createProcessor());
+				processors = Collections.unmodifiableList(newProcessors);
 			}
 			return processors;
 		}
 	}
 
+	/**
+	 * Get the strategy used to choose which I/O thread a new process is assigned
+	 * to.
+	 * 
+	 * @return placement strategy
+	 */
+	public PlacementStrategy getPlacementStrategy() {
+		return placementStrategy;
+	}
+
+	/**
+	 * Set the strategy used to choose which I/O thread a new process is assigned
+	 * to. Defaults to {@link PlacementStrategy#ROUND_ROBIN}. May be changed at any
+	 * time, and will affect processes started after the change.
+	 * 
+	 * @param placementStrategy placement strategy
+	 */
+	public void setPlacementStrategy(PlacementStrategy placementStrategy) {
+		if (placementStrategy == null)
+			throw new IllegalArgumentException("Placement strategy may not be null.");
+		this.placementStrategy = placementStrategy;
+	}
+
 	/**
 	 * Get whether the shutdown hook will run when the JVM exits. This closes
 	 * down any current process handlers and is on by default.
@@ -172,25 +336,30 @@ public class NonBlockingProcessFactory implements ForkerProcessFactory {
 
 	@Override
 	public ForkerProcess createProcess(ForkerBuilder builder, ForkerProcessListener listener) throws IOException {
-		synchronized (lock) {
-			if (!firstRun) {
-				firstRun = true;
-				if (shutdownHook) {
-					Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
-						@Override
-						public void run() {
-							if (processors != null) {
-								for (IEventProcessor<? extends NonBlockingProcess> processor : processors) {
-									if (processor != null) {
-										processor.shutdown();
+		if (!firstRun) {
+			synchronized (lock) {
+				if (!firstRun) {
+					firstRun = true;
+					if (shutdownHook) {
+						Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+							@Override
+							public void run() {
+								if (processors != null) {
+									for (IEventProcessor<? extends NonBlockingProcess> processor : processors) {
+										if (processor != null) {
+											processor.shutdown();
+										}
 									}
 								}
 							}
-						}
-					}));
+						}));
+					}
 				}
 			}
 		}
+		if (builder.io() == IO.NON_BLOCKING && builder.spliceOutput() != null && !Platform.isLinux()) {
+			throw new IllegalArgumentException("Splicing output is only supported on Linux.");
+		}
 		NonBlockingProcess process;
 		try {
 			if (Platform.isLinux() && (builder.io() == IO.NON_BLOCKING))
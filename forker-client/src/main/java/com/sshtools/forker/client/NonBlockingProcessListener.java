@@ -141,6 +141,11 @@ public interface NonBlockingProcessListener extends ForkerProcessListener {
 	 * to you as part of the next invocation of this method (which might be when
 	 * EOF is reached and {@code closed} is {@code true}).
 	 * <p>
+	 * If standard error is redirected, it may also be delivered to this method,
+	 * in which case each stream is read from its own pipe into its own buffer.
+	 * The same buffer is used for a stream for the life of the process, so the
+	 * streams may be told apart by the buffer, and each will be closed.
+	 * <p>
 	 * Exceptions thrown out from your method will be ignored, but your method
 	 * should handle all exceptions itself.
 	 * @param process process
@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -35,6 +36,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 import com.sshtools.forker.client.EffectiveUserFactory.SudoFixedPasswordUser;
 import com.sshtools.forker.common.IO;
@@ -67,7 +69,7 @@ public class OSCommand {
 	private static ThreadLocal<Map<String, String>> environment = new ThreadLocal<Map<String, String>>();
 	private static ThreadLocal<IO> io = new ThreadLocal<IO>();
 	private static char[] sudoPassword = null;
-	private static final Map<String, Boolean> commandCache = new HashMap<>();
+	private static final CommandCache commandCache = new CommandCache();
 
 	/**
 	 * A very simplistic mechanism for restarting an application as an administrator
@@ -370,6 +372,37 @@ public class OSCommand {
 		}
 	}
 
+	/**
+	 * Run a command as an administrator with a particular working directory and
+	 * stream its output as lines. See
+	 * {@link #runCommandAndStreamOutput(File, String...)}.
+	 * 
+	 * @param cwd  working directory
+	 * @param args command arguments
+	 * @return output as a stream of lines
+	 * @throws IOException on any error
+	 */
+	public static Stream<String> adminCommandAndStreamOutput(File cwd, String... args) throws IOException {
+		elevate();
+		try {
+			return runCommandAndStreamOutput(cwd, args);
+		} finally {
+			restrict();
+		}
+	}
+
+	/**
+	 * Run a command as an administrator and stream its output as lines. See
+	 * {@link #runCommandAndStreamOutput(File, String...)}.
+	 * 
+	 * @param args command arguments
+	 * @return output as a stream of lines
+	 * @throws IOException on any error
+	 */
+	public static Stream<String> adminCommandAndStreamOutput(String... args) throws IOException {
+		return adminCommandAndStreamOutput(null, args);
+	}
+
 	/**
 	 * Run a command as an administrator and capture all of the output to a list of
 	 * strings. An exception will be thrown if the exit code is anything other than
@@ -776,61 +809,38 @@ public class OSCommand {
 	}
 
 	/**
-	 * Determine if a a particular OS command is on the PATH.
+	 * Determine if a a particular OS command is on the PATH. The PATH is searched
+	 * in process, using the PATH of the current {@link #environment()} if it sets
+	 * one, and the result is cached (see <code>forker.commandCacheTtl</code> and
+	 * <code>forker.commandCacheMaxSize</code>) unless the
+	 * <code>forker.noCommandExistenceCache</code> system property is
+	 * <code>true</code>.
 	 * 
 	 * @param command command
 	 * @return command exists on path
 	 */
 	public static boolean hasCommand(String command) {
-		if ("false".equals(System.getProperty("forker.noCommandExistenceCache", "false"))) {
-			synchronized (commandCache) {
-				Boolean val = commandCache.get(command);
-				if (val == null) {
-					boolean exists = doHasCommand(command);
-					commandCache.put(command, exists);
-					return exists;
-				}
-				return val;
-			}
-		} else
+		if ("false".equals(System.getProperty("forker.noCommandExistenceCache", "false")))
+			return commandCache.find(command, searchPath()) != null;
+		else
 			return doHasCommand(command);
 	}
 
+	/**
+	 * Discard all cached results of {@link #hasCommand(String)}.
+	 */
+	public static void clearCommandCache() {
+		commandCache.clear();
+	}
+
 	protected static boolean doHasCommand(String command) {
-		if (Platform.isLinux()) {
-			boolean el = OSCommand.restrict();
-			try {
-				Collection<String> out = OSCommand.runCommandAndCaptureOutput("which", command);
-				return !out.isEmpty();
-			} catch (Exception e) {
-				return false;
-			} finally {
-				if (el)
-					OSCommand.elevate();
-			}
-		} else {
-			String path = System.getenv("PATH");
-			if (path != "") {
-				boolean found = false;
-				for (String p : path.split(File.pathSeparator)) {
-					File f = new File(p);
-					if (f.isDirectory()) {
-						String cmd = command;
-						if (Platform.isWindows()) {
-							cmd += ".exe";
-						}
-						File e = new File(f, cmd);
-						if (e.exists()) {
-							found = true;
-							break;
-						}
-					}
-				}
-				return found;
-			}
-			throw new UnsupportedOperationException(System.getProperty("os.name")
-					+ " is not supported. Cannot determine if command " + command + " exists");
-		}
+		return CommandCache.resolve(command, searchPath()) != null;
+	}
+
+	private static String searchPath() {
+		Map<String, String> env = environment.get();
+		String path = env == null ? null : env.get("PATH");
+		return path == null ? System.getenv("PATH") : path;
 	}
 
 	/**
@@ -1153,6 +1163,48 @@ public class OSCommand {
 		};
 	}
 
+	/**
+	 * Run a command with a particular working directory and stream its output as
+	 * lines. The command is always run in {@link IO#NON_BLOCKING} mode, and at
+	 * most a fixed number of lines are buffered, reading of further output being
+	 * paused until the stream consumer catches up, so this is suitable for
+	 * commands that produce any amount of output. Lines of standard error are
+	 * included with those of standard output, each stream being split into lines
+	 * on its own so lines are never mixed. An {@link UncheckedIOException}
+	 * will be thrown at the end of the stream if the exit code is anything other
+	 * than zero.
+	 * <p>
+	 * The stream should be closed, for example with try-with-resources. If it is
+	 * closed before all output has been read, the process is killed.
+	 * 
+	 * @param cwd  working directory
+	 * @param args command arguments
+	 * @return output as a stream of lines
+	 * @throws IOException on any error
+	 */
+	public static Stream<String> runCommandAndStreamOutput(File cwd, String... args) throws IOException {
+		List<String> largs = new ArrayList<String>(Arrays.asList(args));
+		LOG.fine("Running command: " + String.join(" ", largs));
+		ForkerBuilder pb = new ForkerBuilder(largs);
+		checkElevationAndEnvironment(pb);
+		if (cwd != null) {
+			pb.directory(cwd);
+		}
+		return new LineSpliterator(pb, LineSpliterator.DEFAULT_CAPACITY).stream();
+	}
+
+	/**
+	 * Run a command and stream its output as lines. See
+	 * {@link #runCommandAndStreamOutput(File, String...)}.
+	 * 
+	 * @param args command arguments
+	 * @return output as a stream of lines
+	 * @throws IOException on any error
+	 */
+	public static Stream<String> runCommandAndStreamOutput(String... args) throws IOException {
+		return runCommandAndStreamOutput(null, args);
+	}
+
 	/**
 	 * Run a command with a particular working directory and capture all of the
 	 * output to a list of strings. An exception will be thrown if the exit code is
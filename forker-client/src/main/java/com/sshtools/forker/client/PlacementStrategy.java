@@ -0,0 +1,127 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses which I/O thread ({@link IEventProcessor}) a new non-blocking process
+ * is assigned to. Set the strategy to use with
+ * {@link NonBlockingProcessFactory#setPlacementStrategy(PlacementStrategy)}.
+ * <p>
+ * Strategies are called concurrently by every thread starting a process, so
+ * must be thread safe, and should not block. The load counters they read,
+ * {@link IEventProcessor#getRegisteredCount()} and
+ * {@link IEventProcessor#getRecentBytes()}, are only approximate.
+ */
+public interface PlacementStrategy {
+
+	/**
+	 * Assign processors in turn, regardless of their load. This is the default.
+	 */
+	public final static PlacementStrategy ROUND_ROBIN = new PlacementStrategy() {
+		private final AtomicInteger next = new AtomicInteger();
+
+		@Override
+		public int select(List<? extends IEventProcessor<?>> processors) {
+			return Math.floorMod(next.getAndIncrement(), processors.size());
+		}
+	};
+
+	/**
+	 * Assign the processor with the fewest registered file descriptors, i.e. the
+	 * fewest live processes.
+	 */
+	public final static PlacementStrategy LEAST_REGISTERED = new PlacementStrategy() {
+		private final AtomicInteger next = new AtomicInteger();
+
+		@Override
+		public int select(List<? extends IEventProcessor<?>> processors) {
+			int size = processors.size();
+			int start = Math.floorMod(next.getAndIncrement(), size);
+			int best = start;
+			for (int i = 1; i < size; i++) {
+				int idx = (start + i) % size;
+				if (processors.get(idx).getRegisteredCount() < processors.get(best).getRegisteredCount())
+					best = idx;
+			}
+			return best;
+		}
+	};
+
+	/**
+	 * Assign the processor that has moved the fewest bytes recently, so that a few
+	 * very chatty processes do not share a thread with new ones. Ties are broken
+	 * by the number of registered file descriptors.
+	 */
+	public final static PlacementStrategy LEAST_RECENT_BYTES = new PlacementStrategy() {
+		private final AtomicInteger next = new AtomicInteger();
+
+		@Override
+		public int select(List<? extends IEventProcessor<?>> processors) {
+			int size = processors.size();
+			int start = Math.floorMod(next.getAndIncrement(), size);
+			int best = start;
+			for (int i = 1; i < size; i++) {
+				int idx = (start + i) % size;
+				if (compareLoad(processors.get(idx), processors.get(best)) < 0)
+					best = idx;
+			}
+			return best;
+		}
+	};
+
+	/**
+	 * Pick two processors at random and assign the less loaded of them (by recent
+	 * bytes, then registered file descriptors). This gets most of the benefit of
+	 * the least loaded strategies while only looking at two processors, and avoids
+	 * every thread starting a process at the same moment piling onto the same
+	 * least loaded processor.
+	 */
+	public final static PlacementStrategy POWER_OF_TWO_CHOICES = new PlacementStrategy() {
+		@Override
+		public int select(List<? extends IEventProcessor<?>> processors) {
+			int size = processors.size();
+			if (size == 1)
+				return 0;
+			ThreadLocalRandom rnd = ThreadLocalRandom.current();
+			int a = rnd.nextInt(size);
+			int b = rnd.nextInt(size - 1);
+			if (b >= a)
+				b++;
+			return compareLoad(processors.get(b), processors.get(a)) < 0 ? b : a;
+		}
+	};
+
+	/**
+	 * Select the processor to use for a new process.
+	 * 
+	 * @param processors processors, never empty
+	 * @return index of the processor in the list
+	 */
+	int select(List<? extends IEventProcessor<?>> processors);
+
+	/*
+	 * Compare the load of two processors, first by recent bytes and then by
+	 * registered file descriptors. Negative if the first is less loaded.
+	 */
+	private static int compareLoad(IEventProcessor<?> p1, IEventProcessor<?> p2) {
+		int c = Long.compare(p1.getRecentBytes(), p2.getRecentBytes());
+		return c == 0 ? Integer.compare(p1.getRegisteredCount(), p2.getRegisteredCount()) : c;
+	}
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sshtools.forker.common.Command;
+
+/**
+ * An immutable snapshot of a {@link ForkerBuilder}, for launching the same
+ * command with the same environment many times. The argument and environment
+ * blocks passed to the operating system are encoded once, when the command is
+ * prepared, rather than on every launch, and each {@link #start(String...)}
+ * only encodes any additional arguments given for that invocation.
+ * <p>
+ * Create using {@link ForkerBuilder#prepare()}. Changes made to the builder
+ * afterwards have no effect on the prepared command. Only
+ * {@link NonBlockingProcessFactory} on Linux and macOS makes use of the
+ * encoded blocks, other process factories will launch the command as they
+ * would from an equivalent builder. Commands with an
+ * {@link ForkerBuilder#effectiveUser()} are re-encoded on every launch, as
+ * elevation may change the arguments and environment, as are commands with
+ * {@link ForkerBuilder#resourceLimits()}.
+ * 
+ * <pre>
+ * PreparedCommand grep = new ForkerBuilder("grep", "-c").io(IO.NON_BLOCKING).prepare();
+ * for (File file : files) {
+ * 	grep.start(listener, file.getAbsolutePath());
+ * }
+ * </pre>
+ */
+public final class PreparedCommand {
+
+	private final ForkerConfiguration configuration;
+	private final Command template;
+	private final EffectiveUser effectiveUser;
+	private final SpliceTarget spliceOutput;
+	private final ResourceLimits resourceLimits;
+	private final List<String> arguments;
+	private final Map<String, String> environment;
+	private final String[] environmentArray;
+	private final byte[] program;
+	private final byte[] argumentBlock;
+	private final byte[] environmentBlock;
+	private final byte[] directory;
+
+	PreparedCommand(ForkerBuilder builder) {
+		Command command = builder.getCommand();
+		if (command.getArguments().isEmpty())
+			throw new IllegalArgumentException("No command to prepare.");
+		configuration = builder.configuration();
+		effectiveUser = builder.effectiveUser();
+		spliceOutput = builder.spliceOutput();
+		resourceLimits = builder.resourceLimits();
+		arguments = Collections.unmodifiableList(new ArrayList<String>(command.getArguments()));
+		environment = Collections.unmodifiableMap(new LinkedHashMap<String, String>(command.getEnvironment()));
+		template = new Command(environment);
+		copy(command, template);
+
+		/* The formats expected by the JDK's own forkAndExec() */
+		program = NonBlockingProcess.toCString(arguments.get(0));
+		argumentBlock = NonBlockingProcess.toBlock(arguments.subList(1, arguments.size()));
+		environmentArray = NonBlockingProcess.mapToArray(environment);
+		environmentBlock = NonBlockingProcess.toBlock(Arrays.asList(environmentArray));
+		directory = command.getDirectory() == null ? null
+				: NonBlockingProcess.toCString(command.getDirectory().toString());
+	}
+
+	/**
+	 * Start the command and return immediately.
+	 * 
+	 * @param arguments any additional arguments for this invocation, appended to
+	 *                  the prepared ones
+	 * @return process
+	 * @throws IOException on any error
+	 */
+	public ForkerProcess start(String... arguments) throws IOException {
+		return start(null, arguments);
+	}
+
+	/**
+	 * Start the command and return immediately.
+	 * 
+	 * @param <P>       type of process
+	 * @param listener  listener
+	 * @param arguments any additional arguments for this invocation, appended to
+	 *                  the prepared ones
+	 * @return process
+	 * @throws IOException on any error
+	 */
+	public <P extends ForkerProcess> P start(ForkerProcessListener listener, String... arguments) throws IOException {
+		/*
+		 * The environment is only changed by elevation, so is otherwise shared
+		 * rather than copied for every launch
+		 */
+		Command command = new Command(
+				effectiveUser == null ? environment : new LinkedHashMap<String, String>(environment));
+		copy(template, command);
+		command.getArguments().addAll(this.arguments);
+		command.getArguments().addAll(Arrays.asList(arguments));
+		ForkerBuilder builder = new ForkerBuilder(configuration, command);
+		builder.effectiveUser(effectiveUser);
+		builder.spliceOutput(spliceOutput);
+		builder.resourceLimits(resourceLimits);
+		builder.prepared(this);
+		return builder.start(listener);
+	}
+
+	/**
+	 * Get the prepared command arguments, the first being the command itself.
+	 * 
+	 * @return arguments
+	 */
+	public List<String> getArguments() {
+		return arguments;
+	}
+
+	/**
+	 * Get the prepared environment.
+	 * 
+	 * @return environment
+	 */
+	public Map<String, String> getEnvironment() {
+		return environment;
+	}
+
+	/**
+	 * Get the prepared environment as an array of <code>name=value</code>
+	 * strings. For use by process implementations, the array must not be
+	 * modified.
+	 * 
+	 * @return environment
+	 */
+	public String[] getEnvironmentArray() {
+		return environmentArray;
+	}
+
+	/**
+	 * Get the command as a NUL terminated string. For use by process
+	 * implementations, the array must not be modified.
+	 * 
+	 * @return program
+	 */
+	public byte[] getProgram() {
+		return program;
+	}
+
+	/**
+	 * Get the working directory as a NUL terminated string, or
+	 * <code>null</code> if the working directory is inherited. For use by
+	 * process implementations, the array must not be modified.
+	 * 
+	 * @return directory
+	 */
+	public byte[] getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Get the environment as consecutive NUL terminated strings. For use by
+	 * process implementations, the array must not be modified.
+	 * 
+	 * @return environment block
+	 */
+	public byte[] getEnvironmentBlock() {
+		return environmentBlock;
+	}
+
+	/**
+	 * Get the arguments of an invocation, excluding the command itself, as
+	 * consecutive NUL terminated strings. The prepared arguments are not
+	 * encoded again, only any that follow them. For use by process
+	 * implementations, the returned array must not be modified.
+	 * 
+	 * @param arguments all arguments of the invocation, which must start with
+	 *                  the prepared arguments
+	 * @return argument block
+	 */
+	public byte[] getArgumentBlock(List<String> arguments) {
+		int prepared = this.arguments.size();
+		if (arguments.size() < prepared)
+			throw new IllegalArgumentException("Arguments do not start with the prepared arguments.");
+		if (arguments.size() == prepared)
+			return argumentBlock;
+		byte[][] extra = new byte[arguments.size() - prepared][];
+		int size = argumentBlock.length;
+		for (int i = 0; i < extra.length; i++) {
+			extra[i] = arguments.get(prepared + i).getBytes();
+			size += extra[i].length + 1;
+		}
+		byte[] block = Arrays.copyOf(argumentBlock, size);
+		int i = argumentBlock.length;
+		for (byte[] arg : extra) {
+			System.arraycopy(arg, 0, block, i, arg.length);
+			i += arg.length + 1;
+		}
+		return block;
+	}
+
+	private static void copy(Command from, Command to) {
+		to.setIO(from.getIO());
+		to.setRedirectError(from.isRedirectError());
+		to.setDirectory(from.getDirectory());
+		to.setRunAs(from.getRunAs());
+		to.setPriority(from.getPriority());
+		to.getAffinity().clear();
+		to.getAffinity().addAll(from.getAffinity());
+		to.setBackground(from.isBackground());
+		to.setRedirects(from.isDefaultRedirects() ? null : from.getRedirects().clone());
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A group of processes started together by
+ * {@link Forker#startAll(java.util.Collection, java.util.function.Function)},
+ * with a single future that completes when they have all exited.
+ */
+public final class ProcessGroup {
+
+	private final List<ForkerProcess> processes;
+	private final CompletableFuture<List<Integer>> exitFuture;
+
+	ProcessGroup(List<ForkerProcess> processes) {
+		this.processes = Collections.unmodifiableList(processes);
+		CompletableFuture<?>[] exits = new CompletableFuture<?>[processes.size()];
+		for (int i = 0; i < exits.length; i++) {
+			exits[i] = processes.get(i).onExit();
+		}
+		exitFuture = CompletableFuture.allOf(exits).thenApply(v -> {
+			List<Integer> codes = new ArrayList<>(processes.size());
+			for (ForkerProcess process : processes) {
+				codes.add(process.exitValue());
+			}
+			return Collections.unmodifiableList(codes);
+		});
+	}
+
+	/**
+	 * Get the processes, in the same order as the builders they were started
+	 * from.
+	 * 
+	 * @return processes
+	 */
+	public List<ForkerProcess> getProcesses() {
+		return processes;
+	}
+
+	/**
+	 * Get the number of processes in the group.
+	 * 
+	 * @return size
+	 */
+	public int size() {
+		return processes.size();
+	}
+
+	/**
+	 * Returns a {@link CompletableFuture} that completes when every process in
+	 * the group has exited, with their exit codes in the same order as
+	 * {@link #getProcesses()}.
+	 * 
+	 * @return future completed with exit codes
+	 */
+	public CompletableFuture<List<Integer>> onExit() {
+		return exitFuture;
+	}
+
+	/**
+	 * Kill all processes in the group.
+	 */
+	public void destroy() {
+		for (ForkerProcess process : processes) {
+			process.destroy();
+		}
+	}
+
+	/**
+	 * Forcibly kill all processes in the group.
+	 */
+	public void destroyForcibly() {
+		for (ForkerProcess process : processes) {
+			process.destroyForcibly();
+		}
+	}
+}
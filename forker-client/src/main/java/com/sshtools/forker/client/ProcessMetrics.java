@@ -0,0 +1,106 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client;
+
+/**
+ * Receives measurements from the I/O threads of a
+ * {@link NonBlockingProcessFactory}, set using
+ * {@link NonBlockingProcessFactory#setMetrics(ProcessMetrics)}. Every method
+ * has an empty default, so implementations need only override what they
+ * record. The default, {@link #NONE}, records nothing.
+ * <p>
+ * Most methods are called on I/O threads, once per read, write or wakeup, so
+ * implementations must be thread safe and very cheap, and must not block. See
+ * {@link com.sshtools.forker.client.impl.JmxProcessMetrics} for an
+ * implementation that exposes totals and latency percentiles over JMX.
+ */
+public interface ProcessMetrics {
+
+	/**
+	 * Records nothing.
+	 */
+	public final static ProcessMetrics NONE = new ProcessMetrics() {
+	};
+
+	/**
+	 * A process has started.
+	 * 
+	 * @param process process
+	 */
+	default void onStarted(NonBlockingProcess process) {
+	}
+
+	/**
+	 * Bytes have been read from the standard output or standard error of a
+	 * process, or moved from standard output to a splice target.
+	 * 
+	 * @param process process
+	 * @param bytes   number of bytes
+	 */
+	default void onRead(NonBlockingProcess process, long bytes) {
+	}
+
+	/**
+	 * Bytes have been written to the standard input of a process.
+	 * 
+	 * @param process process
+	 * @param bytes   number of bytes
+	 */
+	default void onWritten(NonBlockingProcess process, long bytes) {
+	}
+
+	/**
+	 * The first output has been read from a process.
+	 * 
+	 * @param process process
+	 * @param nanos   nanoseconds since the process started
+	 */
+	default void onFirstByte(NonBlockingProcess process, long nanos) {
+	}
+
+	/**
+	 * The exit of a process has been delivered to its listener and to anything
+	 * waiting for it. Only called for processes that were passed to
+	 * {@link #onStarted(NonBlockingProcess)}.
+	 * 
+	 * @param process process
+	 * @param nanos   nanoseconds since the exit was first noticed, either by the
+	 *                process being reaped or by its output closing, or -1 if
+	 *                it is not known when the exit was noticed
+	 */
+	default void onExit(NonBlockingProcess process, long nanos) {
+	}
+
+	/**
+	 * An I/O thread has woken up.
+	 * 
+	 * @param processor processor
+	 * @param events    number of events to handle, or zero if the wait timed out
+	 *                  to poll for exited processes
+	 */
+	default void onWakeup(IEventProcessor<?> processor, int events) {
+	}
+
+	/**
+	 * The number of processes polled by an I/O thread, whose output has closed
+	 * but which have not yet been reaped, has changed.
+	 * 
+	 * @param processor processor
+	 * @param size      number of processes still waiting to be reaped
+	 */
+	default void onDeadPool(IEventProcessor<?> processor, int size) {
+	}
+}
@@ -0,0 +1,316 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.sshtools.forker.common.OS;
+
+/**
+ * Resource limits to apply to a process started by a {@link ForkerBuilder},
+ * using a Linux cgroup v2 subtree, and whether to start the process in its
+ * own session and process group so it and its children may be signalled as a
+ * unit with {@link ForkerProcess#destroyProcessGroup(boolean)}.
+ * <p>
+ * If a {@link #group(String)} is set, all processes started with limits
+ * naming the same group share one cgroup, and the limits apply to them
+ * together. The cgroup is left in place when they exit, and may be removed
+ * with {@link CGroup#remove()}. Otherwise each process gets its own cgroup,
+ * which is removed once the process and any children it leaves behind have
+ * exited.
+ * <p>
+ * The process places itself in its cgroup before executing the command, by
+ * way of a small shell prefix, so the command never runs outside of its
+ * limits. This costs one extra <code>exec()</code> per launch. The cgroups are
+ * created under the {@link CGroup#getDefaultRoot() default root}, or under
+ * {@link #root(Path)}, which must be writable by the user running the JVM and
+ * have the required controllers delegated to it. As a cgroup that contains
+ * processes may not pass controllers on, any limits require either
+ * {@link #root(Path)} or {@link CGroup#ROOT_PROPERTY} to name a cgroup that
+ * does not contain the JVM.
+ * 
+ * <pre>
+ * new ForkerBuilder("make", "-j8").resourceLimits(new ResourceLimits().group("build").memoryMax(2L &lt;&lt; 30).cpus(2)).start();
+ * </pre>
+ */
+public class ResourceLimits {
+
+	/**
+	 * The default period used by {@link #cpus(double)}, in microseconds.
+	 */
+	public final static long DEFAULT_CPU_PERIOD = 100000;
+
+	private String group;
+	private Path root;
+	private long memoryMax = -1;
+	private long cpuQuota = -1;
+	private long cpuPeriod = DEFAULT_CPU_PERIOD;
+	private long pidsMax = -1;
+	private int ioWeight;
+	private boolean processGroup = true;
+
+	/**
+	 * Get the name of the cgroup shared by all processes started with limits
+	 * naming the same group, or <code>null</code> if each process gets its
+	 * own.
+	 * 
+	 * @return group
+	 */
+	public String group() {
+		return group;
+	}
+
+	/**
+	 * Set the name of the cgroup shared by all processes started with limits
+	 * naming the same group, or <code>null</code> if each process gets its
+	 * own.
+	 * 
+	 * @param group group
+	 * @return this for chaining
+	 */
+	public ResourceLimits group(String group) {
+		if (group != null && (group.length() == 0 || group.indexOf('/') != -1 || group.startsWith(".")))
+			throw new IllegalArgumentException(String.format("Invalid cgroup name '%s'.", group));
+		this.group = group;
+		return this;
+	}
+
+	/**
+	 * Get the cgroup under which the process cgroups are created, or
+	 * <code>null</code> to use {@link CGroup#getDefaultRoot()}.
+	 * 
+	 * @return root
+	 */
+	public Path root() {
+		return root;
+	}
+
+	/**
+	 * Set the cgroup under which the process cgroups are created, or
+	 * <code>null</code> to use {@link CGroup#getDefaultRoot()}.
+	 * 
+	 * @param root root
+	 * @return this for chaining
+	 */
+	public ResourceLimits root(Path root) {
+		this.root = root;
+		return this;
+	}
+
+	/**
+	 * Get the memory limit in bytes (<code>memory.max</code>), or -1 for no
+	 * limit.
+	 * 
+	 * @return memory limit
+	 */
+	public long memoryMax() {
+		return memoryMax;
+	}
+
+	/**
+	 * Set the memory limit in bytes (<code>memory.max</code>), or -1 for no
+	 * limit.
+	 * 
+	 * @param memoryMax memory limit
+	 * @return this for chaining
+	 */
+	public ResourceLimits memoryMax(long memoryMax) {
+		if (memoryMax < -1)
+			throw new IllegalArgumentException("Memory limit must be -1 or more.");
+		this.memoryMax = memoryMax;
+		return this;
+	}
+
+	/**
+	 * Set the CPU bandwidth limit (<code>cpu.max</code>), as the time the
+	 * processes may run for in each period, or a quota of -1 for no limit.
+	 * 
+	 * @param quota  quota in microseconds
+	 * @param period period in microseconds
+	 * @return this for chaining
+	 */
+	public ResourceLimits cpuMax(long quota, long period) {
+		if (quota < -1 || quota == 0)
+			throw new IllegalArgumentException("CPU quota must be -1 or more than zero.");
+		if (period < 1000 || period > 1000000)
+			throw new IllegalArgumentException("CPU period must be between 1000 and 1000000 microseconds.");
+		this.cpuQuota = quota;
+		this.cpuPeriod = period;
+		return this;
+	}
+
+	/**
+	 * Set the CPU bandwidth limit (<code>cpu.max</code>) as a number of CPUs,
+	 * for example <code>0.5</code> for half of one CPU, using the
+	 * {@link #DEFAULT_CPU_PERIOD}. Zero or less removes the limit.
+	 * 
+	 * @param cpus cpus
+	 * @return this for chaining
+	 */
+	public ResourceLimits cpus(double cpus) {
+		return cpuMax(cpus <= 0 ? -1 : Math.max(1000, Math.round(cpus * DEFAULT_CPU_PERIOD)), DEFAULT_CPU_PERIOD);
+	}
+
+	/**
+	 * Get the CPU quota in microseconds per {@link #cpuPeriod()}, or -1 for no
+	 * limit.
+	 * 
+	 * @return cpu quota
+	 */
+	public long cpuQuota() {
+		return cpuQuota;
+	}
+
+	/**
+	 * Get the CPU period in microseconds.
+	 * 
+	 * @return cpu period
+	 */
+	public long cpuPeriod() {
+		return cpuPeriod;
+	}
+
+	/**
+	 * Get the maximum number of processes and threads
+	 * (<code>pids.max</code>), or -1 for no limit.
+	 * 
+	 * @return maximum number of processes
+	 */
+	public long pidsMax() {
+		return pidsMax;
+	}
+
+	/**
+	 * Set the maximum number of processes and threads
+	 * (<code>pids.max</code>), or -1 for no limit.
+	 * 
+	 * @param pidsMax maximum number of processes
+	 * @return this for chaining
+	 */
+	public ResourceLimits pidsMax(long pidsMax) {
+		if (pidsMax < -1 || pidsMax == 0)
+			throw new IllegalArgumentException("Process limit must be -1 or more than zero.");
+		this.pidsMax = pidsMax;
+		return this;
+	}
+
+	/**
+	 * Get the proportional I/O weight (<code>io.weight</code>), from 1 to
+	 * 10000, or 0 to leave it at the default of 100.
+	 * 
+	 * @return I/O weight
+	 */
+	public int ioWeight() {
+		return ioWeight;
+	}
+
+	/**
+	 * Set the proportional I/O weight (<code>io.weight</code>), from 1 to
+	 * 10000, or 0 to leave it at the default of 100.
+	 * 
+	 * @param ioWeight I/O weight
+	 * @return this for chaining
+	 */
+	public ResourceLimits ioWeight(int ioWeight) {
+		if (ioWeight < 0 || ioWeight > 10000)
+			throw new IllegalArgumentException("I/O weight must be between 1 and 10000, or 0 for the default.");
+		this.ioWeight = ioWeight;
+		return this;
+	}
+
+	/**
+	 * Get whether the process will be started in its own session and process
+	 * group. Defaults to <code>true</code>.
+	 * 
+	 * @return process group
+	 */
+	public boolean processGroup() {
+		return processGroup;
+	}
+
+	/**
+	 * Set whether the process will be started in its own session and process
+	 * group. Defaults to <code>true</code>.
+	 * 
+	 * @param processGroup process group
+	 * @return this for chaining
+	 */
+	public ResourceLimits processGroup(boolean processGroup) {
+		this.processGroup = processGroup;
+		return this;
+	}
+
+	/**
+	 * Get whether any cgroup is needed, either because a limit is set or
+	 * because a {@link #group(String)} is named.
+	 * 
+	 * @return cgroup needed
+	 */
+	public boolean isCGroup() {
+		return group != null || !controllers().isEmpty();
+	}
+
+	Set<String> controllers() {
+		Set<String> c = new LinkedHashSet<>();
+		if (memoryMax != -1)
+			c.add("memory");
+		if (cpuQuota != -1)
+			c.add("cpu");
+		if (pidsMax != -1)
+			c.add("pids");
+		if (ioWeight != 0)
+			c.add("io");
+		return c;
+	}
+
+	/**
+	 * Wrap a command so that it is started in its own process group and places
+	 * itself in a cgroup before executing.
+	 * 
+	 * @param command command
+	 * @param cgroup  cgroup or <code>null</code>
+	 * @return wrapped command
+	 * @throws IOException if the prefix cannot be used on this system
+	 */
+	List<String> wrap(List<String> command, CGroup cgroup) throws IOException {
+		List<String> wrapped = new ArrayList<>();
+		if (processGroup) {
+			if (!OS.isUnix() || !OSCommand.hasCommand("setsid"))
+				throw new IOException("A process group was requested, but the 'setsid' command is not available.");
+			wrapped.add("setsid");
+		}
+		if (cgroup != null) {
+			wrapped.add("/bin/sh");
+			wrapped.add("-c");
+			wrapped.add("echo $$ > \"$0/cgroup.procs\" || exit 126; exec \"$@\"");
+			wrapped.add(cgroup.getPath().toString());
+		}
+		wrapped.addAll(command);
+		return wrapped;
+	}
+
+	@Override
+	public String toString() {
+		return "ResourceLimits [group=" + group + ", root=" + root + ", memoryMax=" + memoryMax + ", cpuQuota="
+				+ cpuQuota + ", cpuPeriod=" + cpuPeriod + ", pidsMax=" + pidsMax + ", ioWeight=" + ioWeight
+				+ ", processGroup=" + processGroup + "]";
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client;
+
+import java.nio.file.Path;
+
+/**
+ * Describes where the standard output of a {@link NonBlockingProcess} should
+ * be moved to using <code>splice(2)</code>, so that the data passes from the
+ * child's stdout pipe directly to a file or socket without being copied into
+ * the JVM. Optionally, a copy of the data may also be delivered to the
+ * {@link NonBlockingProcessListener} using <code>tee(2)</code>.
+ * <p>
+ * Only supported by {@link NonBlockingProcessFactory} on Linux. Set using
+ * {@link ForkerBuilder#spliceOutput(SpliceTarget)}.
+ */
+public final class SpliceTarget {
+	private final Path file;
+	private final boolean append;
+	private final int descriptor;
+	private final boolean tee;
+
+	private SpliceTarget(Path file, boolean append, int descriptor, boolean tee) {
+		this.file = file;
+		this.append = append;
+		this.descriptor = descriptor;
+		this.tee = tee;
+	}
+
+	/**
+	 * Move output to a file, truncating it if it exists. The file will be
+	 * opened when the process starts, and closed when it exits.
+	 * 
+	 * @param file file
+	 * @return target
+	 */
+	public static SpliceTarget file(Path file) {
+		if (file == null)
+			throw new NullPointerException();
+		return new SpliceTarget(file, false, -1, false);
+	}
+
+	/**
+	 * Move output to the end of a file, creating it if it does not exist. The
+	 * file will be opened when the process starts, and closed when it exits.
+	 * 
+	 * @param file file
+	 * @return target
+	 */
+	public static SpliceTarget append(Path file) {
+		if (file == null)
+			throw new NullPointerException();
+		return new SpliceTarget(file, true, -1, false);
+	}
+
+	/**
+	 * Move output to an already open native file descriptor, such as a
+	 * connected socket. The descriptor remains owned by the caller and will
+	 * not be closed when the process exits. The descriptor must be in
+	 * non-blocking mode (<code>O_NONBLOCK</code>), as the I/O thread is shared
+	 * with other processes. While the target is not writable, reading of the
+	 * output is paused, so the child blocks rather than output being lost.
+	 * 
+	 * @param descriptor native file descriptor
+	 * @return target
+	 */
+	public static SpliceTarget descriptor(int descriptor) {
+		if (descriptor < 0)
+			throw new IllegalArgumentException("Invalid file descriptor.");
+		return new SpliceTarget(null, false, descriptor, false);
+	}
+
+	/**
+	 * Get a copy of this target that will also deliver the output to the
+	 * processes {@link NonBlockingProcessListener#onStdout(NonBlockingProcess, java.nio.ByteBuffer, boolean)}.
+	 * 
+	 * @return target
+	 */
+	public SpliceTarget tee() {
+		return new SpliceTarget(file, append, descriptor, true);
+	}
+
+	/**
+	 * Get the file to open, or <code>null</code> if this target is an open
+	 * descriptor.
+	 * 
+	 * @return file
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Get whether the file is opened for appending.
+	 * 
+	 * @return append
+	 */
+	public boolean isAppend() {
+		return append;
+	}
+
+	/**
+	 * Get the open native file descriptor, or -1 if this target is a file.
+	 * 
+	 * @return descriptor
+	 */
+	public int getDescriptor() {
+		return descriptor;
+	}
+
+	/**
+	 * Get whether a copy of the output is also delivered to the listener.
+	 * 
+	 * @return tee
+	 */
+	public boolean isTee() {
+		return tee;
+	}
+
+	@Override
+	public String toString() {
+		return "SpliceTarget [file=" + file + ", append=" + append + ", descriptor=" + descriptor + ", tee=" + tee
+				+ "]";
+	}
+}
@@ -0,0 +1,274 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.sshtools.forker.client.IEventProcessor;
+import com.sshtools.forker.client.NonBlockingProcess;
+import com.sshtools.forker.client.NonBlockingProcessFactory;
+import com.sshtools.forker.client.ProcessMetrics;
+
+/**
+ * A {@link ProcessMetrics} that keeps totals and latency histograms, and
+ * exposes them as a standard MBean. For example :-
+ * 
+ * <pre>
+ * <code>
+ * JmxProcessMetrics metrics = new JmxProcessMetrics();
+ * metrics.register();
+ * factory.setMetrics(metrics);
+ * </code>
+ * </pre>
+ * 
+ * A wakeup is counted as a timeout when an I/O thread returns from waiting
+ * with no events. It waits no longer than
+ * {@link NonBlockingProcessFactory#getDeadPoolPollMs()} so that it can poll
+ * for processes that have closed their output but have not yet been reaped.
+ * Exit latency is the time from an exit first being noticed, by the process
+ * being reaped or by both of its output streams closing, to the exit being
+ * delivered, and is not recorded when this is not known.
+ */
+public class JmxProcessMetrics implements ProcessMetrics, JmxProcessMetricsMBean {
+
+	/**
+	 * The domain and type of the object names used by {@link #register()}.
+	 */
+	public final static String OBJECT_NAME_PREFIX = "com.sshtools.forker.client:type=ProcessMetrics";
+
+	private final LongAdder started = new LongAdder();
+	private final LongAdder exited = new LongAdder();
+	private final LongAdder running = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LongAdder wakeups = new LongAdder();
+	private final LongAdder timeoutWakeups = new LongAdder();
+	private final LongAdder events = new LongAdder();
+	private final LatencyHistogram firstByte = new LatencyHistogram();
+	private final LatencyHistogram exit = new LatencyHistogram();
+	private final Map<IEventProcessor<?>, Integer> deadPools = new ConcurrentHashMap<>();
+	private ObjectName objectName;
+
+	/**
+	 * Register with the platform MBean server using the name
+	 * <code>default</code>.
+	 * 
+	 * @return this for chaining
+	 * @throws JMException on error
+	 */
+	public JmxProcessMetrics register() throws JMException {
+		return register("default");
+	}
+
+	/**
+	 * Register with the platform MBean server. The object name will be
+	 * {@link #OBJECT_NAME_PREFIX} followed by <code>,name=</code> and the
+	 * given name.
+	 * 
+	 * @param name name
+	 * @return this for chaining
+	 * @throws JMException on error
+	 */
+	public synchronized JmxProcessMetrics register(String name) throws JMException {
+		if (objectName != null)
+			throw new IllegalStateException("Already registered as " + objectName);
+		ObjectName on = new ObjectName(OBJECT_NAME_PREFIX + ",name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+		objectName = on;
+		return this;
+	}
+
+	/**
+	 * Unregister from the platform MBean server, if registered.
+	 * 
+	 * @throws JMException on error
+	 */
+	public synchronized void unregister() throws JMException {
+		if (objectName != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			try {
+				server.unregisterMBean(objectName);
+			} finally {
+				objectName = null;
+			}
+		}
+	}
+
+	/**
+	 * Create metrics, register them with the platform MBean server and set them
+	 * on a factory.
+	 * 
+	 * @param factory factory
+	 * @param name    name
+	 * @return metrics
+	 * @throws JMException on error
+	 */
+	public static JmxProcessMetrics install(NonBlockingProcessFactory factory, String name) throws JMException {
+		JmxProcessMetrics metrics = new JmxProcessMetrics().register(name);
+		factory.setMetrics(metrics);
+		return metrics;
+	}
+
+	@Override
+	public void onStarted(NonBlockingProcess process) {
+		started.increment();
+		running.increment();
+	}
+
+	@Override
+	public void onRead(NonBlockingProcess process, long bytes) {
+		bytesRead.add(bytes);
+	}
+
+	@Override
+	public void onWritten(NonBlockingProcess process, long bytes) {
+		bytesWritten.add(bytes);
+	}
+
+	@Override
+	public void onFirstByte(NonBlockingProcess process, long nanos) {
+		firstByte.record(nanos);
+	}
+
+	@Override
+	public void onExit(NonBlockingProcess process, long nanos) {
+		exited.increment();
+		running.decrement();
+		if (nanos >= 0)
+			exit.record(nanos);
+	}
+
+	@Override
+	public void onWakeup(IEventProcessor<?> processor, int events) {
+		wakeups.increment();
+		if (events == 0)
+			timeoutWakeups.increment();
+		else
+			this.events.add(events);
+	}
+
+	@Override
+	public void onDeadPool(IEventProcessor<?> processor, int size) {
+		if (size == 0)
+			deadPools.remove(processor);
+		else
+			deadPools.put(processor, size);
+	}
+
+	@Override
+	public long getStarted() {
+		return started.sum();
+	}
+
+	@Override
+	public long getExited() {
+		return exited.sum();
+	}
+
+	@Override
+	public long getRunning() {
+		return running.sum();
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	@Override
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	@Override
+	public long getWakeups() {
+		return wakeups.sum();
+	}
+
+	@Override
+	public long getTimeoutWakeups() {
+		return timeoutWakeups.sum();
+	}
+
+	@Override
+	public double getEventsPerWakeup() {
+		long w = getWakeups();
+		return w == 0 ? 0 : (double) events.sum() / w;
+	}
+
+	@Override
+	public int getDeadPoolSize() {
+		int size = 0;
+		for (Integer s : deadPools.values())
+			size += s;
+		return size;
+	}
+
+	@Override
+	public long getFirstByteMedianMicros() {
+		return micros(firstByte.getValueAtPercentile(50));
+	}
+
+	@Override
+	public long getFirstByte99thMicros() {
+		return micros(firstByte.getValueAtPercentile(99));
+	}
+
+	@Override
+	public long getFirstByteMaxMicros() {
+		return micros(firstByte.getMax());
+	}
+
+	@Override
+	public long getExitMedianMicros() {
+		return micros(exit.getValueAtPercentile(50));
+	}
+
+	@Override
+	public long getExit99thMicros() {
+		return micros(exit.getValueAtPercentile(99));
+	}
+
+	@Override
+	public long getExitMaxMicros() {
+		return micros(exit.getMax());
+	}
+
+	@Override
+	public void reset() {
+		started.reset();
+		exited.reset();
+		bytesRead.reset();
+		bytesWritten.reset();
+		wakeups.reset();
+		timeoutWakeups.reset();
+		events.reset();
+		firstByte.reset();
+		exit.reset();
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client.impl;
+
+/**
+ * Management interface for {@link JmxProcessMetrics}. Latencies are in
+ * microseconds.
+ */
+public interface JmxProcessMetricsMBean {
+
+	/**
+	 * Get the number of processes started.
+	 * 
+	 * @return processes started
+	 */
+	long getStarted();
+
+	/**
+	 * Get the number of processes whose exit has been delivered.
+	 * 
+	 * @return processes exited
+	 */
+	long getExited();
+
+	/**
+	 * Get the number of processes started but not yet exited.
+	 * 
+	 * @return processes running
+	 */
+	long getRunning();
+
+	/**
+	 * Get the total number of bytes read from the output of processes.
+	 * 
+	 * @return bytes read
+	 */
+	long getBytesRead();
+
+	/**
+	 * Get the total number of bytes written to the input of processes.
+	 * 
+	 * @return bytes written
+	 */
+	long getBytesWritten();
+
+	/**
+	 * Get the number of times I/O threads have woken up.
+	 * 
+	 * @return wakeups
+	 */
+	long getWakeups();
+
+	/**
+	 * Get the number of times I/O threads have woken up with no events to
+	 * handle, having timed out to poll for exited processes.
+	 * 
+	 * @return timeout wakeups
+	 */
+	long getTimeoutWakeups();
+
+	/**
+	 * Get the average number of events handled per wakeup.
+	 * 
+	 * @return events per wakeup
+	 */
+	double getEventsPerWakeup();
+
+	/**
+	 * Get the number of processes whose output has closed but which have not
+	 * yet been reaped, across all I/O threads.
+	 * 
+	 * @return dead pool size
+	 */
+	int getDeadPoolSize();
+
+	/**
+	 * Get the median time from start to the first output being read.
+	 * 
+	 * @return median time to first byte
+	 */
+	long getFirstByteMedianMicros();
+
+	/**
+	 * Get the 99th percentile of the time from start to the first output being
+	 * read.
+	 * 
+	 * @return 99th percentile time to first byte
+	 */
+	long getFirstByte99thMicros();
+
+	/**
+	 * Get the longest time from start to the first output being read.
+	 * 
+	 * @return maximum time to first byte
+	 */
+	long getFirstByteMaxMicros();
+
+	/**
+	 * Get the median time from an exit being noticed to it being delivered.
+	 * 
+	 * @return median exit latency
+	 */
+	long getExitMedianMicros();
+
+	/**
+	 * Get the 99th percentile of the time from an exit being noticed to it
+	 * being delivered.
+	 * 
+	 * @return 99th percentile exit latency
+	 */
+	long getExit99thMicros();
+
+	/**
+	 * Get the longest time from an exit being noticed to it being delivered.
+	 * 
+	 * @return maximum exit latency
+	 */
+	long getExitMaxMicros();
+
+	/**
+	 * Reset all counters and histograms. The number of running processes and
+	 * the dead pool size are not affected.
+	 */
+	void reset();
+}
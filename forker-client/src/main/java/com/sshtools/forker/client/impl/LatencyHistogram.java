@@ -0,0 +1,118 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock free histogram of latencies, with 16 linear buckets for each power of
+ * two, so any percentile is accurate to within about 6%. Recording is a single
+ * atomic increment and never allocates, so is safe to use on I/O threads.
+ */
+final class LatencyHistogram {
+
+	private final static int SUB_BUCKETS = 16;
+	private final static int SUB_BITS = 4;
+	private final static int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Record a value. Negative values are recorded as zero.
+	 * 
+	 * @param value value
+	 */
+	void record(long value) {
+		if (value < 0)
+			value = 0;
+		buckets.incrementAndGet(indexOf(value));
+		count.increment();
+		max.accumulate(value);
+	}
+
+	/**
+	 * Get the number of values recorded.
+	 * 
+	 * @return count
+	 */
+	long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Get the largest value recorded.
+	 * 
+	 * @return maximum
+	 */
+	long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Get the value below which the given percentage of recorded values fall,
+	 * or zero if nothing has been recorded.
+	 * 
+	 * @param percentile percentile, from 0 to 100
+	 * @return value at percentile
+	 */
+	long getValueAtPercentile(double percentile) {
+		long total = 0;
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0)
+			return 0;
+		long wanted = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100d * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= wanted)
+				return Math.min(highestValueIn(i), getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * Discard everything recorded.
+	 */
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			buckets.set(i, 0);
+		count.reset();
+		max.reset();
+	}
+
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+	}
+
+	static long highestValueIn(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int shift = index / SUB_BUCKETS - 1;
+		long sub = SUB_BUCKETS + index % SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+}
@@ -50,7 +50,9 @@ public class LocalProcess extends ForkerProcess {
 			effectiveUser.elevate(builder, null, builder.getCommand());
 		}
 		try {
-			List<String> allArguments = builder.getCommand().getAllArguments();
+			boolean scheduling = Scheduling.isSupported(effectiveUser);
+			Scheduling.validate(builder.getCommand());
+			List<String> allArguments = builder.getCommand().getAllArguments(!scheduling);
 			ProcessBuilder pb = new ProcessBuilder(allArguments);
 			if(builder.getCommand().isDefaultRedirects()) {
 				if (builder.getCommand().isRedirectError()) {
@@ -79,6 +81,9 @@ public class LocalProcess extends ForkerProcess {
 				pb.environment().putAll(builder.getCommand().getEnvironment());
 			}
 			nativeProcess = pb.start();
+			if (scheduling) {
+				Scheduling.apply((int) nativeProcess.pid(), builder.getCommand());
+			}
 		} finally {
 			if (effectiveUser != null) {
 				effectiveUser.descend(builder, null, builder.getCommand());
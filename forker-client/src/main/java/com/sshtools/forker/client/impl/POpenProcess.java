@@ -18,25 +18,37 @@ package com.sshtools.forker.client.impl;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import com.sshtools.forker.client.AbstractOSProcess;
 import com.sshtools.forker.client.ForkerBuilder;
+import com.sshtools.forker.client.impl.jna.posix.LibC;
 import com.sshtools.forker.common.CSystem;
 import com.sshtools.forker.common.IO;
-import com.sun.jna.Memory;
+import com.sun.jna.Native;
 
 /**
  * Use the C call <b>popen(cmd, mode)</b>. The advantage of this over
  * {@link SystemProcess} is that I/O streams are supported, but <b>only in one
  * direction at a time</b>. 
+ * <p>
+ * Stream data is transferred directly on the pipe's file descriptor through a
+ * reused native buffer, so it is passed through byte for byte (including any
+ * NUL bytes) without any character conversion. Output to the process is
+ * buffered, and only written when the buffer is full, or on
+ * {@link OutputStream#flush()}, {@link OutputStream#close()} or
+ * {@link #waitFor()}.
  */
 public class POpenProcess extends AbstractOSProcess {
 
+	private final static int BUFFER_SIZE = 65536;
+
 	private CSystem.FILE fd;
 	private int exitValue = Integer.MIN_VALUE;
 	private ForkerBuilder builder;
 	private InputStream in;
 	private OutputStream out;
+	private int fileno = -1;
 
 	/**
 	 * Constructor
@@ -71,29 +83,32 @@ public class POpenProcess extends AbstractOSProcess {
 			out = new OutputStream() {
 
 				private boolean closed;
+				private ByteBuffer buffer;
 
 				@Override
 				public void write(int b) throws IOException {
-					if (closed) {
-						throw new IOException("Closed.");
-					}
-					CSystem.INSTANCE.fputs(String.valueOf((char) b), fd);
+					buffer().put((byte) b);
+					if (!buffer.hasRemaining())
+						drain();
 				}
 
 				@Override
-				public void write(byte[] b) throws IOException {
-					if (closed) {
-						throw new IOException("Closed.");
+				public void write(byte[] b, int off, int len) throws IOException {
+					buffer();
+					while (len > 0) {
+						int chunk = Math.min(len, buffer.remaining());
+						buffer.put(b, off, chunk);
+						if (!buffer.hasRemaining())
+							drain();
+						off += chunk;
+						len -= chunk;
 					}
-					CSystem.INSTANCE.fputs(new String(b), fd);
 				}
 
 				@Override
-				public void write(byte[] b, int off, int len) throws IOException {
-					if (closed) {
-						throw new IOException("Closed.");
-					}
-					CSystem.INSTANCE.fputs(new String(b, off, len), fd);
+				public void flush() throws IOException {
+					if (!closed && buffer != null && buffer.position() > 0)
+						drain();
 				}
 
 				@Override
@@ -101,7 +116,42 @@ public class POpenProcess extends AbstractOSProcess {
 					if (closed) {
 						throw new IOException("Already closed.");
 					}
-					closed = true;
+					try {
+						flush();
+					} finally {
+						closed = true;
+					}
+				}
+
+				private ByteBuffer buffer() throws IOException {
+					if (closed) {
+						throw new IOException("Closed.");
+					}
+					if (buffer == null) {
+						buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+					}
+					return buffer;
+				}
+
+				/*
+				 * Write out everything buffered, leaving the buffer empty
+				 */
+				private void drain() throws IOException {
+					buffer.flip();
+					try {
+						while (buffer.hasRemaining()) {
+							int wrote = LibC.write(fileno(), buffer, buffer.remaining());
+							if (wrote < 0) {
+								int errno = Native.getLastError();
+								if (errno == LibC.EINTR)
+									continue;
+								throw new IOException(String.format("Failed to write to process, errno %d.", errno));
+							}
+							buffer.position(buffer.position() + wrote);
+						}
+					} finally {
+						buffer.clear();
+					}
 				}
 			};
 		}
@@ -117,49 +167,30 @@ public class POpenProcess extends AbstractOSProcess {
 			in = new InputStream() {
 
 				private boolean closed;
+				private boolean eof;
+				private ByteBuffer buffer;
 
 				@Override
 				public int read() throws IOException {
-					if (closed) {
-						throw new IOException("Closed.");
-					}
-					Memory buffer = new Memory(1);
-					String res = CSystem.INSTANCE.fgets(buffer, 1, fd);
-					if (res == null || res.length() == 0) {
-						exitValue = CSystem.INSTANCE.pclose(fd);
+					if (!fill())
 						return -1;
-					}
-					return res.getBytes()[0];
+					return buffer.get() & 0xff;
 				}
 
 				@Override
-				public int read(byte[] b) throws IOException {
-					if (closed) {
-						throw new IOException("Closed.");
-					}
-					Memory buffer = new Memory(b.length);
-					String res = CSystem.INSTANCE.fgets(buffer, b.length, fd);
-					if (res == null) {
-						exitValue = CSystem.INSTANCE.pclose(fd);
+				public int read(byte[] b, int off, int len) throws IOException {
+					if (len == 0)
+						return 0;
+					if (!fill())
 						return -1;
-					}
-					System.arraycopy(res.getBytes(), 0, b, 0, res.length());
-					return res.length();
+					int n = Math.min(len, buffer.remaining());
+					buffer.get(b, off, n);
+					return n;
 				}
 
 				@Override
-				public int read(byte[] b, int off, int len) throws IOException {
-					if (closed) {
-						throw new IOException("Closed.");
-					}
-					Memory buffer = new Memory(len);
-					String res = CSystem.INSTANCE.fgets(buffer, len, fd);
-					if (res == null) {
-						exitValue = CSystem.INSTANCE.pclose(fd);
-						return -1;
-					}
-					System.arraycopy(res.getBytes(), 0, b, off, res.length());
-					return res.length();
+				public int available() throws IOException {
+					return buffer == null ? 0 : buffer.remaining();
 				}
 
 				@Override
@@ -169,6 +200,43 @@ public class POpenProcess extends AbstractOSProcess {
 					}
 					closed = true;
 				}
+
+				/*
+				 * Refill the read-ahead buffer with a single native read if it
+				 * has been drained. Returns false at end of stream, at which
+				 * point the process is closed to collect its exit value.
+				 */
+				private boolean fill() throws IOException {
+					if (closed) {
+						throw new IOException("Closed.");
+					}
+					if (buffer == null) {
+						buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+						buffer.limit(0);
+					}
+					if (buffer.hasRemaining())
+						return true;
+					if (eof)
+						return false;
+					int read;
+					buffer.clear();
+					do {
+						read = LibC.read(fileno(), buffer, buffer.capacity());
+					} while (read < 0 && Native.getLastError() == LibC.EINTR);
+					if (read < 0) {
+						buffer.limit(0);
+						throw new IOException(
+								String.format("Failed to read from process, errno %d.", Native.getLastError()));
+					}
+					buffer.limit(read);
+					if (read == 0) {
+						eof = true;
+						if (exitValue == Integer.MIN_VALUE)
+							exitValue = CSystem.INSTANCE.pclose(fd);
+						return false;
+					}
+					return true;
+				}
 			};
 		}
 		return in;
@@ -182,6 +250,13 @@ public class POpenProcess extends AbstractOSProcess {
 	@Override
 	public int waitFor() throws InterruptedException {
 		if (exitValue == Integer.MIN_VALUE) {
+			if (out != null) {
+				try {
+					out.flush();
+				} catch (IOException ioe) {
+					/* The process has stopped reading, its exit value will say why */
+				}
+			}
 			exitValue = CSystem.INSTANCE.pclose(fd);
 			if (exitValue == -1) {
 				throw new RuntimeException("Failed to close process.");
@@ -203,6 +278,16 @@ public class POpenProcess extends AbstractOSProcess {
 		throw new UnsupportedOperationException();
 	}
 
+	private int fileno() throws IOException {
+		if (fileno == -1) {
+			fileno = CSystem.INSTANCE.fileno(fd);
+			if (fileno == -1) {
+				throw new IOException("Failed to obtain file descriptor for process stream.");
+			}
+		}
+		return fileno;
+	}
+
 	private void doBuildCommand(final ForkerBuilder builder) {
 		fd = CSystem.INSTANCE.popen(buildCommand(builder), builder.io() == IO.INPUT ? "r" : "w");
 	}
@@ -0,0 +1,118 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client.impl;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sshtools.forker.client.EffectiveUser;
+import com.sshtools.forker.client.impl.jna.posix.LibC;
+import com.sshtools.forker.client.impl.jna.posix.LibEpoll;
+import com.sshtools.forker.common.Command;
+import com.sshtools.forker.common.Priority;
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+
+/**
+ * Applies the {@link Command#getPriority()} and {@link Command#getAffinity()} of
+ * a command directly to a process once it has started, using
+ * <code>setpriority(2)</code> and <code>sched_setaffinity(2)</code>, rather than
+ * prefixing the command with <code>nice</code> and <code>taskset</code>, which
+ * costs an extra <code>exec()</code> per launch.
+ * <p>
+ * Only supported on Linux. The settings are applied to the main thread of the
+ * process straight after it has been spawned, so are inherited by any threads
+ * and children it creates from then on, but not by any it has already
+ * created. As with <code>nice</code>, failing to raise the priority without the
+ * required privilege is logged but does not prevent the process running.
+ * <p>
+ * Note that <code>setpriority(2)</code> sets the {@link Priority#getNice()}
+ * value as is, whereas <code>nice -n</code> adds it to the nice value of the
+ * JVM. The two only give the same result when the JVM itself runs at a nice
+ * value of 0.
+ * <p>
+ * A process started with an effective user runs as another user from the
+ * start, so this process is not permitted to change it. Such processes should
+ * be started with the wrapper commands instead, see
+ * {@link #isSupported(EffectiveUser)}.
+ */
+public final class Scheduling {
+
+	private final static Logger LOG = Logger.getLogger(Scheduling.class.getName());
+
+	private Scheduling() {
+	}
+
+	/**
+	 * Get whether priority and affinity may be applied directly on this
+	 * platform. If not, the command should be run with the wrapper commands
+	 * from {@link Command#getAllArguments()}.
+	 * 
+	 * @return supported
+	 */
+	public static boolean isSupported() {
+		return Platform.isLinux();
+	}
+
+	/**
+	 * Get whether priority and affinity may be applied directly to a process
+	 * started with the given effective user. If not, the command should be run
+	 * with the wrapper commands from {@link Command#getAllArguments()}.
+	 * 
+	 * @param effectiveUser effective user or <code>null</code>
+	 * @return supported
+	 */
+	public static boolean isSupported(EffectiveUser effectiveUser) {
+		return effectiveUser == null && isSupported();
+	}
+
+	/**
+	 * Check that the priority and processor affinity of a command are valid, so
+	 * that {@link #apply(int, Command)} cannot fail once the process has been
+	 * started.
+	 * 
+	 * @param command command
+	 * @throws IllegalArgumentException if the affinity is invalid
+	 */
+	public static void validate(Command command) {
+		if (!command.getAffinity().isEmpty()) {
+			command.getAffinityMask();
+		}
+	}
+
+	/**
+	 * Apply the priority and processor affinity of a command to a process. The
+	 * command should have been checked with {@link #validate(Command)} before
+	 * the process was started.
+	 * 
+	 * @param pid     process ID
+	 * @param command command
+	 */
+	public static void apply(int pid, Command command) {
+		Priority priority = command.getPriority();
+		if (priority != null && LibC.setpriority(LibC.PRIO_PROCESS, pid, priority.getNice()) == -1) {
+			LOG.log(Level.WARNING, String.format("Could not set priority of process %d to %s (%d), error %d.", pid,
+					priority, priority.getNice(), Native.getLastError()));
+		}
+		if (!command.getAffinity().isEmpty()) {
+			long[] mask = command.getAffinityMask();
+			if (LibEpoll.sched_setaffinity(pid, mask.length * 8L, mask) == -1) {
+				LOG.log(Level.WARNING, String.format("Could not set processor affinity of process %d to %s, error %d.",
+						pid, command.getAffinity(), Native.getLastError()));
+			}
+		}
+	}
+}
@@ -0,0 +1,394 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sshtools.forker.client.DefaultNonBlockingProcessListener;
+import com.sshtools.forker.client.EffectiveUser;
+import com.sshtools.forker.client.ForkerBuilder;
+import com.sshtools.forker.client.IEventProcessor;
+import com.sshtools.forker.client.NonBlockingProcess;
+import com.sshtools.forker.client.NonBlockingProcessListener;
+
+/**
+ * A {@link NonBlockingProcess} that uses Java's {@link ProcessBuilder} to
+ * start the child, and pumps its standard streams and waits for it to exit
+ * using tasks submitted to an executor (normally one that creates a virtual
+ * thread per task). The same {@link NonBlockingProcessListener} callbacks are
+ * delivered as for the native non-blocking processes, although each stream's
+ * callbacks arrive on its own thread.
+ * <p>
+ * If no listener is supplied, the child's own streams are returned from
+ * {@link #getInputStream()}, {@link #getErrorStream()} and
+ * {@link #getOutputStream()}, and nothing is pumped.
+ */
+public class VirtualThreadProcess extends NonBlockingProcess {
+	private final static Logger LOGGER = Logger.getLogger(VirtualThreadProcess.class.getName());
+
+	private final Process nativeProcess;
+	private final ExecutorService executor;
+	private final boolean passthrough;
+	private final CountDownLatch pumpsDone;
+	private final AtomicBoolean userWantsWrite = new AtomicBoolean();
+	private final AtomicBoolean writerActive = new AtomicBoolean();
+	private final AtomicBoolean stdinClosing = new AtomicBoolean();
+	private volatile boolean stdinClosed;
+	private final long drainTimeoutMs;
+	private final Object pauseLock = new Object();
+	private boolean stdoutPaused;
+	private boolean stderrPaused;
+	private ByteBuffer inBuffer;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param builder  builder
+	 * @param factory  factory
+	 * @param listener listener, or <code>null</code> to use the streams
+	 * @throws IOException on any error
+	 */
+	public VirtualThreadProcess(ForkerBuilder builder, VirtualThreadProcessFactory factory,
+			NonBlockingProcessListener listener) throws IOException {
+		/*
+		 * The NonBlockingProcessFactory is only used by the native processes, and
+		 * with no listener the child's own streams are used rather than those
+		 * NonBlockingProcess would bridge, so a do nothing listener is passed up
+		 */
+		super(builder, null, listener == null ? new DefaultNonBlockingProcessListener() : listener);
+		passthrough = listener == null;
+		executor = factory.getExecutor();
+		drainTimeoutMs = factory.getDrainTimeoutMs();
+		pendingWrites = new ConcurrentLinkedQueue<ByteBuffer>();
+
+		EffectiveUser effectiveUser = builder.effectiveUser();
+		if (effectiveUser != null) {
+			effectiveUser.elevate(builder, null, builder.getCommand());
+		}
+		try {
+			List<String> allArguments = builder.getCommand().getAllArguments();
+			ProcessBuilder pb = new ProcessBuilder(allArguments);
+			pb.redirectErrorStream(builder.redirectErrorStream());
+			if (builder.getCommand().getDirectory() != null) {
+				pb.directory(builder.getCommand().getDirectory());
+			}
+			if (builder.getCommand().getEnvironment() != null) {
+				pb.environment().putAll(builder.getCommand().getEnvironment());
+			}
+			isRunning = true;
+			try {
+				nativeProcess = pb.start();
+			} catch (IOException | RuntimeException e) {
+				isRunning = false;
+				exitCode.set(Integer.MIN_VALUE);
+				exited();
+				this.listener.onExit(Integer.MIN_VALUE, this);
+				throw e;
+			}
+		} finally {
+			if (effectiveUser != null) {
+				effectiveUser.descend(builder, null, builder.getCommand());
+			}
+		}
+
+		inBuffer = ByteBuffer.allocate(BUFFER_CAPACITY);
+		pumpsDone = new CountDownLatch(passthrough ? 0 : (builder.redirectErrorStream() ? 1 : 2));
+		this.listener.onStarted(this);
+		if (!passthrough) {
+			executor.execute(() -> pump(nativeProcess.getInputStream(), false));
+			if (!builder.redirectErrorStream())
+				executor.execute(() -> pump(nativeProcess.getErrorStream(), true));
+		}
+		executor.execute(this::awaitExit);
+	}
+
+	@Override
+	public int getPID() {
+		return (int) nativeProcess.pid();
+	}
+
+	@Override
+	public ProcessHandle toHandle() {
+		return nativeProcess.toHandle();
+	}
+
+	@Override
+	public void destroy() {
+		nativeProcess.destroy();
+	}
+
+	@Override
+	public Process destroyForcibly() {
+		nativeProcess.destroyForcibly();
+		return this;
+	}
+
+	@Override
+	public boolean supportsNormalTermination() {
+		return nativeProcess.supportsNormalTermination();
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		if (passthrough)
+			return nativeProcess.getInputStream();
+		throw new UnsupportedOperationException(
+				"This process is a non-blocking one. Please use NonBlockProcess.listen() instead.");
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		if (passthrough)
+			return nativeProcess.getErrorStream();
+		throw new UnsupportedOperationException(
+				"This process is a non-blocking one. Please use NonBlockProcess.listen() instead.");
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return nativeProcess.getOutputStream();
+	}
+
+	@Override
+	public void wantWrite() {
+		if (stdinClosed || stdinClosing.get())
+			throw new IllegalStateException("closeStdin() method has already been called.");
+		userWantsWrite.set(true);
+		scheduleWriter();
+	}
+
+	@Override
+	public void writeStdin(ByteBuffer buffer) {
+		if (stdinClosed || stdinClosing.get())
+			throw new IllegalStateException("closeStdin() method has already been called.");
+		pendingWrites.add(buffer);
+		scheduleWriter();
+	}
+
+	@Override
+	public void closeStdin(boolean force) {
+		if (force) {
+			pendingWrites.clear();
+			userWantsWrite.set(false);
+			closeNativeStdin();
+		} else if (stdinClosing.compareAndSet(false, true)) {
+			scheduleWriter();
+		} else {
+			throw new IllegalStateException("closeStdin() method has already been called.");
+		}
+	}
+
+	@Override
+	public boolean hasPendingWrites() {
+		return !pendingWrites.isEmpty();
+	}
+
+	@Override
+	protected boolean setReadInterest(boolean stderr, boolean interested) {
+		synchronized (pauseLock) {
+			if (stderr)
+				stderrPaused = !interested;
+			else
+				stdoutPaused = !interested;
+			pauseLock.notifyAll();
+		}
+		return true;
+	}
+
+	@Override
+	protected IEventProcessor<? extends NonBlockingProcess> createProcessor() {
+		throw new UnsupportedOperationException();
+	}
+
+	private void pump(InputStream in, boolean stderr) {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_CAPACITY);
+		try {
+			while (true) {
+				awaitResume(stderr);
+				int read;
+				try {
+					read = in.read(buffer.array(), buffer.position(), buffer.remaining());
+				} catch (IOException ioe) {
+					/* Stream closed after the process exited */
+					read = -1;
+				}
+				if (read == -1)
+					break;
+				buffer.position(buffer.position() + read);
+				buffer.flip();
+				try {
+					if (stderr)
+						listener.onStderr(this, buffer, false);
+					else
+						listener.onStdout(this, buffer, false);
+				} catch (Exception e) {
+					listener.onError(e, this, false);
+				}
+				buffer.compact();
+				if (!buffer.hasRemaining()) {
+					// The caller's callback must set the buffer's position
+					// to indicate how many bytes were consumed, or else it will
+					// eventually run out of capacity.
+					throw new IllegalStateException((stderr ? "stderr" : "stdout") + " buffer has no bytes remaining");
+				}
+			}
+			buffer.flip();
+			if (stderr)
+				listener.onStderr(this, buffer, true);
+			else
+				listener.onStdout(this, buffer, true);
+		} catch (Exception e) {
+			listener.onError(e, this, false);
+		} finally {
+			pumpsDone.countDown();
+		}
+	}
+
+	private void awaitResume(boolean stderr) throws InterruptedException {
+		synchronized (pauseLock) {
+			while (stderr ? stderrPaused : stdoutPaused) {
+				pauseLock.wait();
+			}
+		}
+	}
+
+	private boolean isPaused() {
+		synchronized (pauseLock) {
+			return stdoutPaused || stderrPaused;
+		}
+	}
+
+	private void awaitExit() {
+		int code = Integer.MAX_VALUE;
+		try {
+			code = nativeProcess.waitFor();
+			/*
+			 * Let the pumps deliver the last of the output before reporting the exit. If
+			 * something else inherited the pipes and is keeping them open, stop waiting
+			 * and close them, unless output has been paused
+			 */
+			while (!pumpsDone.await(drainTimeoutMs, TimeUnit.MILLISECONDS)) {
+				if (!isPaused()) {
+					closeQuietly(nativeProcess.getInputStream());
+					closeQuietly(nativeProcess.getErrorStream());
+					pumpsDone.await();
+					break;
+				}
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				closeStdin(true);
+				isRunning = false;
+				exitCode.set(code);
+				listener.onExit(code, this);
+			} catch (Exception e) {
+				listener.onError(e, this, true);
+			} finally {
+				exited();
+			}
+		}
+	}
+
+	private void scheduleWriter() {
+		if (writerActive.compareAndSet(false, true)) {
+			executor.execute(this::writeLoop);
+		}
+	}
+
+	private void writeLoop() {
+		OutputStream out = nativeProcess.getOutputStream();
+		try {
+			while (true) {
+				while (!stdinClosed && (!pendingWrites.isEmpty() || userWantsWrite.get())) {
+					ByteBuffer next = pendingWrites.poll();
+					if (next == null) {
+						/*
+						 * Clear before calling the listener, so a wantWrite() from another thread
+						 * while it runs is not lost
+						 */
+						userWantsWrite.set(false);
+						inBuffer.clear();
+						if (listener.onStdinReady(this, inBuffer))
+							userWantsWrite.set(true);
+						next = inBuffer;
+					}
+					write(out, next);
+				}
+				if (stdinClosing.get() && pendingWrites.isEmpty()) {
+					closeNativeStdin();
+				}
+				writerActive.set(false);
+				/* Check again in case more was queued while we were finishing */
+				if (stdinClosed || (pendingWrites.isEmpty() && !userWantsWrite.get() && !stdinClosing.get())
+						|| !writerActive.compareAndSet(false, true))
+					break;
+			}
+		} catch (IOException ioe) {
+			boolean closedByUs = stdinClosed;
+			writerActive.set(false);
+			pendingWrites.clear();
+			closeNativeStdin();
+			if (!closedByUs)
+				listener.onError(ioe, this, false);
+		} catch (Exception e) {
+			writerActive.set(false);
+			listener.onError(e, this, false);
+		}
+	}
+
+	private void write(OutputStream out, ByteBuffer buffer) throws IOException {
+		if (buffer.hasArray()) {
+			out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+		} else {
+			byte[] b = inBuffer.array();
+			while (buffer.hasRemaining()) {
+				int n = Math.min(b.length, buffer.remaining());
+				buffer.get(b, 0, n);
+				out.write(b, 0, n);
+			}
+		}
+		out.flush();
+	}
+
+	private void closeNativeStdin() {
+		if (!stdinClosed) {
+			stdinClosed = true;
+			closeQuietly(nativeProcess.getOutputStream());
+		}
+	}
+
+	private static void closeQuietly(AutoCloseable closeable) {
+		try {
+			closeable.close();
+		} catch (Exception e) {
+			LOGGER.log(Level.FINE, "Failed to close stream.", e);
+		}
+	}
+}
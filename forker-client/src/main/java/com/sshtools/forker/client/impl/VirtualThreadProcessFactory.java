@@ -0,0 +1,173 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client.impl;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sshtools.forker.client.ForkerBuilder;
+import com.sshtools.forker.client.ForkerProcess;
+import com.sshtools.forker.client.ForkerProcessFactory;
+import com.sshtools.forker.client.ForkerProcessListener;
+import com.sshtools.forker.client.NonBlockingProcess;
+import com.sshtools.forker.client.NonBlockingProcessListener;
+import com.sshtools.forker.common.IO;
+
+/**
+ * Creates {@link VirtualThreadProcess} for the {@link IO#NON_BLOCKING} I/O
+ * mode, as an alternative to the native non-blocking processes that does not
+ * depend on JNA or the JDK's internal process launching. Each child is started
+ * using {@link ProcessBuilder}, and its streams are pumped on virtual threads
+ * when running on Java 21 or later, or on a pool of daemon threads otherwise.
+ * <p>
+ * This factory is disabled by default, and must be enabled using
+ * {@link #setEnabled(boolean)}, after which it takes precedence over
+ * {@link com.sshtools.forker.client.NonBlockingProcessFactory}. Builders that
+ * request {@link ForkerBuilder#spliceOutput(com.sshtools.forker.client.SpliceTarget)}
+ * are left to the native factory.
+ */
+public class VirtualThreadProcessFactory implements ForkerProcessFactory {
+	private final static Logger LOGGER = Logger.getLogger(VirtualThreadProcessFactory.class.getName());
+
+	private volatile boolean enabled;
+	private ExecutorService executor;
+	private int drainTimeoutMs = 1000;
+	private final Object lock = new Object();
+
+	/**
+	 * Get whether this factory will create processes.
+	 * 
+	 * @return enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Set whether this factory will create processes.
+	 * 
+	 * @param enabled enabled
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Get how long to wait, after a process has exited, for the last of its output
+	 * to be read before the streams are closed and the exit reported. This only
+	 * matters if something else (e.g. a background grandchild) has inherited the
+	 * streams and keeps them open.
+	 * 
+	 * @return drain timeout in milliseconds
+	 */
+	public int getDrainTimeoutMs() {
+		return drainTimeoutMs;
+	}
+
+	/**
+	 * Set how long to wait, after a process has exited, for the last of its output
+	 * to be read before the streams are closed and the exit reported.
+	 * 
+	 * @param drainTimeoutMs drain timeout in milliseconds
+	 */
+	public void setDrainTimeoutMs(int drainTimeoutMs) {
+		this.drainTimeoutMs = drainTimeoutMs;
+	}
+
+	/**
+	 * Get the executor used to pump streams and wait for processes. If none has
+	 * been set, one that creates a new virtual thread per task is used where
+	 * available, otherwise a cached pool of daemon threads.
+	 * 
+	 * @return executor
+	 */
+	public ExecutorService getExecutor() {
+		synchronized (lock) {
+			if (executor == null) {
+				executor = createDefaultExecutor();
+			}
+			return executor;
+		}
+	}
+
+	/**
+	 * Set the executor used to pump streams and wait for processes. It must be
+	 * able to run at least two or three tasks per live process at the same time.
+	 * 
+	 * @param executor executor
+	 */
+	public void setExecutor(ExecutorService executor) {
+		synchronized (lock) {
+			this.executor = executor;
+		}
+	}
+
+	/**
+	 * Get whether the executor in use creates virtual threads.
+	 * 
+	 * @return virtual threads
+	 */
+	public boolean isVirtualThreads() {
+		try {
+			Object virtual = getExecutor().submit(() -> {
+				return Thread.class.getMethod("isVirtual").invoke(Thread.currentThread());
+			}).get();
+			return Boolean.TRUE.equals(virtual);
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	@Override
+	public ForkerProcess createProcess(ForkerBuilder builder, ForkerProcessListener listener) throws IOException {
+		if (!enabled || builder.io() != IO.NON_BLOCKING || builder.spliceOutput() != null)
+			return null;
+		NonBlockingProcess process;
+		try {
+			process = new VirtualThreadProcess(builder, this, (NonBlockingProcessListener) listener);
+			if (listener != null) {
+				((NonBlockingProcessListener) listener).onStart(process);
+			}
+		} catch (ClassCastException cce) {
+			throw new IllegalArgumentException(
+					String.format("For a %s, the listener supplied must be a %s.", getClass(), NonBlockingProcess.class), cce);
+		}
+		return process;
+	}
+
+	private static ExecutorService createDefaultExecutor() {
+		try {
+			/* Java 21 and above */
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (NoSuchMethodException nsme) {
+			LOGGER.log(Level.FINE, "Virtual threads are not available, using platform threads.");
+		} catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Failed to create virtual thread executor, using platform threads.", e);
+		}
+		AtomicInteger threadNumber = new AtomicInteger();
+		return Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "ForkerProcessPump" + threadNumber.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+}
@@ -32,8 +32,16 @@ public class LibC {
 	static {
 		if (Platform.isMac()) {
 			O_NONBLOCK = 0x0004; // MacOS X, Freebsd
+			O_APPEND = 0x0008;
+			O_CREAT = 0x0200;
+			O_TRUNC = 0x0400;
+			O_CLOEXEC = 0x1000000;
 		} else {
 			O_NONBLOCK = 2048; // Linux
+			O_APPEND = 02000;
+			O_CREAT = 0100;
+			O_TRUNC = 01000;
+			O_CLOEXEC = 02000000;
 		}
 		Native.register(NativeLibrary.getProcess());
 	}
@@ -124,6 +132,22 @@ public class LibC {
 	 */
 	public static native int close(int fildes);
 
+	/**
+	 * @param path
+	 * @param oflag
+	 * @param mode
+	 * @return file descriptor or -1 on error
+	 */
+	public static native int open(String path, int oflag, int mode);
+
+	/**
+	 * @param fildes
+	 * @param offset
+	 * @param whence
+	 * @return resulting offset or -1 on error
+	 */
+	public static native long lseek(int fildes, long offset, int whence);
+
 	/**
 	 * @param fildes
 	 * @param buf
@@ -152,6 +176,14 @@ public class LibC {
 	 */
 	public static native int kill(int pid, int sig);
 
+	/**
+	 * @param which one of {@link #PRIO_PROCESS}, {@link #PRIO_PGRP} or {@link #PRIO_USER}
+	 * @param who
+	 * @param prio
+	 * @return status
+	 */
+	public static native int setpriority(int which, int who, int prio);
+
 	/**
 	 * @param pid
 	 * @param status
@@ -208,10 +240,46 @@ public class LibC {
 	 * 
 	 */
 	public static final int O_NONBLOCK;
+	/**
+	 * 
+	 */
+	public static final int O_WRONLY = 0x0001;
+	/**
+	 * 
+	 */
+	public static final int O_APPEND;
+	/**
+	 * 
+	 */
+	public static final int O_CREAT;
+	/**
+	 * 
+	 */
+	public static final int O_TRUNC;
+	/**
+	 * 
+	 */
+	public static final int O_CLOEXEC;
+	/**
+	 * 
+	 */
+	public static final int SEEK_END = 2;
+	/**
+	 * from /usr/include/asm-generic/errno-base.h
+	 */
+	public static final int EAGAIN = Platform.isMac() ? 35 : 11;
 	/**
 	 * from /usr/include/asm-generic/errno-base.h
 	 */
 	public static final int ECHILD = 10; /* No child processes */
+	/**
+	 * from /usr/include/asm-generic/errno-base.h
+	 */
+	public static final int EIO = 5; /* I/O error */
+	/**
+	 * from /usr/include/asm-generic/errno-base.h
+	 */
+	public static final int EINTR = 4; /* Interrupted system call */
 	/**
 	 * from /usr/include/sys/wait.h
 	 */
@@ -224,6 +292,18 @@ public class LibC {
 	 * From /usr/include/sys/signal.h
 	 */
 	public static final short POSIX_SPAWN_CLOEXEC_DEFAULT = 0x4000;
+	/**
+	 * from /usr/include/sys/resource.h
+	 */
+	public static final int PRIO_PROCESS = 0;
+	/**
+	 * from /usr/include/sys/resource.h
+	 */
+	public static final int PRIO_PGRP = 1;
+	/**
+	 * from /usr/include/sys/resource.h
+	 */
+	public static final int PRIO_USER = 2;
 	/**
 	 * 
 	 */
@@ -49,15 +49,10 @@ public class LibEpoll {
 	public static native int epoll_ctl(int epfd, int op, int fd, Pointer event);
 
 	/**
-	 * We only ever call this API with maxevents=1. However, if calling with
-	 * maxevents &gt; 1, care must be taken to ensure that the "events" Pointer
-	 * actually points to a contiguous block of memory large enough to handle
-	 * maxevents number of EpollEvent mappings.
-	 * 
-	 * EpollEvent would likely need to be updated to add a convenience method
-	 * that allocates a block of memory and returns an array of EpollEvents
-	 * mapped into it. The EpollEvent.getPointer() of the first array element
-	 * could then be passed to this API.
+	 * When calling with maxevents &gt; 1, care must be taken to ensure that the
+	 * "events" Pointer actually points to a contiguous block of memory large
+	 * enough to handle maxevents number of EpollEvent mappings. See
+	 * EpollEvent.allocate(int).
 	 * 
 	 * @param epfd epfd
 	 * @param events events
@@ -67,6 +62,146 @@ public class LibEpoll {
 	 */
 	public static native int epoll_wait(int epfd, Pointer events, int maxevents, int timeout);
 
+	/**
+	 * Obtain a file descriptor that refers to a process. The descriptor
+	 * becomes readable when the process terminates, so may be registered with
+	 * epoll to be notified of exit. Requires Linux 5.3 or above, on older
+	 * kernels -1 is returned and the last error will be {@link #ENOSYS}.
+	 * 
+	 * @param pid process ID
+	 * @param flags flags (must currently be 0)
+	 * @return file descriptor or -1 on error
+	 */
+	public static int pidfd_open(int pid, int flags) {
+		return LibC.SYSCALL.syscall(SYS_pidfd_open, pid, flags);
+	}
+
+	/**
+	 * Wait for a change of state in a child. With {@link #WNOWAIT} the child is
+	 * left in a waitable state, so it is not reaped and its process ID cannot be
+	 * reused until a later wait.
+	 * 
+	 * @param idtype  {@link #P_PID} or {@link #P_PIDFD}
+	 * @param id      process ID or pidfd
+	 * @param infop   <code>siginfo_t</code> to receive the state, at least
+	 *                {@link #SIGINFO_SIZE} bytes
+	 * @param options {@link #WEXITED} combined with {@link #WNOWAIT} and / or
+	 *                {@link LibC#WNOHANG}
+	 * @return status
+	 */
+	public static native int waitid(int idtype, int id, Pointer infop, int options);
+
+	/**
+	 * Move data between two file descriptors without copying between kernel
+	 * and user space. One of the descriptors must be a pipe. Note, the length
+	 * and return value are mapped as 64 bit.
+	 * 
+	 * @param fd_in input descriptor
+	 * @param off_in input offset or <code>null</code>
+	 * @param fd_out output descriptor
+	 * @param off_out output offset or <code>null</code>
+	 * @param len maximum number of bytes to move
+	 * @param flags flags
+	 * @return bytes moved, 0 on end of input or -1 on error
+	 */
+	public static native long splice(int fd_in, Pointer off_in, int fd_out, Pointer off_out, long len, int flags);
+
+	/**
+	 * Duplicate data from one pipe to another without consuming it from the
+	 * input pipe. Note, the length and return value are mapped as 64 bit.
+	 * 
+	 * @param fd_in input pipe
+	 * @param fd_out output pipe
+	 * @param len maximum number of bytes to duplicate
+	 * @param flags flags
+	 * @return bytes duplicated, 0 if there was no data or -1 on error
+	 */
+	public static native long tee(int fd_in, int fd_out, long len, int flags);
+
+	/**
+	 * Create a pipe, atomically applying flags to both of its descriptors.
+	 * 
+	 * @param fildes array to receive the read and write descriptors
+	 * @param flags <code>O_CLOEXEC</code> and / or <code>O_NONBLOCK</code>
+	 * @return status
+	 */
+	public static native int pipe2(int[] fildes, int flags);
+
+	/**
+	 * Set the processors a thread may run on.
+	 * 
+	 * @param pid        thread (or process) ID, or zero for the calling thread
+	 * @param cpusetsize size of the mask in bytes
+	 * @param mask       processor mask
+	 * @return status
+	 */
+	public static native int sched_setaffinity(int pid, long cpusetsize, long[] mask);
+
+	/**
+	 * Attempt to move pages instead of copying.
+	 */
+	public static final int SPLICE_F_MOVE = 1;
+	/**
+	 * Do not block on I/O.
+	 */
+	public static final int SPLICE_F_NONBLOCK = 2;
+	/**
+	 * Duplicate a file descriptor with close-on-exec set, from
+	 * /usr/include/linux/fcntl.h
+	 */
+	public static final int F_DUPFD_CLOEXEC = 1030;
+	/**
+	 * Set the capacity of a pipe, from /usr/include/linux/fcntl.h
+	 */
+	public static final int F_SETPIPE_SZ = 1031;
+	/**
+	 * Get the capacity of a pipe.
+	 */
+	public static final int F_GETPIPE_SZ = 1032;
+	/**
+	 * from /usr/include/asm-generic/unistd.h
+	 */
+	public static final int SYS_pidfd_open = 434;
+	/**
+	 * Wait for the child with the given process ID, from /usr/include/linux/wait.h
+	 */
+	public static final int P_PID = 1;
+	/**
+	 * Wait for the child referred to by a pidfd, Linux 5.4 and above.
+	 */
+	public static final int P_PIDFD = 3;
+	/**
+	 * Wait for children that have terminated.
+	 */
+	public static final int WEXITED = 0x00000004;
+	/**
+	 * Leave the child in a waitable state.
+	 */
+	public static final int WNOWAIT = 0x01000000;
+	/**
+	 * Size of <code>siginfo_t</code>.
+	 */
+	public static final int SIGINFO_SIZE = 128;
+	/**
+	 * Offset of <code>si_pid</code> in <code>siginfo_t</code>, zero if no child
+	 * was waitable. It follows <code>si_signo</code>, <code>si_errno</code> and
+	 * <code>si_code</code>, at the start of a union aligned to the size of a
+	 * pointer.
+	 */
+	public static final int SIGINFO_PID_OFFSET = Native.POINTER_SIZE == 8 ? 16 : 12;
+	/**
+	 * Invalid argument.
+	 */
+	public static final int EINVAL = 22;
+	/**
+	 * Function not implemented.
+	 */
+	public static final int ENOSYS = 38;
+	/**
+	 * Operation not permitted.
+	 */
+	public static final int EPERM = 1;
+
 	/**
 	 * 
 	 */
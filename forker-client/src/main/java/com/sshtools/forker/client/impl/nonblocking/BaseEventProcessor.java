@@ -19,7 +19,9 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 import com.sshtools.forker.client.IEventProcessor;
 import com.sshtools.forker.client.NonBlockingProcessFactory;
@@ -31,6 +33,7 @@ import com.sun.jna.ptr.IntByReference;
  * @param <T>
  */
 public abstract class BaseEventProcessor<T extends NonBlockingBasePosixProcess> implements IEventProcessor<T> {
+	private final static long LOAD_WINDOW_NS = TimeUnit.SECONDS.toNanos(1);
 	/**
 	* 
 	*/
@@ -41,6 +44,11 @@ public abstract class BaseEventProcessor<T extends NonBlockingBasePosixProcess>
 	protected NonBlockingProcessFactory factory;
 	private CyclicBarrier startBarrier;
 	private AtomicBoolean isRunning;
+	private final LongAdder windowBytes = new LongAdder();
+	private volatile long previousWindowBytes;
+	private long windowStart;
+	private int reportedDeadPool;
+	private volatile Thread thread;
 	static {
 	}
 
@@ -69,15 +77,75 @@ public abstract class BaseEventProcessor<T extends NonBlockingBasePosixProcess>
 	 */
 	@Override
 	public void run() {
+		thread = Thread.currentThread();
 		try {
 			startBarrier.await();
 			int idleCount = 0;
+			windowStart = System.nanoTime();
 			while (!isRunning.compareAndSet(idleCount > lingerIterations && pidToProcessMap.isEmpty(), false)) {
 				idleCount = (!shutdown && process()) ? 0 : (idleCount + 1);
+				rollLoadWindow();
 			}
 		} catch (Exception e) {
 			// TODO: how to handle this error?
 			isRunning.set(false);
+		} finally {
+			previousWindowBytes = 0;
+			windowBytes.reset();
+			thread = null;
+		}
+	}
+
+	/**
+	 * Get whether the calling thread is the thread currently running this
+	 * processor.
+	 *
+	 * @return on processor thread
+	 */
+	boolean isProcessorThread() {
+		return thread == Thread.currentThread();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int getRegisteredCount() {
+		return fildesToProcessMap.size();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public long getRecentBytes() {
+		return previousWindowBytes + windowBytes.sum();
+	}
+
+	/**
+	 * Record bytes read from or written to a process, for
+	 * {@link #getRecentBytes()}.
+	 *
+	 * @param bytes number of bytes
+	 */
+	void addBytes(long bytes) {
+		windowBytes.add(bytes);
+	}
+
+	/**
+	 * Report the number of processes waiting to be reaped to the metrics. This
+	 * is called on every wakeup, so only changes are reported.
+	 *
+	 * @param size number of processes in the dead pool
+	 */
+	void reportDeadPool(int size) {
+		if (size != reportedDeadPool) {
+			reportedDeadPool = size;
+			factory.getMetrics().onDeadPool(this, size);
+		}
+	}
+
+	private void rollLoadWindow() {
+		long now = System.nanoTime();
+		if (now - windowStart >= LOAD_WINDOW_NS) {
+			previousWindowBytes = windowBytes.sumThenReset();
+			windowStart = now;
 		}
 	}
 
@@ -107,6 +175,18 @@ public abstract class BaseEventProcessor<T extends NonBlockingBasePosixProcess>
 		}
 	}
 
+	/**
+	 * Start or stop reading standard output or standard error of a process.
+	 *
+	 * @param process    process
+	 * @param stderr     standard error rather than standard output
+	 * @param interested whether to read
+	 * @return whether supported
+	 */
+	boolean setReadInterest(T process, boolean stderr, boolean interested) {
+		return false;
+	}
+
 	/**
 	 * Close the process's STDIN pipe.
 	 *
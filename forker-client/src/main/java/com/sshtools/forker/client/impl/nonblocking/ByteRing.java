@@ -0,0 +1,304 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client.impl.nonblocking;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded, single producer / single consumer ring of bytes used to bridge
+ * the non-blocking I/O threads and callers using the blocking
+ * {@link java.lang.Process} style streams. Bytes are copied straight from and
+ * into the {@link ByteBuffer}s handed out by the I/O threads, so no objects
+ * are allocated per transfer.
+ * <p>
+ * Either side may block when the ring is full or empty, waking as soon as the
+ * other side makes progress. Once the writing side is closed, readers see any
+ * remaining bytes followed by end of stream. Once the reading side is closed,
+ * anything further written is discarded.
+ */
+public class ByteRing {
+	private final byte[] ring;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private int head;
+	private int count;
+	private boolean writeClosed;
+	private boolean readClosed;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity capacity in bytes
+	 */
+	public ByteRing(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be at least 1.");
+		ring = new byte[capacity];
+	}
+
+	/**
+	 * Write all remaining bytes from a buffer, blocking while the ring is full.
+	 * The buffer's position is advanced past everything consumed. If the reading
+	 * side is closed, the bytes are discarded.
+	 * 
+	 * @param src source buffer
+	 * @throws InterruptedIOException if interrupted while waiting for space
+	 */
+	public void write(ByteBuffer src) throws InterruptedIOException {
+		lock.lock();
+		try {
+			while (src.hasRemaining()) {
+				awaitSpace();
+				if (readClosed || writeClosed) {
+					src.position(src.limit());
+					return;
+				}
+				int tail = (head + count) % ring.length;
+				int n = Math.min(src.remaining(), Math.min(ring.length - count, ring.length - tail));
+				src.get(ring, tail, n);
+				count += n;
+				notEmpty.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Write bytes from an array, blocking while the ring is full. If the reading
+	 * side is closed, the bytes are discarded.
+	 * 
+	 * @param b   bytes
+	 * @param off offset
+	 * @param len length
+	 * @throws IOException if interrupted or the writing side is closed
+	 */
+	public void write(byte[] b, int off, int len) throws IOException {
+		lock.lock();
+		try {
+			if (writeClosed)
+				throw new IOException("Closed.");
+			while (len > 0) {
+				awaitSpace();
+				if (writeClosed)
+					throw new IOException("Closed.");
+				if (readClosed)
+					break;
+				int tail = (head + count) % ring.length;
+				int n = Math.min(len, Math.min(ring.length - count, ring.length - tail));
+				System.arraycopy(b, off, ring, tail, n);
+				count += n;
+				off += n;
+				len -= n;
+				notEmpty.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Read bytes into an array, blocking until at least one byte is available or
+	 * the writing side is closed.
+	 * 
+	 * @param b   bytes
+	 * @param off offset
+	 * @param len maximum length
+	 * @return number of bytes read, or -1 at end of stream
+	 * @throws IOException if interrupted or the reading side is closed
+	 */
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		lock.lock();
+		try {
+			while (count == 0 && !writeClosed && !readClosed) {
+				try {
+					notEmpty.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+			if (readClosed)
+				throw new IOException("Closed.");
+			if (count == 0)
+				return -1;
+			int n = Math.min(len, Math.min(count, ring.length - head));
+			System.arraycopy(ring, head, b, off, n);
+			consumed(n);
+			return n;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Move as many bytes as are available and will fit into a buffer, without
+	 * blocking.
+	 * 
+	 * @param dst destination buffer
+	 * @return number of bytes moved
+	 */
+	public int read(ByteBuffer dst) {
+		lock.lock();
+		try {
+			int total = 0;
+			while (count > 0 && dst.hasRemaining()) {
+				int n = Math.min(dst.remaining(), Math.min(count, ring.length - head));
+				dst.put(ring, head, n);
+				consumed(n);
+				total += n;
+			}
+			return total;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wait until all bytes written have been read, or the reading side is
+	 * closed.
+	 * 
+	 * @throws InterruptedIOException if interrupted while waiting
+	 */
+	public void drain() throws InterruptedIOException {
+		lock.lock();
+		try {
+			while (count > 0 && !readClosed) {
+				try {
+					notFull.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the number of bytes that may be read without blocking.
+	 * 
+	 * @return available bytes
+	 */
+	public int available() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get if there are no bytes waiting to be read.
+	 * 
+	 * @return empty
+	 */
+	public boolean isEmpty() {
+		return available() == 0;
+	}
+
+	/**
+	 * Close the writing side. Readers will see remaining bytes followed by end
+	 * of stream.
+	 */
+	public void closeWrite() {
+		lock.lock();
+		try {
+			writeClosed = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Close the reading side. Remaining and future bytes are discarded.
+	 */
+	public void closeRead() {
+		lock.lock();
+		try {
+			readClosed = true;
+			head = count = 0;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get an {@link InputStream} that reads from this ring. Closing the stream
+	 * closes the reading side.
+	 * 
+	 * @return input stream
+	 */
+	public InputStream getInputStream() {
+		return new InputStream() {
+			private final byte[] single = new byte[1];
+
+			@Override
+			public int read() throws IOException {
+				int r = ByteRing.this.read(single, 0, 1);
+				return r == -1 ? -1 : single[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return ByteRing.this.read(b, off, len);
+			}
+
+			@Override
+			public int available() throws IOException {
+				return ByteRing.this.available();
+			}
+
+			@Override
+			public void close() throws IOException {
+				closeRead();
+			}
+		};
+	}
+
+	private void consumed(int n) {
+		head = (head + n) % ring.length;
+		count -= n;
+		if (count == 0)
+			head = 0;
+		notFull.signal();
+	}
+
+	private void awaitSpace() throws InterruptedIOException {
+		while (count == ring.length && !readClosed && !writeClosed) {
+			try {
+				notFull.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+	}
+}
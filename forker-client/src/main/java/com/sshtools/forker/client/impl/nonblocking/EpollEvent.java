@@ -39,6 +39,28 @@ class EpollEvent {
 		pointer = new Memory(size);
 	}
 
+	private EpollEvent(Pointer pointer) {
+		this.pointer = pointer;
+	}
+
+	/**
+	 * Allocate an array of events mapped into a single contiguous block of
+	 * native memory, as required by epoll_wait() when maxevents &gt; 1. The
+	 * pointer of the first element may be passed directly to
+	 * {@link com.sshtools.forker.client.impl.jna.posix.LibEpoll#epoll_wait(int, Pointer, int, int)}.
+	 * 
+	 * @param count number of events
+	 * @return events
+	 */
+	static EpollEvent[] allocate(int count) {
+		Memory memory = new Memory((long) size * count);
+		EpollEvent[] events = new EpollEvent[count];
+		for (int i = 0; i < count; i++) {
+			events[i] = new EpollEvent(memory.share((long) i * size, size));
+		}
+		return events;
+	}
+
 	int getEvents() {
 		return pointer.getInt(eventsOffset);
 	}
@@ -0,0 +1,140 @@
+/**
+ * Copyright © 2015 - 2021 SSHTOOLS Limited (support@sshtools.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sshtools.forker.client.impl.nonblocking;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.jna.Memory;
+
+/**
+ * A pool of native memory blocks used for the stdin, stdout and stderr
+ * buffers of non-blocking processes, shared by all of a factory's I/O
+ * threads. Blocks are leased when a process starts and returned when it
+ * exits, avoiding native allocation and release for every process spawned.
+ * <p>
+ * The pool is bounded by the total number of bytes it will hold when idle.
+ * Blocks returned when the pool is full, or that are no longer the requested
+ * size (e.g. if {@link com.sshtools.forker.client.NonBlockingProcess#BUFFER_CAPACITY}
+ * has changed), are simply dropped and released when garbage collected.
+ */
+public class NativeBufferPool {
+	private final ConcurrentLinkedQueue<Memory> free = new ConcurrentLinkedQueue<>();
+	private final AtomicLong pooledBytes = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private volatile long maxBytes;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param maxBytes maximum total number of bytes held by idle blocks
+	 */
+	public NativeBufferPool(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Lease a block of native memory. If a free block of the requested size is
+	 * available it is reused, otherwise a new one is allocated.
+	 * 
+	 * @param capacity size of block in bytes
+	 * @return memory
+	 */
+	public Memory lease(int capacity) {
+		Memory memory;
+		while ((memory = free.poll()) != null) {
+			pooledBytes.addAndGet(-memory.size());
+			if (memory.size() == capacity) {
+				hits.incrementAndGet();
+				return memory;
+			}
+		}
+		misses.incrementAndGet();
+		return new Memory(capacity);
+	}
+
+	/**
+	 * Return a block of native memory to the pool. The caller must not use the
+	 * memory, or any buffers obtained from it, after it has been returned.
+	 * 
+	 * @param memory memory
+	 */
+	public void release(Memory memory) {
+		long size = memory.size();
+		if (pooledBytes.addAndGet(size) <= maxBytes) {
+			free.offer(memory);
+		} else {
+			pooledBytes.addAndGet(-size);
+		}
+	}
+
+	/**
+	 * Get the maximum total number of bytes held by idle blocks.
+	 * 
+	 * @return maximum bytes
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Set the maximum total number of bytes held by idle blocks. Use zero to
+	 * disable pooling.
+	 * 
+	 * @param maxBytes maximum bytes
+	 */
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		Memory memory;
+		while (pooledBytes.get() > maxBytes && (memory = free.poll()) != null) {
+			pooledBytes.addAndGet(-memory.size());
+		}
+	}
+
+	/**
+	 * Get the total number of bytes currently held by idle blocks.
+	 * 
+	 * @return pooled bytes
+	 */
+	public long getPooledBytes() {
+		return pooledBytes.get();
+	}
+
+	/**
+	 * Get the number of leases satisfied by reusing a pooled block.
+	 * 
+	 * @return hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of leases that required a new block to be allocated.
+	 * 
+	 * @return misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public String toString() {
+		return "NativeBufferPool [maxBytes=" + maxBytes + ", pooledBytes=" + pooledBytes + ", hits=" + hits
+				+ ", misses=" + misses + "]";
+	}
+}
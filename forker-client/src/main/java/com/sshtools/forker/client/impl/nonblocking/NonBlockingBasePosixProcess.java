@@ -20,6 +20,7 @@ import static java.util.concurrent.locks.LockSupport.parkNanos;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -27,6 +28,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.sshtools.forker.client.ForkerBuilder;
+import com.sshtools.forker.client.IEventProcessor;
 import com.sshtools.forker.client.NonBlockingProcess;
 import com.sshtools.forker.client.NonBlockingProcessFactory;
 import com.sshtools.forker.client.NonBlockingProcessListener;
@@ -40,7 +42,6 @@ import com.sun.jna.Native;
 public abstract class NonBlockingBasePosixProcess extends NonBlockingProcess {
 	protected static final Logger LOGGER = Logger.getLogger(NonBlockingBasePosixProcess.class.getCanonicalName());
 	private static final ByteBuffer STDIN_CLOSED_PENDING_WRITE_TOMBSTONE = ByteBuffer.allocate(1);
-	protected static int processorRoundRobin;
 	@SuppressWarnings("unused")
 	private int exitcode; // set from native code in JDK 7
 	protected BaseEventProcessor<NonBlockingBasePosixProcess> myProcessor;
@@ -49,6 +50,8 @@ public abstract class NonBlockingBasePosixProcess extends NonBlockingProcess {
 	* 
 	*/
 	public final AtomicBoolean cleanlyExitedBeforeProcess;
+	final AtomicBoolean stdoutPaused = new AtomicBoolean();
+	final AtomicBoolean stderrPaused = new AtomicBoolean();
 	protected AtomicBoolean userWantsWrite;
 	// ******* Input/Output Buffers
 	private Memory outBufferMemory;
@@ -162,6 +165,11 @@ public abstract class NonBlockingBasePosixProcess extends NonBlockingProcess {
 		}
 	}
 
+	@Override
+	protected boolean setReadInterest(boolean stderr, boolean interested) {
+		return myProcessor != null && myProcessor.setReadInterest(this, stderr, interested);
+	}
+
 	@Override
 	public boolean hasPendingWrites() {
 		return !pendingWrites.isEmpty();
@@ -213,6 +221,7 @@ public abstract class NonBlockingBasePosixProcess extends NonBlockingProcess {
 			// TODO: handle SIGCHLD
 			return;
 		}
+		exitNoticed();
 		try {
 			closeStdin(true);
 			stdout.close();
@@ -220,11 +229,13 @@ public abstract class NonBlockingBasePosixProcess extends NonBlockingProcess {
 			isRunning = false;
 			exitCode.set(statusCode);
 			if (outBuffer != null && !outClosed) {
+				outClosed = true;
 				outBuffer.flip();
 				if (listener != null)
 					listener.onStdout(this, outBuffer, true);
 			}
 			if (errBuffer != null && !errClosed) {
+				errClosed = true;
 				errBuffer.flip();
 				if (listener != null)
 					if (builder.redirectErrorStream())
@@ -244,39 +255,53 @@ public abstract class NonBlockingBasePosixProcess extends NonBlockingProcess {
 			else
 				listener.onError(e, this, false);
 		} finally {
-			exitPending.countDown();
-			// Once the last reference to the buffer is gone, Java will finalize
-			// the buffer
-			// and release the native memory we allocated in
-			// initializeBuffers().
-			outBufferMemory = null;
-			errBufferMemory = null;
-			inBufferMemory = null;
-			outBuffer = null;
-			errBuffer = null;
-			inBuffer = null;
-			Memory.purge();
+			exited();
+			releaseBuffers();
 		}
 	}
 
-	protected void readStdout(int availability, int fd) {
+	/**
+	 * Read from standard output and deliver it to the listener.
+	 * 
+	 * @param availability maximum number of bytes to read, or -1 if the
+	 *            stream has closed
+	 * @param fd file descriptor
+	 * @return <code>true</code> if as much was read as there was room for, so
+	 *         more may still be available
+	 */
+	protected boolean readStdout(int availability, int fd) {
 		if (outClosed || availability == 0) {
-			return;
+			return false;
 		}
+		boolean more = false;
 		try {
 			if (availability < 0) {
 				outClosed = true;
+				if (errClosed)
+					exitNoticed();
 				outBuffer.flip();
 				if (listener != null)
 					listener.onStdout(this, outBuffer, true);
-				return;
+				return false;
+			}
+			int wanted = Math.min(availability, outBuffer.remaining());
+			int read = LibC.read(fd, outBuffer, wanted);
+			if (read == -1 && Native.getLastError() == LibC.EIO) {
+				/*
+				 * The master side of a pseudo terminal reports the slave being
+				 * hung up as an error rather than end of file
+				 */
+				return readStdout(-1, fd);
 			}
-			int read = LibC.read(fd, outBuffer, Math.min(availability, outBuffer.remaining()));
 			if (read == -1) {
 				outClosed = true;
 				throw new RuntimeException("Unexpected eof");
 				// EOF?
 			}
+			more = read == wanted;
+			myProcessor.addBytes(read);
+			if (read > 0)
+				recordRead(read);
 			outBuffer.limit(outBuffer.position() + read);
 			outBuffer.position(0);
 			if (listener != null)
@@ -296,29 +321,47 @@ public abstract class NonBlockingBasePosixProcess extends NonBlockingProcess {
 			// eventually run out of capacity.
 			throw new RuntimeException("stdout buffer has no bytes remaining");
 		}
+		return more;
 	}
 
-	protected void readStderr(int availability, int fd) {
+	/**
+	 * Read from standard error and deliver it to the listener.
+	 * 
+	 * @param availability maximum number of bytes to read, or -1 if the
+	 *            stream has closed
+	 * @param fd file descriptor
+	 * @return <code>true</code> if as much was read as there was room for, so
+	 *         more may still be available
+	 */
+	protected boolean readStderr(int availability, int fd) {
 		if (errClosed || availability == 0) {
-			return;
+			return false;
 		}
+		boolean more = false;
 		try {
 			if (availability < 0) {
 				errClosed = true;
+				if (outClosed)
+					exitNoticed();
 				errBuffer.flip();
 				if (listener != null)
 					if (builder.redirectErrorStream())
 						listener.onStdout(this, errBuffer, true);
 					else
 						listener.onStderr(this, errBuffer, true);
-				return;
+				return false;
 			}
-			int read = LibC.read(fd, errBuffer, Math.min(availability, errBuffer.remaining()));
+			int wanted = Math.min(availability, errBuffer.remaining());
+			int read = LibC.read(fd, errBuffer, wanted);
 			if (read == -1) {
 				// EOF?
 				errClosed = true;
 				throw new RuntimeException("Unexpected eof");
 			}
+			more = read == wanted;
+			myProcessor.addBytes(read);
+			if (read > 0)
+				recordRead(read);
 			errBuffer.limit(errBuffer.position() + read);
 			errBuffer.position(0);
 			if (listener != null)
@@ -341,6 +384,7 @@ public abstract class NonBlockingBasePosixProcess extends NonBlockingProcess {
 			// eventually run out of capacity.
 			throw new RuntimeException("stderr buffer has no bytes remaining");
 		}
+		return more;
 	}
 
 	protected boolean writeStdin(int availability, int fd) {
@@ -367,6 +411,8 @@ public abstract class NonBlockingBasePosixProcess extends NonBlockingProcess {
 				}
 			} while (wrote < 0);
 			availability -= wrote;
+			myProcessor.addBytes(wrote);
+			recordWritten(wrote);
 			inBuffer.position(inBuffer.position() + wrote);
 			if (inBuffer.hasRemaining()) {
 				return true;
@@ -410,8 +456,13 @@ public abstract class NonBlockingBasePosixProcess extends NonBlockingProcess {
 			return false;
 		try {
 			inBuffer.clear();
-			boolean wantMore = listener.onStdinReady(this, inBuffer);
-			userWantsWrite.set(wantMore);
+			/*
+			 * Clear before calling the listener, so a wantWrite() from another thread
+			 * while it runs is not lost
+			 */
+			userWantsWrite.set(false);
+			if (listener.onStdinReady(this, inBuffer))
+				userWantsWrite.set(true);
 			if (inBuffer.hasRemaining() && availability > 0) {
 				// Recurse
 				return writeStdin(availability, fd);
@@ -436,6 +487,7 @@ public abstract class NonBlockingBasePosixProcess extends NonBlockingProcess {
 			parkNanos(testSleep);
 		}
 		isRunning = true;
+		recordStarted();
 		if(listener != null)
 			listener.onStarted(this);
 	}
@@ -444,25 +496,52 @@ public abstract class NonBlockingBasePosixProcess extends NonBlockingProcess {
 		super.inializeBuffers();
 		outClosed = false;
 		errClosed = false;
-		outBufferMemory = new Memory(BUFFER_CAPACITY);
+		NativeBufferPool pool = factory.getBufferPool();
+		outBufferMemory = pool.lease(BUFFER_CAPACITY);
 		outBuffer = outBufferMemory.getByteBuffer(0, outBufferMemory.size()).order(ByteOrder.nativeOrder());
-		errBufferMemory = new Memory(BUFFER_CAPACITY);
-		errBuffer = errBufferMemory.getByteBuffer(0, outBufferMemory.size()).order(ByteOrder.nativeOrder());
-		inBufferMemory = new Memory(BUFFER_CAPACITY);
-		inBuffer = inBufferMemory.getByteBuffer(0, outBufferMemory.size()).order(ByteOrder.nativeOrder());
+		errBufferMemory = pool.lease(BUFFER_CAPACITY);
+		errBuffer = errBufferMemory.getByteBuffer(0, errBufferMemory.size()).order(ByteOrder.nativeOrder());
+		inBufferMemory = pool.lease(BUFFER_CAPACITY);
+		inBuffer = inBufferMemory.getByteBuffer(0, inBufferMemory.size()).order(ByteOrder.nativeOrder());
 		// Ensure stdin initially has 0 bytes pending write. We'll
 		// update this before invoking onStdinReady.
 		inBuffer.limit(0);
 	}
 
+	/*
+	 * Return the native memory leased in initializeBuffers() to the factory's
+	 * pool. The buffers are cleared first so nothing can use them once another
+	 * process has leased the memory. When called from any thread other than
+	 * the I/O thread (e.g. BaseEventProcessor.shutdown()), the I/O thread may
+	 * still be reading into the memory, so it is dropped and left to the
+	 * garbage collector rather than pooled.
+	 */
+	private void releaseBuffers() {
+		Memory out = outBufferMemory;
+		Memory err = errBufferMemory;
+		Memory in = inBufferMemory;
+		outBufferMemory = null;
+		errBufferMemory = null;
+		inBufferMemory = null;
+		outBuffer = null;
+		errBuffer = null;
+		inBuffer = null;
+		if (myProcessor != null && !myProcessor.isProcessorThread())
+			return;
+		NativeBufferPool pool = factory.getBufferPool();
+		if (out != null)
+			pool.release(out);
+		if (err != null)
+			pool.release(err);
+		if (in != null)
+			pool.release(in);
+	}
+
 	@SuppressWarnings("unchecked")
 	protected void registerProcess() {
-		int mySlot;
-		synchronized (factory.getProcessors(this)) {
-			mySlot = processorRoundRobin;
-			processorRoundRobin = (processorRoundRobin + 1) % factory.getProcessors(this).size();
-		}
-		myProcessor = (BaseEventProcessor<NonBlockingBasePosixProcess>) factory.getProcessors(this).get(mySlot);
+		List<IEventProcessor<? extends NonBlockingProcess>> processors = factory.getProcessors(this);
+		int mySlot = factory.getPlacementStrategy().select(processors);
+		myProcessor = (BaseEventProcessor<NonBlockingBasePosixProcess>) processors.get(mySlot);
 		myProcessor.registerProcess(this);
 		if (myProcessor.checkAndSetRunning()) {
 			CyclicBarrier spawnBarrier = myProcessor.getSpawnBarrier();
@@ -483,11 +562,11 @@ public abstract class NonBlockingBasePosixProcess extends NonBlockingProcess {
 		int[] out = new int[2];
 		int[] err = new int[2];
 		try {
-			rc = LibC.pipe(in);
+			rc = createPipe(in);
 			checkReturnCode(rc, "Create stdin pipe() failed");
-			rc = LibC.pipe(out);
+			rc = createPipe(out);
 			checkReturnCode(rc, "Create stdout pipe() failed");
-			rc = LibC.pipe(err);
+			rc = createPipe(err);
 			checkReturnCode(rc, "Create stderr pipe() failed");
 			setNonBlocking(in[1], out[0], err[0]);
 			stdin = new ReferenceCountedFileDescriptor(in[1]);
@@ -507,6 +586,19 @@ public abstract class NonBlockingBasePosixProcess extends NonBlockingProcess {
 		}
 	}
 
+	/**
+	 * Create a single pipe. The descriptors should not be inherited by any
+	 * other processes started concurrently, where the platform allows this to
+	 * be done atomically. Both ends must be left blocking, the end used by this
+	 * process is made non-blocking afterwards.
+	 * 
+	 * @param fildes array to receive the read and write descriptors
+	 * @return status
+	 */
+	protected int createPipe(int[] fildes) {
+		return LibC.pipe(fildes);
+	}
+
 	protected void initFailureCleanup(int[] in, int[] out, int[] err) {
 		Set<Integer> unique = new HashSet<Integer>();
 		if (in != null) {
@@ -535,11 +627,15 @@ public abstract class NonBlockingBasePosixProcess extends NonBlockingProcess {
 	}
 
 	private void setNonBlocking(int in, int out, int err) {
-		int rc = LibC.fcntl(in, LibC.F_SETFL, LibC.fcntl(in, LibC.F_GETFL) | LibC.O_NONBLOCK);
+		/*
+		 * A new pipe has no other status flags that F_SETFL can change, so there
+		 * is no need to read them first with F_GETFL
+		 */
+		int rc = LibC.fcntl(in, LibC.F_SETFL, LibC.O_NONBLOCK);
 		checkReturnCode(rc, "fnctl on stdin handle failed");
-		rc = LibC.fcntl(out, LibC.F_SETFL, LibC.fcntl(out, LibC.F_GETFL) | LibC.O_NONBLOCK);
+		rc = LibC.fcntl(out, LibC.F_SETFL, LibC.O_NONBLOCK);
 		checkReturnCode(rc, "fnctl on stdout handle failed");
-		rc = LibC.fcntl(err, LibC.F_SETFL, LibC.fcntl(err, LibC.F_GETFL) | LibC.O_NONBLOCK);
+		rc = LibC.fcntl(err, LibC.F_SETFL, LibC.O_NONBLOCK);
 		checkReturnCode(rc, "fnctl on stderr handle failed");
 	}
 }
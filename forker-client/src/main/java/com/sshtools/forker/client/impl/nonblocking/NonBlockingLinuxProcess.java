@@ -21,7 +21,8 @@ import static com.sshtools.forker.client.impl.jna.posix.LibC.WIFSIGNALED;
 import static com.sshtools.forker.client.impl.jna.posix.LibC.WTERMSIG;
 
 import java.io.IOException;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 
 import com.sshtools.forker.client.EffectiveUser;
@@ -30,12 +31,16 @@ import com.sshtools.forker.client.IEventProcessor;
 import com.sshtools.forker.client.NonBlockingProcess;
 import com.sshtools.forker.client.NonBlockingProcessFactory;
 import com.sshtools.forker.client.NonBlockingProcessListener;
+import com.sshtools.forker.client.PreparedCommand;
+import com.sshtools.forker.client.SpliceTarget;
+import com.sshtools.forker.client.impl.Scheduling;
 import com.sshtools.forker.client.impl.jna.posix.LibC;
 import com.sshtools.forker.client.impl.jna.posix.LibEpoll;
 import com.sshtools.forker.client.impl.jna.posix.LibJava10;
 import com.sshtools.forker.client.impl.jna.posix.LibJava8;
 import com.sshtools.forker.common.OS;
 import com.sun.jna.JNIEnv;
+import com.sun.jna.Native;
 import com.sun.jna.ptr.IntByReference;
 
 /**
@@ -43,11 +48,24 @@ import com.sun.jna.ptr.IntByReference;
  */
 public class NonBlockingLinuxProcess extends NonBlockingBasePosixProcess {
 	private static final boolean isAzul;
+	private static final long SPLICE_CHUNK = 1024 * 1024;
+	private static final byte[] JSPAWNHELPER = toCString(System.getProperty("java.home") + "/lib/jspawnhelper");
 	static {
 		isAzul = System.getProperty("java.vm.vendor", "").contains("Azul");
 		LibEpoll.sigignore(LibEpoll.SIGPIPE);
 	}
 
+	private volatile int pidfd = -1;
+	// ******* Splice target and tee pipe handles
+	private int spliceFd = -1;
+	private int spliceWatchFd = -1;
+	boolean spliceWatched;
+	private boolean closeSpliceFd;
+	private boolean spliceFailed;
+	private int teeIn = -1;
+	private int teeOut = -1;
+	private long teeBacklog;
+
 	@SuppressWarnings("unused")
 	private enum LaunchMechanism {
 		// order IS important!
@@ -68,53 +86,70 @@ public class NonBlockingLinuxProcess extends NonBlockingBasePosixProcess {
 			effectiveUser.elevate(builder, null, builder.getCommand());
 		}
 		try {
-			String[] cmdarray = builder.getCommand().getArguments().toArray(new String[0]);
-			// See
-			// https://github.com/JetBrains/jdk8u_jdk/blob/master/src/solaris/classes/java/lang/ProcessImpl.java#L71-L83
-			byte[][] args = new byte[cmdarray.length - 1][];
-			int size = args.length; // For added NUL bytes
-			for (int i = 0; i < args.length; i++) {
-				args[i] = cmdarray[i + 1].getBytes();
-				size += args[i].length;
-			}
-			byte[] argBlock = new byte[size];
-			int i = 0;
-			for (byte[] arg : args) {
-				System.arraycopy(arg, 0, argBlock, i, arg.length);
-				i += arg.length + 1;
-				// No need to write NUL bytes explicitly
+			boolean scheduling = Scheduling.isSupported(effectiveUser);
+			Scheduling.validate(builder.getCommand());
+			/*
+			 * Use the blocks encoded when the command was prepared if there is one,
+			 * unless elevation may have changed the arguments or environment
+			 */
+			List<String> arguments = scheduling ? builder.getCommand().getArguments()
+					: builder.getCommand().getAllArguments();
+			PreparedCommand prepared = effectiveUser == null ? builder.prepared() : null;
+			byte[] program;
+			byte[] argBlock;
+			byte[] envBlock;
+			int envCount;
+			byte[] directory;
+			int argCount = arguments.size() - 1;
+			if (prepared != null && isPreparedFor(prepared, arguments)) {
+				program = prepared.getProgram();
+				argBlock = prepared.getArgumentBlock(arguments);
+				envBlock = prepared.getEnvironmentBlock();
+				envCount = prepared.getEnvironment().size();
+				directory = prepared.getDirectory();
+			} else {
+				program = toCString(arguments.get(0));
+				// See
+				// https://github.com/JetBrains/jdk8u_jdk/blob/master/src/solaris/classes/java/lang/ProcessImpl.java#L71-L83
+				argBlock = toBlock(arguments.subList(1, arguments.size()));
+				// See
+				// https://github.com/JetBrains/jdk8u_jdk/blob/master/src/solaris/classes/java/lang/ProcessImpl.java#L86
+				String[] environment = mapToArray(builder.environment());
+				envBlock = toBlock(Arrays.asList(environment));
+				envCount = environment.length;
+				directory = builder.directory() == null ? null : toCString(builder.directory().toString());
 			}
-			// See
-			// https://github.com/JetBrains/jdk8u_jdk/blob/master/src/solaris/classes/java/lang/ProcessImpl.java#L86
-			byte[] envBlock = toEnvironmentBlock(builder.environment());
 			try {
 				// See
 				// https://github.com/JetBrains/jdk8u_jdk/blob/master/src/solaris/classes/java/lang/ProcessImpl.java#L96
+				if (builder.spliceOutput() != null) {
+					openSpliceTarget(builder.spliceOutput());
+				}
 				createPipes();
+				setPipeSize(factory.getPipeSize());
 				int[] child_fds = { stdinWidow, stdoutWidow, stderrWidow };
 				if (!isAzul && OS.isJava8()) {
 					pid = LibJava8.Java_java_lang_UNIXProcess_forkAndExec(JNIEnv.CURRENT, this,
-							LaunchMechanism.VFORK.ordinal() + 1, toCString(System.getProperty("java.home") + "/lib/jspawnhelper"), // used
-																																	// on
-																																	// Linux
-							toCString(cmdarray[0]), argBlock, args.length, envBlock, builder.environment().size(),
-							(builder.directory() != null ? toCString(builder.directory().toString()) : null), child_fds,
+							LaunchMechanism.VFORK.ordinal() + 1, JSPAWNHELPER, // used on Linux
+							program, argBlock, argCount, envBlock, envCount, directory,
+							child_fds,
 							(byte) 0 /* redirectErrorStream */);
 				} else {// See
 					// https://github.com/JetBrains/jdk8u_jdk/blob/master/src/solaris/classes/java/lang/UNIXProcess.java#L247
 					// Native source code:
 					// https://github.com/JetBrains/jdk8u_jdk/blob/master/src/solaris/native/java/lang/UNIXProcess_md.c#L566
 					pid = LibJava10.Java_java_lang_ProcessImpl_forkAndExec(JNIEnv.CURRENT, this,
-							LaunchMechanism.VFORK.ordinal() + 1, toCString(System.getProperty("java.home") + "/lib/jspawnhelper"), // used
-																																	// on
-																																	// Linux
-							toCString(cmdarray[0]), argBlock, args.length, envBlock, builder.environment().size(),
-							(builder.directory() != null ? toCString(builder.directory().toString()) : null), child_fds,
+							LaunchMechanism.VFORK.ordinal() + 1, JSPAWNHELPER, // used on Linux
+							program, argBlock, argCount, envBlock, envCount, directory,
+							child_fds,
 							(byte) 0 /* redirectErrorStream */);
 				}
 				if (pid == -1) {
 					throw new IOException("Process not started, no PID could be determined.");
 				}
+				if (scheduling) {
+					Scheduling.apply(pid, builder.getCommand());
+				}
 				// Close the child end of the pipes in our process
 				LibC.close(stdinWidow);
 				LibC.close(stdoutWidow);
@@ -137,6 +172,239 @@ public class NonBlockingLinuxProcess extends NonBlockingBasePosixProcess {
 		}
 	}
 
+	@Override
+	protected void onExit(int statusCode) {
+		try {
+			super.onExit(statusCode);
+		} finally {
+			closeSpliceTarget();
+		}
+	}
+
+	/**
+	 * Get whether standard output is currently being moved to a splice target
+	 * rather than read into the stdout buffer.
+	 * 
+	 * @return splicing output
+	 */
+	boolean isSpliceOutput() {
+		return spliceFd != -1 && !spliceFailed;
+	}
+
+	/**
+	 * Move available standard output to the splice target. If the target is a
+	 * tee, the same data is duplicated into a private pipe first, and then read
+	 * from there and delivered to the listener as normal.
+	 * 
+	 * @param fd stdout file descriptor
+	 * @param drain keep moving until no more data is available, used when the
+	 *            pipe has been closed by the child
+	 * @return <code>false</code> if the target cannot take any more output
+	 *         now, in which case the rest is left in the pipe
+	 */
+	boolean spliceStdout(int fd, boolean drain) {
+		if (outClosed) {
+			return true;
+		}
+		try {
+			do {
+				if (teeOut == -1) {
+					long moved = LibEpoll.splice(fd, null, spliceFd, null, SPLICE_CHUNK,
+							LibEpoll.SPLICE_F_MOVE | LibEpoll.SPLICE_F_NONBLOCK);
+					if (!checkSplice(moved)) {
+						/*
+						 * Called either when there is output to read or once the child
+						 * has closed the pipe, so it is only ever empty at the end, when
+						 * zero is returned. Otherwise the target is full
+						 */
+						return moved == 0;
+					}
+					myProcessor.addBytes(moved);
+					recordRead(moved);
+				} else {
+					/* Output already duplicated must reach the target before any more is */
+					if (!spliceTeeBacklog(fd)) {
+						return false;
+					}
+					long teed = LibEpoll.tee(fd, teeOut, outBuffer.remaining(), LibEpoll.SPLICE_F_NONBLOCK);
+					if (!checkSplice(teed)) {
+						return true;
+					}
+					teeBacklog = teed;
+					readStdout((int) teed, teeIn);
+					if (!spliceTeeBacklog(fd)) {
+						return false;
+					}
+				}
+			} while (drain);
+		} catch (RuntimeException e) {
+			/* Anything left will be read and delivered to the listener */
+			spliceFailed = true;
+			if (listener == null)
+				LOGGER.log(Level.WARNING, "Failed to splice output.", e);
+			else
+				listener.onError(e, this, false);
+			if (drain) {
+				readStdout(BUFFER_CAPACITY, fd);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get a private duplicate of a splice target descriptor, registered with the
+	 * I/O thread while waiting for the target to become writable, or -1 if the
+	 * target is a file, which is always writable.
+	 * 
+	 * @return splice target watch descriptor
+	 */
+	int getSpliceWatchFd() {
+		return spliceWatchFd;
+	}
+
+	/*
+	 * Move output that has been duplicated into the tee pipe on to the target.
+	 * If the target will not take it all now (e.g. a full non-blocking socket),
+	 * the rest is left in the stdout pipe for next time rather than waiting on
+	 * the I/O thread.
+	 */
+	private boolean spliceTeeBacklog(int fd) {
+		while (teeBacklog > 0) {
+			long moved = LibEpoll.splice(fd, null, spliceFd, null, teeBacklog, LibEpoll.SPLICE_F_MOVE);
+			if (!checkSplice(moved)) {
+				return false;
+			}
+			teeBacklog -= moved;
+		}
+		return true;
+	}
+
+	private boolean checkSplice(long rc) {
+		if (rc == -1) {
+			int errno = Native.getLastError();
+			if (errno == LibC.EAGAIN) {
+				return false;
+			}
+			throw new RuntimeException("Splicing output failed, last error: " + errno);
+		}
+		return rc > 0;
+	}
+
+	private void openSpliceTarget(SpliceTarget target) throws IOException {
+		if (target.getFile() == null) {
+			spliceFd = target.getDescriptor();
+			int flags = LibC.fcntl(spliceFd, LibC.F_GETFL);
+			if (flags == -1) {
+				throw new IOException(String.format("Invalid splice target descriptor %d, last error: %d", spliceFd,
+						Native.getLastError()));
+			}
+			if ((flags & LibC.O_NONBLOCK) == 0) {
+				throw new IOException(
+						String.format("Splice target descriptor %d must be in non-blocking mode.", spliceFd));
+			}
+			/*
+			 * Waited on with a descriptor of our own, so that it cannot clash with
+			 * any other registration of the same descriptor with the I/O thread
+			 */
+			spliceWatchFd = LibC.fcntl(spliceFd, LibEpoll.F_DUPFD_CLOEXEC, 0);
+			if (spliceWatchFd == -1) {
+				throw new IOException(String.format("Could not duplicate splice target descriptor %d, last error: %d",
+						spliceFd, Native.getLastError()));
+			}
+		} else {
+			/*
+			 * splice() refuses targets opened with O_APPEND, so appending is
+			 * done by starting at the current end of the file instead
+			 */
+			spliceFd = LibC.open(target.getFile().toAbsolutePath().toString(),
+					LibC.O_WRONLY | LibC.O_CREAT | LibC.O_CLOEXEC | (target.isAppend() ? 0 : LibC.O_TRUNC), 0666);
+			if (spliceFd == -1) {
+				throw new IOException(String.format("Could not open %s for splicing output, last error: %d",
+						target.getFile(), Native.getLastError()));
+			}
+			closeSpliceFd = true;
+			if (target.isAppend() && LibC.lseek(spliceFd, 0, LibC.SEEK_END) == -1) {
+				throw new IOException(String.format("Could not seek to end of %s for splicing output, last error: %d",
+						target.getFile(), Native.getLastError()));
+			}
+		}
+		if (target.isTee()) {
+			int[] tee = new int[2];
+			checkReturnCode(createPipe(tee), "Create tee pipe() failed");
+			teeIn = tee[0];
+			teeOut = tee[1];
+			checkReturnCode(LibC.fcntl(teeIn, LibC.F_SETFL, LibC.fcntl(teeIn, LibC.F_GETFL) | LibC.O_NONBLOCK),
+					"fnctl on tee handle failed");
+		}
+	}
+
+	@Override
+	protected int createPipe(int[] fildes) {
+		/*
+		 * pipe2() applies the flags to both ends, and the child's end must stay
+		 * blocking, so only close-on-exec is set here. This closes the window in
+		 * which another process forked concurrently could inherit the pipe and
+		 * hold it open
+		 */
+		return LibEpoll.pipe2(fildes, LibC.O_CLOEXEC);
+	}
+
+	private void setPipeSize(int size) {
+		if (size <= 0) {
+			return;
+		}
+		/* Either end of a pipe may be used to set its capacity */
+		for (int fd : new int[] { stdoutWidow, stderrWidow }) {
+			if (LibC.fcntl(fd, LibEpoll.F_SETPIPE_SZ, size) == -1) {
+				/* Not fatal, the pipe just has its default capacity */
+				LOGGER.log(Level.FINE, String.format("Could not set pipe size to %d, last error: %d", size,
+						Native.getLastError()));
+			}
+		}
+	}
+
+	private void closeSpliceTarget() {
+		if (closeSpliceFd && spliceFd != -1) {
+			LibC.close(spliceFd);
+		}
+		spliceFd = -1;
+		if (spliceWatchFd != -1) {
+			if (myProcessor != null) {
+				((ProcessEpoll) (BaseEventProcessor<?>) myProcessor).unwatchSpliceTarget(this);
+			}
+			LibC.close(spliceWatchFd);
+			spliceWatchFd = -1;
+		}
+		if (teeIn != -1) {
+			LibC.close(teeIn);
+			LibC.close(teeOut);
+			teeIn = teeOut = -1;
+		}
+	}
+
+	/**
+	 * Get the file descriptor referring to this process that is registered
+	 * with the event processor to be notified of exit, or -1 if exit is
+	 * detected by polling.
+	 * 
+	 * @return pidfd
+	 */
+	int getPidfd() {
+		return pidfd;
+	}
+
+	void setPidfd(int pidfd) {
+		this.pidfd = pidfd;
+	}
+
+	/**
+	 * The process has terminated, but is deliberately left unreaped until its
+	 * output has been read so that its process ID is not yet free for reuse.
+	 */
+	void exitPending() {
+		exitNoticed();
+	}
+
 	@Override
 	protected IEventProcessor<? extends NonBlockingProcess> createProcessor() {
 		return new ProcessEpoll(factory);
@@ -172,31 +440,14 @@ public class NonBlockingLinuxProcess extends NonBlockingBasePosixProcess {
 		return true;
 	}
 
-	private static byte[] toCString(String s) {
-		if (s == null)
-			return null;
-		byte[] bytes = s.getBytes();
-		byte[] result = new byte[bytes.length + 1];
-		System.arraycopy(bytes, 0, result, 0, bytes.length);
-		result[result.length - 1] = (byte) 0;
-		return result;
-	}
-
-	private static byte[] toEnvironmentBlock(Map<String, String> environmentMap) {
-		String[] environment = mapToArray(environmentMap);
-		int count = environment.length;
-		for (String entry : environment) {
-			count += entry.getBytes().length;
-		}
-		byte[] block = new byte[count];
-		int i = 0;
-		for (String entry : environment) {
-			byte[] bytes = entry.getBytes();
-			System.arraycopy(bytes, 0, block, i, bytes.length);
-			i += bytes.length + 1;
-			// No need to write NUL byte explicitly
-			// block[i++] = (byte) '\u0000';
-		}
-		return block;
+	/*
+	 * The command may have been wrapped by another launcher (such as a
+	 * pseudo terminal) since it was prepared, in which case the encoded blocks
+	 * no longer apply
+	 */
+	private static boolean isPreparedFor(PreparedCommand prepared, List<String> arguments) {
+		List<String> preparedArguments = prepared.getArguments();
+		return arguments.size() >= preparedArguments.size()
+				&& arguments.subList(0, preparedArguments.size()).equals(preparedArguments);
 	}
 }
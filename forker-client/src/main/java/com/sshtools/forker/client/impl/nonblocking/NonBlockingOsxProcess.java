@@ -25,6 +25,7 @@ import com.sshtools.forker.client.IEventProcessor;
 import com.sshtools.forker.client.NonBlockingProcess;
 import com.sshtools.forker.client.NonBlockingProcessFactory;
 import com.sshtools.forker.client.NonBlockingProcessListener;
+import com.sshtools.forker.client.PreparedCommand;
 import com.sshtools.forker.client.impl.jna.posix.LibC;
 import com.sshtools.forker.client.impl.jna.posix.LibC.SyscallLibrary;
 import com.sun.jna.Memory;
@@ -37,6 +38,8 @@ import com.sun.jna.ptr.IntByReference;
  * @author Brett Wooldridge
  */
 public class NonBlockingOsxProcess extends NonBlockingBasePosixProcess {
+	private volatile Integer deferredExitStatus;
+
 	static {
 		// Setup a private signal for waking up the kqueue processing threads
 		LibC.signal(LibC.SIGUSR2, LibC.SIG_IGN);
@@ -68,7 +71,9 @@ public class NonBlockingOsxProcess extends NonBlockingBasePosixProcess {
 						(short) (LibC.POSIX_SPAWN_START_SUSPENDED | LibC.POSIX_SPAWN_CLOEXEC_DEFAULT));
 				IntByReference restrict_pid = new IntByReference();
 				StringArray commandsArray = new StringArray(commands);
-				StringArray environmentArray = new StringArray(mapToArray(builder.environment()));
+				PreparedCommand prepared = effectiveUser == null ? builder.prepared() : null;
+				StringArray environmentArray = new StringArray(
+						prepared == null ? mapToArray(builder.environment()) : prepared.getEnvironmentArray());
 				if (builder.directory() != null) {
 					rc = spawnWithCwd(restrict_pid, commands[0], posix_spawn_file_actions, posix_spawnattr, commandsArray,
 							environmentArray, builder.directory().toPath());
@@ -173,4 +178,26 @@ public class NonBlockingOsxProcess extends NonBlockingBasePosixProcess {
 	private Pointer createPosixSpawnAttributes() {
 		return new Memory(Native.POINTER_SIZE);
 	}
+
+	/**
+	 * Get the raw wait status of a process that exited while its output was
+	 * paused, or <code>null</code>.
+	 * 
+	 * @return deferred exit status
+	 */
+	Integer getDeferredExitStatus() {
+		return deferredExitStatus;
+	}
+
+	/**
+	 * Keep the raw wait status of a process that exited while its output was
+	 * paused, so the exit can be delivered once the output has been read.
+	 * 
+	 * @param deferredExitStatus deferred exit status
+	 */
+	void setDeferredExitStatus(Integer deferredExitStatus) {
+		if (deferredExitStatus != null)
+			exitNoticed();
+		this.deferredExitStatus = deferredExitStatus;
+	}
 }
@@ -55,7 +55,6 @@ import com.sun.jna.platform.win32.WinNT.HANDLE;
 public final class NonBlockingWindowsProcess extends NonBlockingProcess {
 	protected static final Logger LOGGER = Logger.getLogger(NonBlockingBasePosixProcess.class.getCanonicalName());
 	private static final int BUFFER_SIZE = 65536;
-	private static int processorRoundRobin;
 	private static final String namedPipePathPrefix;
 	private static final AtomicInteger namedPipeCounter;
 	private volatile IEventProcessor<NonBlockingWindowsProcess> myProcessor;
@@ -225,6 +224,8 @@ public final class NonBlockingWindowsProcess extends NonBlockingProcess {
 		try {
 			if (transferred < 0) {
 				outClosed = true;
+				if (errClosed)
+					exitNoticed();
 				stdoutPipe.buffer.flip();
 				if (listener != null)
 					listener.onStdout(this, stdoutPipe.buffer, true);
@@ -232,6 +233,7 @@ public final class NonBlockingWindowsProcess extends NonBlockingProcess {
 			} else if (transferred == 0) {
 				return;
 			}
+			recordRead(transferred);
 			final ByteBuffer buffer = stdoutPipe.buffer;
 			buffer.limit(buffer.position() + transferred);
 			buffer.position(0);
@@ -259,6 +261,8 @@ public final class NonBlockingWindowsProcess extends NonBlockingProcess {
 		try {
 			if (transferred < 0) {
 				errClosed = true;
+				if (outClosed)
+					exitNoticed();
 				stderrPipe.buffer.flip();
 				if (listener != null)
 					if (builder.redirectErrorStream())
@@ -269,6 +273,7 @@ public final class NonBlockingWindowsProcess extends NonBlockingProcess {
 			} else if (transferred == 0) {
 				return;
 			}
+			recordRead(transferred);
 			final ByteBuffer buffer = stderrPipe.buffer;
 			buffer.limit(buffer.position() + transferred);
 			buffer.position(0);
@@ -296,6 +301,8 @@ public final class NonBlockingWindowsProcess extends NonBlockingProcess {
 		if (writePending && transferred == 0) {
 			return false;
 		}
+		if (transferred > 0)
+			recordWritten(transferred);
 		stdinPipe.buffer.position(stdinPipe.buffer.position() + transferred);
 		if (stdinPipe.buffer.hasRemaining()) {
 			Kernel32.INSTANCE.WriteFile(stdinPipe.pipeHandle, stdinPipe.buffer, stdinPipe.buffer.remaining(), null,
@@ -331,8 +338,8 @@ public final class NonBlockingWindowsProcess extends NonBlockingProcess {
 			try {
 				final ByteBuffer buffer = stdinPipe.buffer;
 				buffer.clear();
-				if (listener != null)
-					userWantsWrite.set(listener.onStdinReady(this, buffer));
+				if (listener != null && listener.onStdinReady(this, buffer))
+					userWantsWrite.set(true);
 				return true;
 			} catch (Exception e) {
 				// Don't let an exception thrown from the user's handler
@@ -348,6 +355,7 @@ public final class NonBlockingWindowsProcess extends NonBlockingProcess {
 		if (exitPending.getCount() == 0) {
 			return;
 		}
+		exitNoticed();
 		try {
 			isRunning = false;
 			exitCode.set(statusCode);
@@ -376,7 +384,7 @@ public final class NonBlockingWindowsProcess extends NonBlockingProcess {
 			else
 				listener.onError(e, this, true);
 		} finally {
-			exitPending.countDown();
+			exited();
 			if (stdinPipe != null) {
 				if (!inClosed) {
 					Kernel32.INSTANCE.CloseHandle(stdinPipe.pipeHandle);
@@ -475,18 +483,16 @@ public final class NonBlockingWindowsProcess extends NonBlockingProcess {
 		// Ensure stdin initially has 0 bytes pending write. We'll
 		// update this before invoking onStdinReady.
 		stdinPipe.buffer.limit(0);
+		recordStarted();
 		if(listener != null)
 			listener.onStarted(this);
 	}
 
 	@SuppressWarnings("unchecked")
 	private void registerProcess() {
-		int mySlot = 0;
-		synchronized (factory.getProcessors(this)) {
-			mySlot = processorRoundRobin;
-			processorRoundRobin = (processorRoundRobin + 1) % factory.getProcessors(this).size();
-		}
-		myProcessor = (IEventProcessor<NonBlockingWindowsProcess>) factory.getProcessors(this).get(mySlot);
+		List<IEventProcessor<? extends NonBlockingProcess>> processors = factory.getProcessors(this);
+		int mySlot = factory.getPlacementStrategy().select(processors);
+		myProcessor = (IEventProcessor<NonBlockingWindowsProcess>) processors.get(mySlot);
 		myProcessor.registerProcess(this);
 		if (myProcessor.checkAndSetRunning()) {
 			CyclicBarrier spawnBarrier = myProcessor.getSpawnBarrier();
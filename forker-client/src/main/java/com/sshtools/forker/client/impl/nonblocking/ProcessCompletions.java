@@ -59,6 +59,7 @@ public final class ProcessCompletions implements IEventProcessor<NonBlockingWind
 	private ULONG_PTRByReference completionKey;
 	private PointerByReference lpOverlapped;
 	private NonBlockingProcessFactory factory;
+	private int reportedDeadPool;
 	static {
 		int lingerTimeMs = Math.max(1000, Integer.getInteger("com.zaxxer.nuprocess.lingerTimeMs", 2500));
 		DEADPOOL_POLL_INTERVAL = Math.min(lingerTimeMs,
@@ -98,6 +99,12 @@ public final class ProcessCompletions implements IEventProcessor<NonBlockingWind
 		}
 	}
 
+	/** {@inheritDoc} */
+	@Override
+	public int getRegisteredCount() {
+		return completionKeyToProcessMap.size();
+	}
+
 	/**
 	 * @return processed
 	 */
@@ -106,10 +113,12 @@ public final class ProcessCompletions implements IEventProcessor<NonBlockingWind
 			if (!Kernel32.INSTANCE.GetQueuedCompletionStatus(ioCompletionPort, numberOfBytes, completionKey, lpOverlapped,
 					DEADPOOL_POLL_INTERVAL) && lpOverlapped.getValue() == null) // timeout
 			{
+				factory.getMetrics().onWakeup(this, 0);
 				checkWaitWrites();
 				checkPendingPool();
 				return false;
 			}
+			factory.getMetrics().onWakeup(this, 1);
 			final long key = completionKey.getValue().longValue();
 			// explicit wake up by us to process pending want writes and
 			// registrations
@@ -148,6 +157,7 @@ public final class ProcessCompletions implements IEventProcessor<NonBlockingWind
 			return true;
 		} finally {
 			checkDeadPool();
+			reportDeadPool(deadPool.size());
 		}
 	}
 
@@ -273,6 +283,16 @@ public final class ProcessCompletions implements IEventProcessor<NonBlockingWind
 		}
 	}
 
+	/*
+	 * Called on every wakeup, so only changes are reported
+	 */
+	private void reportDeadPool(int size) {
+		if (size != reportedDeadPool) {
+			reportedDeadPool = size;
+			factory.getMetrics().onDeadPool(this, size);
+		}
+	}
+
 	private void checkDeadPool() {
 		if (deadPool.isEmpty()) {
 			return;
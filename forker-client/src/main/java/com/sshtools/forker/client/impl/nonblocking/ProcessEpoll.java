@@ -23,13 +23,13 @@ import static com.sshtools.forker.client.impl.jna.posix.LibC.WTERMSIG;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.sshtools.forker.client.NonBlockingProcess;
 import com.sshtools.forker.client.NonBlockingProcessFactory;
 import com.sshtools.forker.client.impl.jna.posix.LibC;
 import com.sshtools.forker.client.impl.jna.posix.LibEpoll;
+import com.sun.jna.Memory;
 import com.sun.jna.Native;
 import com.sun.jna.ptr.IntByReference;
 
@@ -37,18 +37,19 @@ import com.sun.jna.ptr.IntByReference;
  * @author Brett Wooldridge
  */
 class ProcessEpoll extends BaseEventProcessor<NonBlockingLinuxProcess> {
-	private static final int EVENT_POOL_SIZE = 64;
-	private static final BlockingQueue<EpollEvent> eventPool;
+	private static volatile boolean pidfdUnsupported;
 	private int epoll;
-	private EpollEvent triggeredEvent;
+	private EpollEvent[] triggeredEvents;
 	private List<NonBlockingLinuxProcess> deadPool;
-	static {
-		eventPool = new ArrayBlockingQueue<EpollEvent>(EVENT_POOL_SIZE);
-		for (int i = 0; i < EVENT_POOL_SIZE; i++) {
-			EpollEvent event = new EpollEvent();
-			eventPool.add(event);
-		}
-	}
+	/*
+	 * epoll_ctl() copies the event into the kernel, so the native struct need
+	 * only live for the duration of the call. Each thread that registers with
+	 * or changes write interest on this processor gets its own preallocated
+	 * struct, so no pool or lock is needed on the hot path.
+	 */
+	private final ThreadLocal<EpollEvent> controlEvent = ThreadLocal.withInitial(EpollEvent::new);
+	/* Only used on the I/O thread */
+	private final Memory siginfo = new Memory(LibEpoll.SIGINFO_SIZE);
 
 	ProcessEpoll(NonBlockingProcessFactory factory) {
 		super(factory);
@@ -56,7 +57,7 @@ class ProcessEpoll extends BaseEventProcessor<NonBlockingLinuxProcess> {
 		if (epoll < 0) {
 			throw new RuntimeException("Unable to create kqueue: " + Native.getLastError());
 		}
-		triggeredEvent = new EpollEvent();
+		triggeredEvents = EpollEvent.allocate(Math.max(1, factory.getEventBatchSize()));
 		deadPool = new LinkedList<NonBlockingLinuxProcess>();
 	}
 
@@ -79,29 +80,23 @@ class ProcessEpoll extends BaseEventProcessor<NonBlockingLinuxProcess> {
 			fildesToProcessMap.put(stdinFd, process);
 			fildesToProcessMap.put(stdoutFd, process);
 			fildesToProcessMap.put(stderrFd, process);
-			try {
-				EpollEvent event = eventPool.take();
-				event.setEvents(LibEpoll.EPOLLIN);
-				event.setFileDescriptor(stdoutFd);
-				int rc = LibEpoll.epoll_ctl(epoll, LibEpoll.EPOLL_CTL_ADD, stdoutFd, event.getPointer());
-				if (rc == -1) {
-					rc = Native.getLastError();
-					eventPool.put(event);
-					throw new RuntimeException("Unable to register new events to epoll, errorcode: " + rc);
-				}
-				eventPool.put(event);
-				event = eventPool.take();
-				event.setEvents(LibEpoll.EPOLLIN);
-				event.setFileDescriptor(stderrFd);
-				rc = LibEpoll.epoll_ctl(epoll, LibEpoll.EPOLL_CTL_ADD, stderrFd, event.getPointer());
-				if (rc == -1) {
-					rc = Native.getLastError();
-					eventPool.put(event);
-					throw new RuntimeException("Unable to register new events to epoll, errorcode: " + rc);
-				}
-				eventPool.put(event);
-			} catch (InterruptedException ie) {
-				throw new RuntimeException(ie);
+			EpollEvent event = controlEvent.get();
+			event.setEvents(LibEpoll.EPOLLIN);
+			event.setFileDescriptor(stdoutFd);
+			int rc = LibEpoll.epoll_ctl(epoll, LibEpoll.EPOLL_CTL_ADD, stdoutFd, event.getPointer());
+			if (rc == -1) {
+				rc = Native.getLastError();
+				throw new RuntimeException("Unable to register new events to epoll, errorcode: " + rc);
+			}
+			event.setEvents(LibEpoll.EPOLLIN);
+			event.setFileDescriptor(stderrFd);
+			rc = LibEpoll.epoll_ctl(epoll, LibEpoll.EPOLL_CTL_ADD, stderrFd, event.getPointer());
+			if (rc == -1) {
+				rc = Native.getLastError();
+				throw new RuntimeException("Unable to register new events to epoll, errorcode: " + rc);
+			}
+			if (factory.isEventDrivenReaping() && !pidfdUnsupported) {
+				registerPidfd(process, event);
 			}
 		} finally {
 			if (stdinFd != Integer.MIN_VALUE) {
@@ -126,7 +121,7 @@ class ProcessEpoll extends BaseEventProcessor<NonBlockingLinuxProcess> {
 			if (stdin == -1) {
 				return;
 			}
-			EpollEvent event = eventPool.take();
+			EpollEvent event = controlEvent.get();
 			event.setEvents(LibEpoll.EPOLLOUT | LibEpoll.EPOLLONESHOT | LibEpoll.EPOLLRDHUP | LibEpoll.EPOLLHUP);
 			event.setFileDescriptor(stdin);
 			int rc = LibEpoll.epoll_ctl(epoll, LibEpoll.EPOLL_CTL_MOD, stdin, event.getPointer());
@@ -134,12 +129,9 @@ class ProcessEpoll extends BaseEventProcessor<NonBlockingLinuxProcess> {
 				LibEpoll.epoll_ctl(epoll, LibEpoll.EPOLL_CTL_DEL, stdin, event.getPointer());
 				rc = LibEpoll.epoll_ctl(epoll, LibEpoll.EPOLL_CTL_ADD, stdin, event.getPointer());
 			}
-			eventPool.put(event);
 			if (rc == -1) {
 				throw new RuntimeException("Unable to register new event to epoll queue");
 			}
-		} catch (InterruptedException ie) {
-			throw new RuntimeException(ie);
 		} finally {
 			process.getStdin().release();
 		}
@@ -158,36 +150,120 @@ class ProcessEpoll extends BaseEventProcessor<NonBlockingLinuxProcess> {
 		}
 	}
 
+	/**
+	 * Start or stop reading standard output or standard error of a process. The
+	 * descriptor is removed from the epoll set rather than modified, as a hang up
+	 * is always reported and would otherwise wake us continually. It will be
+	 * reported again once re-added.
+	 *
+	 * @param process    process
+	 * @param stderr     standard error rather than standard output
+	 * @param interested whether to read
+	 * @return whether supported
+	 */
+	@Override
+	boolean setReadInterest(NonBlockingLinuxProcess process, boolean stderr, boolean interested) {
+		if (shutdown) {
+			return true;
+		}
+		AtomicBoolean paused = stderr ? process.stderrPaused : process.stdoutPaused;
+		ReferenceCountedFileDescriptor rcfd = stderr ? process.getStderr() : process.getStdout();
+		try {
+			int fd = rcfd.acquire();
+			if (fd == -1) {
+				return true;
+			}
+			if (interested) {
+				if (paused.compareAndSet(true, false)) {
+					EpollEvent event = controlEvent.get();
+					event.setEvents(LibEpoll.EPOLLIN);
+					event.setFileDescriptor(fd);
+					LibEpoll.epoll_ctl(epoll, LibEpoll.EPOLL_CTL_ADD, fd, event.getPointer());
+				}
+			} else if (paused.compareAndSet(false, true)) {
+				LibEpoll.epoll_ctl(epoll, LibEpoll.EPOLL_CTL_DEL, fd, null);
+			}
+			return true;
+		} finally {
+			rcfd.release();
+		}
+	}
+
 	@Override
 	public boolean process() {
-		int stdinFd = Integer.MIN_VALUE;
-		int stdoutFd = Integer.MIN_VALUE;
-		int stderrFd = Integer.MIN_VALUE;
-		NonBlockingLinuxProcess linuxProcess = null;
 		try {
-			int nev = LibEpoll.epoll_wait(epoll, triggeredEvent.getPointer(), 1, factory.getDeadPoolPollMs());
+			int nev = LibEpoll.epoll_wait(epoll, triggeredEvents[0].getPointer(), triggeredEvents.length,
+					factory.getDeadPoolPollMs());
 			if (nev == -1) {
 				throw new RuntimeException("Error waiting for epoll");
 			}
+			factory.getMetrics().onWakeup(this, nev);
 			if (nev == 0) {
 				return false;
 			}
-			EpollEvent epEvent = triggeredEvent;
-			int ident = epEvent.getFileDescriptor();
-			int events = epEvent.getEvents();
-			linuxProcess = fildesToProcessMap.get(ident);
-			if (linuxProcess == null) {
-				return true;
+			for (int i = 0; i < nev; i++) {
+				processEvent(triggeredEvents[i]);
 			}
+			return true;
+		} finally {
+			checkDeadPool();
+			reportDeadPool(deadPool.size());
+		}
+	}
+
+	// ************************************************************************
+	// Private methods
+	// ************************************************************************
+	private void processEvent(EpollEvent epEvent) {
+		int stdinFd = Integer.MIN_VALUE;
+		int stdoutFd = Integer.MIN_VALUE;
+		int stderrFd = Integer.MIN_VALUE;
+		int ident = epEvent.getFileDescriptor();
+		int events = epEvent.getEvents();
+		/*
+		 * An earlier event in the same batch may have already cleaned up this
+		 * process, in which case its descriptors will no longer be mapped
+		 */
+		NonBlockingLinuxProcess linuxProcess = fildesToProcessMap.get(ident);
+		if (linuxProcess == null) {
+			return;
+		}
+		if (ident == linuxProcess.getPidfd()) {
+			reapProcess(linuxProcess);
+			return;
+		}
+		if (ident == linuxProcess.getSpliceWatchFd()) {
+			/* The splice target can take more, so carry on moving output to it */
+			setReadInterest(linuxProcess, false, true);
+			return;
+		}
+		try {
 			stdinFd = linuxProcess.getStdin().acquire();
 			stdoutFd = linuxProcess.getStdout().acquire();
 			stderrFd = linuxProcess.getStderr().acquire();
+			if ((ident == stdoutFd && linuxProcess.stdoutPaused.get())
+					|| (ident == stderrFd && linuxProcess.stderrPaused.get())) {
+				/*
+				 * Paused by an earlier event in this batch, or another thread. Will be
+				 * reported again when resumed
+				 */
+				return;
+			}
+			boolean more = false;
 			if ((events & LibEpoll.EPOLLIN) != 0) { // stdout/stderr data
 													// available to read
 				if (ident == stdoutFd) {
-					linuxProcess.readStdout(NonBlockingProcess.BUFFER_CAPACITY, stdoutFd);
+					if (linuxProcess.isSpliceOutput()) {
+						if (!linuxProcess.spliceStdout(stdoutFd, false)) {
+							/* Any hang up will be reported again once resumed */
+							waitForSpliceTarget(linuxProcess);
+							return;
+						}
+					} else {
+						more = linuxProcess.readStdout(NonBlockingProcess.BUFFER_CAPACITY, stdoutFd);
+					}
 				} else if (ident == stderrFd) {
-					linuxProcess.readStderr(NonBlockingProcess.BUFFER_CAPACITY, stderrFd);
+					more = linuxProcess.readStderr(NonBlockingProcess.BUFFER_CAPACITY, stderrFd);
 				}
 			} else if ((events & LibEpoll.EPOLLOUT) != 0) { // Room in stdin
 															// pipe available to
@@ -200,8 +276,28 @@ class ProcessEpoll extends BaseEventProcessor<NonBlockingLinuxProcess> {
 				}
 			}
 			if ((events & LibEpoll.EPOLLHUP) != 0 || (events & LibEpoll.EPOLLRDHUP) != 0 || (events & LibEpoll.EPOLLERR) != 0) {
+				/*
+				 * The child has closed its end, but the pipe may hold more than was
+				 * read above if it is larger than the buffer
+				 */
+				while (more) {
+					if (ident == stdoutFd ? linuxProcess.stdoutPaused.get() : linuxProcess.stderrPaused.get()) {
+						/* Paused while draining, will be reported again when resumed */
+						return;
+					}
+					more = ident == stdoutFd ? linuxProcess.readStdout(NonBlockingProcess.BUFFER_CAPACITY, stdoutFd)
+							: linuxProcess.readStderr(NonBlockingProcess.BUFFER_CAPACITY, stderrFd);
+				}
 				LibEpoll.epoll_ctl(epoll, LibEpoll.EPOLL_CTL_DEL, ident, null);
 				if (ident == stdoutFd) {
+					if (linuxProcess.isSpliceOutput() && !linuxProcess.spliceStdout(stdoutFd, true)) {
+						/*
+						 * Output is still in the pipe, so it may not be closed yet. The
+						 * hang up will be reported again once resumed
+						 */
+						waitForSpliceTarget(linuxProcess);
+						return;
+					}
 					linuxProcess.readStdout(-1, stdoutFd);
 				} else if (ident == stderrFd) {
 					linuxProcess.readStderr(-1, stderrFd);
@@ -212,28 +308,132 @@ class ProcessEpoll extends BaseEventProcessor<NonBlockingLinuxProcess> {
 			if (linuxProcess.isSoftExit()) {
 				cleanupProcess(linuxProcess, stdinFd, stdoutFd, stderrFd);
 			}
-			return true;
 		} finally {
-			if (linuxProcess != null) {
-				if (stdinFd != Integer.MIN_VALUE) {
-					linuxProcess.getStdin().release();
-				}
-				if (stdoutFd != Integer.MIN_VALUE) {
-					linuxProcess.getStdout().release();
-				}
-				if (stderrFd != Integer.MIN_VALUE) {
-					linuxProcess.getStderr().release();
-				}
+			if (stdinFd != Integer.MIN_VALUE) {
+				linuxProcess.getStdin().release();
+			}
+			if (stdoutFd != Integer.MIN_VALUE) {
+				linuxProcess.getStdout().release();
+			}
+			if (stderrFd != Integer.MIN_VALUE) {
+				linuxProcess.getStderr().release();
 			}
-			checkDeadPool();
 		}
 	}
 
-	// ************************************************************************
-	// Private methods
-	// ************************************************************************
+	/*
+	 * Stop reading the output of a process while its splice target is full, as
+	 * the output would otherwise be reported as readable continually, and wait
+	 * for the target to become writable instead
+	 */
+	private void waitForSpliceTarget(NonBlockingLinuxProcess process) {
+		int watch = process.getSpliceWatchFd();
+		if (watch == -1 || shutdown) {
+			return;
+		}
+		setReadInterest(process, false, false);
+		fildesToProcessMap.put(watch, process);
+		EpollEvent event = controlEvent.get();
+		event.setEvents(LibEpoll.EPOLLOUT | LibEpoll.EPOLLONESHOT);
+		event.setFileDescriptor(watch);
+		int rc = LibEpoll.epoll_ctl(epoll, process.spliceWatched ? LibEpoll.EPOLL_CTL_MOD : LibEpoll.EPOLL_CTL_ADD,
+				watch, event.getPointer());
+		if (rc == -1) {
+			throw new RuntimeException("Unable to wait for splice target, errorcode: " + Native.getLastError());
+		}
+		process.spliceWatched = true;
+	}
+
+	/**
+	 * Stop waiting for the splice target of a process to become writable,
+	 * before its descriptor is closed.
+	 *
+	 * @param process process
+	 */
+	void unwatchSpliceTarget(NonBlockingLinuxProcess process) {
+		int watch = process.getSpliceWatchFd();
+		fildesToProcessMap.remove(watch);
+		if (process.spliceWatched) {
+			process.spliceWatched = false;
+			LibEpoll.epoll_ctl(epoll, LibEpoll.EPOLL_CTL_DEL, watch, null);
+		}
+	}
+
+	private void registerPidfd(NonBlockingLinuxProcess process, EpollEvent event) {
+		int pidfd = LibEpoll.pidfd_open(process.getPID(), 0);
+		if (pidfd == -1) {
+			int errno = Native.getLastError();
+			if (errno == LibEpoll.ENOSYS || errno == LibEpoll.EPERM) {
+				/* Kernel too old or syscall filtered, poll from now on */
+				pidfdUnsupported = true;
+			}
+			return;
+		}
+		fildesToProcessMap.put(pidfd, process);
+		process.setPidfd(pidfd);
+		event.setEvents(LibEpoll.EPOLLIN);
+		event.setFileDescriptor(pidfd);
+		if (LibEpoll.epoll_ctl(epoll, LibEpoll.EPOLL_CTL_ADD, pidfd, event.getPointer()) == -1) {
+			closePidfd(process);
+		}
+	}
+
+	private void closePidfd(NonBlockingLinuxProcess process) {
+		int pidfd = process.getPidfd();
+		if (pidfd != -1) {
+			process.setPidfd(-1);
+			fildesToProcessMap.remove(pidfd);
+			LibEpoll.epoll_ctl(epoll, LibEpoll.EPOLL_CTL_DEL, pidfd, null);
+			LibC.close(pidfd);
+		}
+	}
+
+	/*
+	 * The pidfd became readable, so the process has terminated. If its output
+	 * has already been drained it is reaped and the exit delivered now.
+	 * Otherwise it is left unreaped, so its process ID cannot be reused by
+	 * another process while this one still refers to it, and is reaped when
+	 * the pipes close.
+	 */
+	private void reapProcess(NonBlockingLinuxProcess process) {
+		if (!hasExited(process)) {
+			return;
+		}
+		closePidfd(process);
+		if (process.isSoftExit()) {
+			pidToProcessMap.remove(process.getPID());
+			waitForExit(process);
+		} else {
+			process.exitPending();
+		}
+	}
+
+	private boolean hasExited(NonBlockingLinuxProcess process) {
+		siginfo.clear();
+		int rc = LibEpoll.waitid(LibEpoll.P_PIDFD, process.getPidfd(), siginfo,
+				LibEpoll.WEXITED | LibEpoll.WNOWAIT | LibC.WNOHANG);
+		if (rc == -1 && Native.getLastError() == LibEpoll.EINVAL) {
+			/* Linux 5.3 has pidfd_open() but not P_PIDFD */
+			rc = LibEpoll.waitid(LibEpoll.P_PID, process.getPID(), siginfo,
+					LibEpoll.WEXITED | LibEpoll.WNOWAIT | LibC.WNOHANG);
+		}
+		/* On error, leave it to waitpid() to report */
+		return rc == -1 || siginfo.getInt(LibEpoll.SIGINFO_PID_OFFSET) != 0;
+	}
+
+	private void waitForExit(NonBlockingLinuxProcess process) {
+		IntByReference ret = new IntByReference();
+		int rc = LibC.waitpid(process.getPID(), ret, LibC.WNOHANG);
+		if (rc == 0) {
+			deadPool.add(process);
+		} else if (rc < 0) {
+			process.onExit((Native.getLastError() == LibC.ECHILD) ? Integer.MAX_VALUE : Integer.MIN_VALUE);
+		} else {
+			process.onExit(toExitCode(ret.getValue()));
+		}
+	}
+
 	private void cleanupProcess(NonBlockingLinuxProcess linuxProcess, int stdinFd, int stdoutFd, int stderrFd) {
-		pidToProcessMap.remove(linuxProcess.getPID());
 		fildesToProcessMap.remove(stdinFd);
 		fildesToProcessMap.remove(stdoutFd);
 		fildesToProcessMap.remove(stderrFd);
@@ -241,18 +441,21 @@ class ProcessEpoll extends BaseEventProcessor<NonBlockingLinuxProcess> {
 		// linuxProcess.close(linuxProcess.getStdout());
 		// linuxProcess.close(linuxProcess.getStderr());
 		if (linuxProcess.cleanlyExitedBeforeProcess.get()) {
+			pidToProcessMap.remove(linuxProcess.getPID());
+			closePidfd(linuxProcess);
 			linuxProcess.onExit(0);
 			return;
 		}
-		IntByReference ret = new IntByReference();
-		int rc = LibC.waitpid(linuxProcess.getPID(), ret, LibC.WNOHANG);
-		if (rc == 0) {
-			deadPool.add(linuxProcess);
-		} else if (rc < 0) {
-			linuxProcess.onExit((Native.getLastError() == LibC.ECHILD) ? Integer.MAX_VALUE : Integer.MIN_VALUE);
-		} else {
-			handleExit(linuxProcess, ret.getValue());
+		if (linuxProcess.getPidfd() != -1) {
+			/*
+			 * Still running with its output closed. Stays registered until
+			 * the pidfd signals exit, no polling required
+			 */
+			return;
 		}
+		/* Reaps immediately if the pidfd has already signalled exit */
+		pidToProcessMap.remove(linuxProcess.getPID());
+		waitForExit(linuxProcess);
 	}
 
 	private void checkDeadPool() {
@@ -272,22 +475,22 @@ class ProcessEpoll extends BaseEventProcessor<NonBlockingLinuxProcess> {
 				process.onExit((Native.getLastError() == LibC.ECHILD) ? Integer.MAX_VALUE : Integer.MIN_VALUE);
 				continue;
 			}
-			handleExit(process, ret.getValue());
+			process.onExit(toExitCode(ret.getValue()));
 		}
 	}
 
-	private void handleExit(final NonBlockingLinuxProcess process, int status) {
+	private static int toExitCode(int status) {
 		if (WIFEXITED(status)) {
 			status = WEXITSTATUS(status);
 			if (status == 127) {
-				process.onExit(Integer.MIN_VALUE);
+				return Integer.MIN_VALUE;
 			} else {
-				process.onExit(status);
+				return status;
 			}
 		} else if (WIFSIGNALED(status)) {
-			process.onExit(WTERMSIG(status));
+			return WTERMSIG(status);
 		} else {
-			process.onExit(Integer.MIN_VALUE);
+			return Integer.MIN_VALUE;
 		}
 	}
 
@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.sshtools.forker.client.NonBlockingProcess;
 import com.sshtools.forker.client.NonBlockingProcessFactory;
@@ -117,6 +118,36 @@ final class ProcessKqueue extends BaseEventProcessor<NonBlockingOsxProcess> {
 		}
 	}
 
+	/**
+	 * Start or stop reading standard output or standard error of a process, by
+	 * enabling or disabling its read filter.
+	 *
+	 * @param process    process
+	 * @param stderr     standard error rather than standard output
+	 * @param interested whether to read
+	 * @return whether supported
+	 */
+	@Override
+	boolean setReadInterest(NonBlockingOsxProcess process, boolean stderr, boolean interested) {
+		if (shutdown) {
+			return true;
+		}
+		AtomicBoolean paused = stderr ? process.stderrPaused : process.stdoutPaused;
+		ReferenceCountedFileDescriptor rcfd = stderr ? process.getStderr() : process.getStdout();
+		try {
+			int fd = rcfd.acquire();
+			if (fd != -1 && paused.compareAndSet(interested, !interested)) {
+				Kevent[] events = (Kevent[]) new Kevent().toArray(1);
+				events[0].EV_SET(fd, Kevent.EVFILT_READ, (interested ? Kevent.EV_ENABLE : Kevent.EV_DISABLE) | Kevent.EV_RECEIPT,
+						0, 0L, Pointer.createConstant(process.getPID()));
+				registerEvents(events, 1);
+			}
+			return true;
+		} finally {
+			rcfd.release();
+		}
+	}
+
 	private void registerEvents(Kevent[] keventArray, int numEvents) {
 		// When calling Structure.getPointer() to pass an argument to a
 		// native function, you are responsible to call write() beforehand
@@ -204,6 +235,7 @@ final class ProcessKqueue extends BaseEventProcessor<NonBlockingOsxProcess> {
 		if (nev == -1) {
 			throw new RuntimeException("Error waiting for kevent");
 		}
+		factory.getMetrics().onWakeup(this, nev);
 		if (nev == 0) {
 			return false;
 		}
@@ -240,9 +272,13 @@ final class ProcessKqueue extends BaseEventProcessor<NonBlockingOsxProcess> {
 			try {
 				int stdoutFd = osxProcess.getStdout().acquire();
 				if (ident == stdoutFd) {
-					osxProcess.readStdout(available, stdoutFd);
-					if ((kevent.flags & Kevent.EV_EOF) != 0) {
-						osxProcess.readStdout(-1, stdoutFd);
+					/* May have been paused by an earlier event in this batch */
+					if (!osxProcess.stdoutPaused.get()) {
+						osxProcess.readStdout(available, stdoutFd);
+						if ((kevent.flags & Kevent.EV_EOF) != 0) {
+							osxProcess.readStdout(-1, stdoutFd);
+							checkDeferredExit(osxProcess);
+						}
 					}
 					return;
 				}
@@ -251,10 +287,11 @@ final class ProcessKqueue extends BaseEventProcessor<NonBlockingOsxProcess> {
 			}
 			try {
 				int stderrFd = osxProcess.getStderr().acquire();
-				if (ident == stderrFd) {
+				if (ident == stderrFd && !osxProcess.stderrPaused.get()) {
 					osxProcess.readStderr(available, stderrFd);
 					if ((kevent.flags & Kevent.EV_EOF) != 0) {
 						osxProcess.readStderr(-1, stderrFd);
+						checkDeferredExit(osxProcess);
 					}
 				}
 			} finally {
@@ -291,20 +328,41 @@ final class ProcessKqueue extends BaseEventProcessor<NonBlockingOsxProcess> {
 															// exited
 															// System.gc()
 		{
-			cleanupProcess(osxProcess);
 			int status = kevent.data.intValue();
-			if (WIFEXITED(status)) {
-				status = WEXITSTATUS(status);
-				if (status == 127) {
-					osxProcess.onExit(Integer.MIN_VALUE);
-				} else {
-					osxProcess.onExit(status);
-				}
-			} else if (WIFSIGNALED(status)) {
-				osxProcess.onExit(WTERMSIG(status));
+			if ((osxProcess.stdoutPaused.get() && !osxProcess.outClosed)
+					|| (osxProcess.stderrPaused.get() && !osxProcess.errClosed)) {
+				/*
+				 * Output is paused, so deliver the exit once it has been resumed and
+				 * read to the end
+				 */
+				osxProcess.setDeferredExitStatus(status);
+				return;
+			}
+			exitProcess(osxProcess, status);
+		}
+	}
+
+	private void checkDeferredExit(NonBlockingOsxProcess osxProcess) {
+		Integer status = osxProcess.getDeferredExitStatus();
+		if (status != null && osxProcess.outClosed && osxProcess.errClosed) {
+			osxProcess.setDeferredExitStatus(null);
+			exitProcess(osxProcess, status);
+		}
+	}
+
+	private void exitProcess(NonBlockingOsxProcess osxProcess, int status) {
+		cleanupProcess(osxProcess);
+		if (WIFEXITED(status)) {
+			status = WEXITSTATUS(status);
+			if (status == 127) {
+				osxProcess.onExit(Integer.MIN_VALUE);
 			} else {
 				osxProcess.onExit(status);
 			}
+		} else if (WIFSIGNALED(status)) {
+			osxProcess.onExit(WTERMSIG(status));
+		} else {
+			osxProcess.onExit(status);
 		}
 	}
 
@@ -15,6 +15,7 @@ module com.sshtools.forker.client {
 	requires transitive com.sshtools.forker.common;
 	requires static java.desktop;
 	requires java.logging;
+	requires java.management;
 
 	uses com.sshtools.forker.client.ForkerProcessFactory;
 }
\ No newline at end of file
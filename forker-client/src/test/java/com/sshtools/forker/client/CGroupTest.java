@@ -0,0 +1,90 @@
+package com.sshtools.forker.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.jna.Platform;
+
+/**
+ * Tests that place processes in cgroups need a cgroup v2 host, with
+ * {@link CGroup#ROOT_PROPERTY} set to an empty cgroup delegated to the user
+ * running the tests.
+ */
+public class CGroupTest {
+
+	@BeforeClass
+	public static void linuxOnly() {
+		Assume.assumeTrue(Platform.isLinux());
+	}
+
+	@Test
+	public void limitsWithoutRootAreRejected() throws Exception {
+		Assume.assumeTrue(System.getProperty(CGroup.ROOT_PROPERTY) == null);
+		try {
+			new ForkerBuilder("true").resourceLimits(new ResourceLimits().memoryMax(64 << 20)).start().waitFor();
+			fail("Expected limits to need a cgroup root.");
+		} catch (IOException ioe) {
+			assertTrue(String.valueOf(ioe.getMessage()).contains(CGroup.ROOT_PROPERTY)
+					|| String.valueOf(ioe.getCause()).contains(CGroup.ROOT_PROPERTY));
+		}
+	}
+
+	@Test
+	public void groupWithoutLimitsMayUseOwnCGroup() throws Exception {
+		Path root;
+		try {
+			root = CGroup.getDefaultRoot();
+		} catch (IOException ioe) {
+			Assume.assumeNoException(ioe);
+			return;
+		}
+		Assume.assumeTrue(Files.isWritable(root));
+		String group = "forker-test-" + ProcessHandle.current().pid();
+		ForkerProcess process = new ForkerBuilder("true").resourceLimits(new ResourceLimits().group(group)).start();
+		try {
+			assertEquals(0, process.waitFor());
+			assertEquals(root.resolve(group), process.getCGroup().getPath());
+			assertFalse(process.getCGroup().isTemporary());
+		} finally {
+			process.getCGroup().remove();
+		}
+	}
+
+	@Test
+	public void processIsPlacedInLimitedCGroup() throws Exception {
+		Assume.assumeTrue(System.getProperty(CGroup.ROOT_PROPERTY) != null);
+		ForkerProcess process = new ForkerBuilder("sleep", "10")
+				.resourceLimits(new ResourceLimits().memoryMax(64 << 20).pidsMax(16)).start();
+		CGroup cgroup = process.getCGroup();
+		Path path = cgroup.getPath();
+		try {
+			assertTrue(cgroup.isTemporary());
+			assertEquals(String.valueOf(64 << 20), cgroup.get("memory.max"));
+			assertEquals("16", cgroup.get("pids.max"));
+			long timeout = System.currentTimeMillis() + 5000;
+			while (!cgroup.getProcesses().contains(process.pid())) {
+				if (System.currentTimeMillis() > timeout)
+					fail("Process did not join its cgroup.");
+				Thread.sleep(10);
+			}
+		} finally {
+			process.destroyProcessGroup(true);
+		}
+		assertTrue(process.waitFor(10, TimeUnit.SECONDS));
+		long timeout = System.currentTimeMillis() + 5000;
+		while (Files.exists(path) && System.currentTimeMillis() < timeout)
+			Thread.sleep(50);
+		assertFalse(Files.exists(path));
+	}
+}
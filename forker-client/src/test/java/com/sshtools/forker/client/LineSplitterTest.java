@@ -0,0 +1,47 @@
+package com.sshtools.forker.client;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LineSplitterTest {
+
+	@Test
+	public void linesAreSplitAcrossBuffers() {
+		assertEquals(Arrays.asList("one", "two", "three"), split(8, "on", "e\r\ntw", "o\nthree"));
+	}
+
+	@Test
+	public void lineOfMaximumLengthIsNotSplit() {
+		assertEquals(Arrays.asList("abcd", "efgh"), split(4, "abcd\nef", "gh\n"));
+		assertEquals(Arrays.asList("abcd", "efgh"), split(4, "abcd", "\nefgh", "\n"));
+	}
+
+	@Test
+	public void longLineIsDeliveredInPieces() {
+		assertEquals(Arrays.asList("abcd", "efgh", "ij"), split(4, "abcdefghij\n"));
+		assertEquals(Arrays.asList("abcd", "efgh", "ij"), split(4, "abc", "defg", "hij"));
+	}
+
+	@Test
+	public void piecesDoNotSplitCharacters() {
+		/* e-acute is 2 bytes and the euro sign is 3 bytes in UTF-8 */
+		assertEquals(Arrays.asList("abc", "\u00e9", "\u20acd"), split(4, "abc\u00e9\u20acd\n"));
+		assertEquals(Arrays.asList("abc", "\u00e9", "\u20acd", "e"), split(4, "abc\u00e9", "\u20acde"));
+	}
+
+	private static List<String> split(int maxLineLength, String... chunks) {
+		List<String> lines = new ArrayList<>();
+		LineSplitter splitter = new LineSplitter(l -> lines.add(l.toString()), StandardCharsets.UTF_8, maxLineLength);
+		for (int i = 0; i < chunks.length; i++) {
+			splitter.feed(ByteBuffer.wrap(chunks[i].getBytes(StandardCharsets.UTF_8)), i == chunks.length - 1);
+		}
+		return lines;
+	}
+}
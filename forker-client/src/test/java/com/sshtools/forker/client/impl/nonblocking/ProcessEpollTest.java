@@ -0,0 +1,70 @@
+package com.sshtools.forker.client.impl.nonblocking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sshtools.forker.client.DefaultNonBlockingProcessListener;
+import com.sshtools.forker.client.ForkerBuilder;
+import com.sshtools.forker.client.NonBlockingProcess;
+import com.sshtools.forker.common.IO;
+import com.sun.jna.Platform;
+
+public class ProcessEpollTest {
+
+	@BeforeClass
+	public static void linuxOnly() {
+		Assume.assumeTrue(Platform.isLinux());
+	}
+
+	@Test
+	public void exitIsDelivered() throws Exception {
+		CompletableFuture<Integer> exit = new CompletableFuture<>();
+		start(exit, "exit 5");
+		assertEquals(5, (int) exit.get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void exitedProcessIsNotReapedUntilOutputIsDrained() throws Exception {
+		CompletableFuture<Integer> exit = new CompletableFuture<>();
+		/* The shell exits at once, but the background sleep holds its output open */
+		NonBlockingProcess process = start(exit, "sleep 1 & exit 3");
+		int pid = process.getPID();
+		long timeout = System.currentTimeMillis() + 5000;
+		while (state(pid) != 'Z') {
+			if (System.currentTimeMillis() > timeout)
+				throw new AssertionError("Process did not exit.");
+			Thread.sleep(10);
+		}
+		/* Still a zombie, so the pid cannot have been reused and this can only signal it */
+		Thread.sleep(100);
+		assertEquals('Z', state(pid));
+		assertFalse(exit.isDone());
+		process.destroy();
+		assertEquals(3, (int) exit.get(10, TimeUnit.SECONDS));
+	}
+
+	private static NonBlockingProcess start(CompletableFuture<Integer> exit, String script) throws IOException {
+		return new ForkerBuilder("sh", "-c", script).io(IO.NON_BLOCKING)
+				.start(new DefaultNonBlockingProcessListener() {
+					@Override
+					public void onExit(int exitCode, NonBlockingProcess process) {
+						exit.complete(exitCode);
+					}
+				});
+	}
+
+	private static char state(int pid) throws IOException {
+		String stat = new String(Files.readAllBytes(Paths.get("/proc", String.valueOf(pid), "stat")));
+		return stat.charAt(stat.lastIndexOf(')') + 2);
+	}
+}
@@ -265,6 +265,17 @@ public interface CSystem extends Library {
 	 */
 	int fputs(String content, FILE fp);
 
+	/**
+	 * Examines the stream and returns its underlying file descriptor, allowing
+	 * raw, unbuffered reads and writes that are not subject to string
+	 * conversion.
+	 * 
+	 * @param fp
+	 *            handle
+	 * @return file descriptor or -1 on error
+	 */
+	int fileno(FILE fp);
+
 	/**
 	 * Sets the effective user ID of the calling process. If the effective UID
 	 * of the caller is root, the real UID and saved set-user-ID are also set.
@@ -64,6 +64,16 @@ public class Command {
 		environment = new ProcessBuilder("dummy").environment();
 	}
 
+	/**
+	 * Constructor for a command that will be passed the given environment
+	 * variables, rather than a copy of this process's own.
+	 * 
+	 * @param environment environment variables
+	 */
+	public Command(Map<String, String> environment) {
+		this.environment = environment;
+	}
+
 	/**
 	 * Get whether or not this process will be launched in the background.
 	 * 
@@ -126,6 +136,26 @@ public class Command {
 		return affinity;
 	}
 
+	/**
+	 * Get the processor affinity as a bit mask, where processor 1 in
+	 * {@link #getAffinity()} is the lowest bit of the first element.
+	 * 
+	 * @return processor affinity mask
+	 */
+	public long[] getAffinityMask() {
+		int max = 1;
+		for (Integer cpu : affinity) {
+			if (cpu < 1)
+				throw new IllegalArgumentException(String.format("Invalid processor number %d.", cpu));
+			max = Math.max(max, cpu);
+		}
+		long[] mask = new long[(max + 63) / 64];
+		for (Integer cpu : affinity) {
+			mask[(cpu - 1) / 64] |= 1L << ((cpu - 1) % 64);
+		}
+		return mask;
+	}
+
 	/**
 	 * Get whether stderr should be redirected to stdout.
 	 * 
@@ -303,27 +333,24 @@ public class Command {
 	 * @return all arguments
 	 */
 	public List<String> getAllArguments() {
+		return getAllArguments(true);
+	}
+
+	/**
+	 * Get all of the arguments that will actually be run, optionally leaving out
+	 * the wrapper commands that change the priority and processor affinity, for
+	 * when the caller applies those to the process itself once it has started.
+	 * 
+	 * @param scheduling include wrapper commands for priority and affinity
+	 * @return all arguments
+	 */
+	public List<String> getAllArguments(boolean scheduling) {
 		List<String> a = new ArrayList<String>(arguments);
-		if (priority != null) {
+		if (priority != null && scheduling) {
 			if (OS.isUnix()) {
 				a.add(0, "nice");
 				a.add(1, "-n");
-				switch (priority) {
-				case REALTIME:
-					a.add(2, "-20");
-					break;
-				case HIGH:
-					a.add(2, "-10");
-					break;
-				case NORMAL:
-					a.add(2, "10");
-					break;
-				case LOW:
-					a.add(2, "19");
-					break;
-				default:
-					break;
-				}
+				a.add(2, String.valueOf(priority.getNice()));
 			} else if (Platform.isWindows()) {
 				if (a.size() < 3 || !a.get(0).equals("CMD.EXE") || !a.get(1).equals("/C")
 						|| !a.get(2).equals("START")) {
@@ -359,15 +386,14 @@ public class Command {
 			a.add(0, "nohup");
 		}
 
-		if (!affinity.isEmpty()) {
-			long mask = 0;
-			for (Integer cpu : affinity) {
-				mask = mask | 1 << (cpu - 1);
-			}
+		if (!affinity.isEmpty() && scheduling) {
+			long[] mask = getAffinityMask();
 			if (OS.isUnix()) {
 				a.add(0, "taskset");
-				a.add(1, String.format("0x%x", mask));
+				a.add(1, toHexMask(mask));
 			} else if (Platform.isWindows()) {
+				if (mask.length > 1)
+					throw new IllegalArgumentException("START /AFFINITY only supports processors 1 to 64.");
 				// Windows 7 and above only, but by now that should not be a problem (is JDK
 				// even possible on those?)
 				if (a.size() < 3 || !a.get(0).equals("CMD.EXE") || !a.get(1).equals("/C")
@@ -377,13 +403,28 @@ public class Command {
 					a.add(2, "START");
 				}
 				a.add(3, "/AFFINITY");
-				a.add(4, String.format("0x%x", mask));
+				a.add(4, String.format("0x%x", mask[0]));
 			} else
 				throw new UnsupportedOperationException();
 		}
 		return a;
 	}
 
+	/*
+	 * Format a processor mask of any length as a single hexadecimal number, most
+	 * significant word first, as taskset expects
+	 */
+	private static String toHexMask(long[] mask) {
+		StringBuilder hex = new StringBuilder("0x").append(Long.toHexString(mask[mask.length - 1]));
+		for (int i = mask.length - 2; i >= 0; i--) {
+			String word = Long.toHexString(mask[i]);
+			for (int j = word.length(); j < 16; j++)
+				hex.append('0');
+			hex.append(word);
+		}
+		return hex.toString();
+	}
+
 	protected static IO getDefaultIO() {
 		return DefaultIO.valueOf(System.getProperty("forker.defaultIo", IO.DEFAULT.name()));
 	}
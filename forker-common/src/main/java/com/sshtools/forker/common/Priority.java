@@ -25,18 +25,33 @@ public enum Priority {
 	/**
 	 * Low priority
 	 */
-	LOW,
+	LOW(19),
 	/**
 	 * Normal priority, i.e. as decided by OS when priority is not explicitly
 	 * set
 	 */
-	NORMAL,
+	NORMAL(10),
 	/**
 	 * High priority
 	 */
-	HIGH,
+	HIGH(-10),
 	/**
 	 * Realtime (when supported)
 	 */
-	REALTIME
+	REALTIME(-20);
+
+	private final int nice;
+
+	Priority(int nice) {
+		this.nice = nice;
+	}
+
+	/**
+	 * Get the Unix <i>nice</i> value used for this priority.
+	 * 
+	 * @return nice value
+	 */
+	public int getNice() {
+		return nice;
+	}
 }
@@ -0,0 +1,70 @@
+package com.sshtools.forker.pty;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Gathers terminal output read from a blocking stream, so that a burst of
+ * small writes by the child is returned from a single
+ * {@link #read(byte[], int, int)} rather than one read each. Once the first
+ * bytes of a read have arrived, it keeps collecting whatever else becomes
+ * available until either the buffer (or the byte limit) is full or the
+ * latency budget has passed.
+ * <p>
+ * Further output is detected using {@link InputStream#available()}. If the
+ * underlying stream cannot report this, each read simply waits out the
+ * latency budget after the first bytes.
+ */
+public class CoalescingInputStream extends FilterInputStream {
+
+	private final static long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final long latencyNanos;
+	private final int maxBytes;
+
+	/**
+	 * Constructor
+	 *
+	 * @param in        stream to read from
+	 * @param latencyMs maximum time in milliseconds to keep collecting once
+	 *                  some output has been read
+	 * @param maxBytes  maximum number of bytes to return from one read
+	 */
+	public CoalescingInputStream(InputStream in, long latencyMs, int maxBytes) {
+		super(in);
+		if (maxBytes < 1)
+			throw new IllegalArgumentException("Maximum bytes must be at least 1.");
+		this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMs);
+		this.maxBytes = maxBytes;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int max = Math.min(len, maxBytes);
+		int read = in.read(b, off, max);
+		if (read <= 0) {
+			return read;
+		}
+		long deadline = System.nanoTime() + latencyNanos;
+		while (read < max) {
+			int available = in.available();
+			if (available > 0) {
+				int more = in.read(b, off + read, Math.min(available, max - read));
+				if (more <= 0) {
+					break;
+				}
+				read += more;
+			} else {
+				long left = deadline - System.nanoTime();
+				if (left <= 0) {
+					break;
+				}
+				LockSupport.parkNanos(Math.min(left, POLL_NANOS));
+			}
+		}
+		return read;
+	}
+}
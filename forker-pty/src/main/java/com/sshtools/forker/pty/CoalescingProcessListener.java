@@ -0,0 +1,177 @@
+package com.sshtools.forker.pty;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.sshtools.forker.client.NonBlockingProcess;
+import com.sshtools.forker.client.NonBlockingProcessListener;
+import com.sshtools.forker.pty.PTYProcess.PTYProcessListener;
+
+/**
+ * Wraps another {@link NonBlockingProcessListener}, gathering standard output
+ * together so that a burst of small reads is delivered as fewer, larger
+ * buffers. Output is held until either the buffer is full or the latency
+ * budget has passed since the first byte held arrived, whichever is first.
+ * This is intended for terminal sessions relayed to a remote front end, where
+ * each delivery usually becomes a frame written to the network.
+ * <p>
+ * A latency of zero disables coalescing, each read is delivered as it
+ * arrives. Deliveries after a delay are made from a timer thread shared by
+ * all sessions rather than the I/O thread, so the wrapped listener must not
+ * block in {@link #onStdout(NonBlockingProcess, ByteBuffer, boolean)}.
+ * Standard error and all other events are passed straight through.
+ */
+public class CoalescingProcessListener implements NonBlockingProcessListener, PTYProcessListener {
+
+	/**
+	 * Default maximum number of bytes held before delivery.
+	 */
+	public final static int DEFAULT_MAX_BYTES = 65536;
+
+	private final NonBlockingProcessListener delegate;
+	private final long latencyMs;
+	private final ByteBuffer pending;
+	private NonBlockingProcess process;
+	private ScheduledFuture<?> flush;
+	private boolean closed;
+
+	/**
+	 * Constructor
+	 *
+	 * @param delegate  listener to deliver to
+	 * @param latencyMs maximum time in milliseconds output may be held, or zero
+	 *                  to disable coalescing
+	 * @param maxBytes  maximum number of bytes held before delivery
+	 */
+	public CoalescingProcessListener(NonBlockingProcessListener delegate, long latencyMs, int maxBytes) {
+		if (maxBytes < 1)
+			throw new IllegalArgumentException("Maximum bytes must be at least 1.");
+		this.delegate = delegate;
+		this.latencyMs = latencyMs;
+		pending = ByteBuffer.allocate(latencyMs > 0 ? maxBytes : 0);
+	}
+
+	/**
+	 * Get the wrapped listener.
+	 *
+	 * @return delegate
+	 */
+	public NonBlockingProcessListener getDelegate() {
+		return delegate;
+	}
+
+	/**
+	 * Deliver any output currently held now.
+	 */
+	public synchronized void flush() {
+		cancelFlush();
+		if (!closed && pending.position() > 0) {
+			deliver(false);
+		}
+	}
+
+	@Override
+	public void onStdout(NonBlockingProcess process, ByteBuffer buffer, boolean closed) {
+		if (latencyMs <= 0) {
+			delegate.onStdout(process, buffer, closed);
+			return;
+		}
+		synchronized (this) {
+			if (this.closed) {
+				buffer.position(buffer.limit());
+				return;
+			}
+			this.process = process;
+			while (buffer.hasRemaining()) {
+				if (!pending.hasRemaining()) {
+					cancelFlush();
+					deliver(false);
+				}
+				int n = Math.min(buffer.remaining(), pending.remaining());
+				int limit = buffer.limit();
+				buffer.limit(buffer.position() + n);
+				pending.put(buffer);
+				buffer.limit(limit);
+			}
+			if (closed) {
+				cancelFlush();
+				this.closed = true;
+				deliver(true);
+			} else if (!pending.hasRemaining()) {
+				cancelFlush();
+				deliver(false);
+			} else if (flush == null && pending.position() > 0) {
+				flush = PTYScheduler.get().schedule(this::flush, latencyMs, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	@Override
+	public void windowSizeChanged(int ptyWidth, int ptyHeight) {
+		if (delegate instanceof PTYProcessListener)
+			((PTYProcessListener) delegate).windowSizeChanged(ptyWidth, ptyHeight);
+	}
+
+	@Override
+	public void onStderr(NonBlockingProcess process, ByteBuffer buffer, boolean closed) {
+		delegate.onStderr(process, buffer, closed);
+	}
+
+	@Override
+	public boolean onStdinReady(NonBlockingProcess process, ByteBuffer buffer) {
+		return delegate.onStdinReady(process, buffer);
+	}
+
+	@Override
+	public void onError(Exception exception, NonBlockingProcess process, boolean exiting) {
+		delegate.onError(exception, process, exiting);
+	}
+
+	@Override
+	public void onStart(NonBlockingProcess process) {
+		delegate.onStart(process);
+	}
+
+	@Override
+	public void onStarted(NonBlockingProcess process) {
+		delegate.onStarted(process);
+	}
+
+	@Override
+	public void onExit(int exitCode, NonBlockingProcess process) {
+		flush();
+		delegate.onExit(exitCode, process);
+	}
+
+	static long getDefaultLatency() {
+		return Long.getLong(PTYProcess.COALESCE_LATENCY_PROPERTY, 0);
+	}
+
+	static int getDefaultMaxBytes() {
+		return Integer.getInteger(PTYProcess.COALESCE_BYTES_PROPERTY, DEFAULT_MAX_BYTES);
+	}
+
+	private void cancelFlush() {
+		if (flush != null) {
+			flush.cancel(false);
+			flush = null;
+		}
+	}
+
+	private void deliver(boolean closed) {
+		pending.flip();
+		try {
+			delegate.onStdout(process, pending, closed);
+		} finally {
+			pending.compact();
+		}
+		if (!closed && !pending.hasRemaining()) {
+			/*
+			 * As with the process's own buffer, the listener must consume output
+			 * by advancing the position, or there is nowhere to put more
+			 */
+			throw new IllegalStateException("Coalesced stdout buffer has no bytes remaining");
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package com.sshtools.forker.pty;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+
+import com.sshtools.forker.client.ForkerBuilder;
+import com.sshtools.forker.client.NonBlockingProcessFactory;
+import com.sshtools.forker.client.NonBlockingProcessListener;
+import com.sshtools.forker.client.impl.jna.posix.LibC;
+import com.sshtools.forker.client.impl.nonblocking.NonBlockingLinuxProcess;
+import com.sshtools.forker.client.impl.nonblocking.ReferenceCountedFileDescriptor;
+import com.sshtools.forker.pty.PTYProcess.PTYProcessListener;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+
+/**
+ * A process attached to a pseudo terminal whose I/O is handled by the same
+ * epoll event loop as any other {@link NonBlockingLinuxProcess}, so many
+ * interactive sessions may share a few I/O threads rather than each needing
+ * its own reader thread.
+ * <p>
+ * The terminal output (both standard output and standard error of the child)
+ * is delivered to
+ * {@link NonBlockingProcessListener#onStdout(com.sshtools.forker.client.NonBlockingProcess, java.nio.ByteBuffer, boolean)},
+ * and anything written to standard input is written to the terminal.
+ * {@link NonBlockingProcessListener#onStderr(com.sshtools.forker.client.NonBlockingProcess, java.nio.ByteBuffer, boolean)}
+ * is never called with any data. If the listener is also a
+ * {@link PTYProcessListener}, it is told of each window size change as it is
+ * applied.
+ * <p>
+ * To record the session, wrap the listener in a
+ * {@link RecordingProcessListener}.
+ * <p>
+ * Created by {@link PTYProcessFactory} when the I/O mode is
+ * {@link PTYProcess#PTY} and the listener is a {@link NonBlockingProcessListener}.
+ * Linux only.
+ */
+public class NonBlockingPTYProcess extends NonBlockingLinuxProcess {
+
+	/*
+	 * Not initialised here, as it is set by createPipes() while the super
+	 * constructor is still running
+	 */
+	private String ptyName;
+	private boolean draining;
+	private final ResizeDebouncer resizer = new ResizeDebouncer(this::applySize,
+			ResizeDebouncer.getDefaultWindow());
+
+	/**
+	 * Constructor
+	 *
+	 * @param builder  builder
+	 * @param factory  factory
+	 * @param listener listener
+	 * @throws IOException on any error
+	 */
+	public NonBlockingPTYProcess(ForkerBuilder builder, NonBlockingProcessFactory factory,
+			NonBlockingProcessListener listener) throws IOException {
+		super(builder, factory, listener);
+	}
+
+	/**
+	 * Get the name of the slave side of the terminal, e.g. <code>/dev/pts/3</code>.
+	 *
+	 * @return terminal name
+	 */
+	public String getPtyName() {
+		return ptyName;
+	}
+
+	/**
+	 * Set the size of the terminal in characters. Changes are subject to the
+	 * resize debounce window, see {@link #setResizeDebounce(long)}.
+	 *
+	 * @param cols columns
+	 * @param rows rows
+	 */
+	public void setSize(int cols, int rows) {
+		setSize(cols, rows, 0, 0);
+	}
+
+	/**
+	 * Set the size of the terminal in characters and pixels. The foreground
+	 * process group of the terminal is sent <code>SIGWINCH</code> by the kernel.
+	 * Changes are subject to the resize debounce window, see
+	 * {@link #setResizeDebounce(long)}.
+	 *
+	 * @param cols   columns
+	 * @param rows   rows
+	 * @param width  width in pixels
+	 * @param height height in pixels
+	 */
+	public void setSize(int cols, int rows, int width, int height) {
+		resizer.resize(cols, rows, width, height);
+	}
+
+	/**
+	 * Get the window in milliseconds within which window size changes are
+	 * collapsed.
+	 *
+	 * @return resize debounce window
+	 */
+	public long getResizeDebounce() {
+		return resizer.getWindow();
+	}
+
+	/**
+	 * Set the window in milliseconds within which window size changes are
+	 * collapsed. The first change after a quiet period is applied at once, the
+	 * last of any further changes within the window is applied when it ends.
+	 * Zero applies every change immediately.
+	 *
+	 * @param resizeDebounce resize debounce window
+	 */
+	public void setResizeDebounce(long resizeDebounce) {
+		resizer.setWindow(resizeDebounce);
+	}
+
+	private void applySize(int cols, int rows, int width, int height) {
+		try {
+			int fd = stdout.acquire();
+			if (fd == -1) {
+				return;
+			}
+			if (PTYLibC.ioctl(fd, PTYLibC.TIOCSWINSZ, new PTYLibC.WinSize(cols, rows, width, height)) == -1) {
+				throw new IllegalStateException(
+						String.format("Failed to set terminal size, last error: %d", Native.getLastError()));
+			}
+		} finally {
+			stdout.release();
+		}
+		if (listener instanceof PTYProcessListener) {
+			((PTYProcessListener) listener).windowSizeChanged(cols, rows);
+		}
+	}
+
+	/**
+	 * A terminal returns no more than one line discipline buffer per read, so
+	 * once the child hangs up the output cannot be assumed to be drained just
+	 * because a read returned less than was asked for. Keep reading until the
+	 * master reports the hang up itself.
+	 */
+	@Override
+	protected boolean readStdout(int availability, int fd) {
+		if (availability < 0 && !outClosed && !draining) {
+			draining = true;
+			try {
+				while (!outClosed) {
+					super.readStdout(BUFFER_CAPACITY, fd);
+				}
+			} finally {
+				draining = false;
+			}
+			return false;
+		}
+		return super.readStdout(availability, fd);
+	}
+
+	/**
+	 * Allocate the pseudo terminal instead of pipes. The child is given the
+	 * slave side as all three of its standard streams, and this process uses
+	 * the master side for both standard input and standard output. Standard
+	 * error is a pipe that is closed immediately, so it is seen as finished as
+	 * soon as the process is registered.
+	 */
+	@Override
+	protected int[] createPipes() {
+		int master = -1;
+		int writer = -1;
+		int[] slaves = { -1, -1, -1 };
+		int[] err = { -1, -1 };
+		try {
+			master = PTYLibC.posix_openpt(PTYLibC.O_RDWR | PTYLibC.O_NOCTTY | LibC.O_CLOEXEC);
+			if (master == -1) {
+				throw new RuntimeException("Failed to open pseudo terminal, last error: " + Native.getLastError());
+			}
+			checkReturnCode(PTYLibC.grantpt(master), "Failed to grant pseudo terminal");
+			checkReturnCode(PTYLibC.unlockpt(master), "Failed to unlock pseudo terminal");
+			byte[] name = new byte[128];
+			checkReturnCode(PTYLibC.ptsname_r(master, name, new NativeLong(name.length)),
+					"Failed to get pseudo terminal name");
+			ptyName = Native.toString(name, StandardCharsets.US_ASCII.name());
+			/*
+			 * The JDK moves and then closes each of the child's descriptors in
+			 * turn, so they must all be distinct
+			 */
+			for (int i = 0; i < slaves.length; i++) {
+				slaves[i] = PTYLibC.open(ptyName, PTYLibC.O_RDWR | PTYLibC.O_NOCTTY | LibC.O_CLOEXEC);
+				if (slaves[i] == -1) {
+					throw new RuntimeException(String.format("Failed to open pseudo terminal %s, last error: %d",
+							ptyName, Native.getLastError()));
+				}
+			}
+			/*
+			 * Standard input is a separate descriptor for the same master, so it
+			 * can be closed independently of the output
+			 */
+			writer = LibC.fcntl(master, PTYLibC.F_DUPFD_CLOEXEC, 0);
+			if (writer == -1) {
+				throw new RuntimeException("Failed to duplicate pseudo terminal, last error: " + Native.getLastError());
+			}
+			checkReturnCode(createPipe(err), "Create stderr pipe() failed");
+			LibC.close(err[1]);
+			err[1] = -1;
+			checkReturnCode(LibC.fcntl(master, LibC.F_SETFL, LibC.O_NONBLOCK), "fnctl on stdout handle failed");
+			checkReturnCode(LibC.fcntl(err[0], LibC.F_SETFL, LibC.O_NONBLOCK), "fnctl on stderr handle failed");
+			stdin = new ReferenceCountedFileDescriptor(writer);
+			stdout = new ReferenceCountedFileDescriptor(master);
+			stderr = new ReferenceCountedFileDescriptor(err[0]);
+			stdinWidow = slaves[0];
+			stdoutWidow = slaves[1];
+			stderrWidow = slaves[2];
+			return new int[] { writer, master, err[0] };
+		} catch (RuntimeException e) {
+			if (listener == null)
+				LOGGER.log(Level.SEVERE, "Error creating pseudo terminal", e);
+			else
+				listener.onError(e, this, true);
+			for (int fd : new int[] { master, writer, slaves[0], slaves[1], slaves[2], err[0], err[1] }) {
+				if (fd != -1) {
+					LibC.close(fd);
+				}
+			}
+			throw e;
+		}
+	}
+}
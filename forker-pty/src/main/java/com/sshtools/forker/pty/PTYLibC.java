@@ -0,0 +1,96 @@
+package com.sshtools.forker.pty;
+
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Platform;
+import com.sun.jna.Structure;
+import com.sun.jna.Structure.FieldOrder;
+
+/**
+ * The native calls needed to allocate and control a pseudo terminal directly,
+ * without going through Pty4J. Only used on Linux.
+ */
+final class PTYLibC {
+	static {
+		Native.register(Platform.C_LIBRARY_NAME);
+	}
+
+	/**
+	 * from /usr/include/asm-generic/fcntl.h
+	 */
+	static final int O_RDWR = 02;
+	/**
+	 * from /usr/include/asm-generic/fcntl.h
+	 */
+	static final int O_NOCTTY = 0400;
+	/**
+	 * from /usr/include/linux/fcntl.h
+	 */
+	static final int F_DUPFD_CLOEXEC = 1030;
+	/**
+	 * from /usr/include/asm-generic/ioctls.h
+	 */
+	static final NativeLong TIOCSWINSZ = new NativeLong(0x5414);
+
+	/**
+	 * Window size, as used by {@link PTYLibC#TIOCSWINSZ}.
+	 */
+	@FieldOrder({ "ws_row", "ws_col", "ws_xpixel", "ws_ypixel" })
+	public static class WinSize extends Structure {
+		public short ws_row;
+		public short ws_col;
+		public short ws_xpixel;
+		public short ws_ypixel;
+
+		WinSize(int cols, int rows, int width, int height) {
+			ws_col = (short) cols;
+			ws_row = (short) rows;
+			ws_xpixel = (short) width;
+			ws_ypixel = (short) height;
+		}
+	}
+
+	private PTYLibC() {
+	}
+
+	/**
+	 * @param flags flags
+	 * @return master file descriptor or -1 on error
+	 */
+	static native int posix_openpt(int flags);
+
+	/**
+	 * @param fd master file descriptor
+	 * @return status
+	 */
+	static native int grantpt(int fd);
+
+	/**
+	 * @param fd master file descriptor
+	 * @return status
+	 */
+	static native int unlockpt(int fd);
+
+	/**
+	 * @param fd  master file descriptor
+	 * @param buf buffer to receive the NUL terminated slave device name
+	 * @param len length of buffer
+	 * @return status
+	 */
+	static native int ptsname_r(int fd, byte[] buf, NativeLong len);
+
+	/**
+	 * @param fd      file descriptor
+	 * @param request request
+	 * @param size    window size
+	 * @return status
+	 */
+	static native int ioctl(int fd, NativeLong request, WinSize size);
+
+	/**
+	 * @param path  path
+	 * @param flags flags
+	 * @return file descriptor or -1 on error
+	 */
+	static native int open(String path, int flags);
+}
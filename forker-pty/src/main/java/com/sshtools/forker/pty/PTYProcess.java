@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.pty4j.PtyProcess;
 import com.pty4j.WinSize;
@@ -33,8 +35,32 @@ public class PTYProcess extends ForkerProcess {
 		void windowSizeChanged(int ptyWidth, int ptyHeight);
 	}
 
+	private final static Logger LOG = Logger.getLogger(PTYProcess.class.getName());
+
 	public final static IO PTY = new PTYIO();
 
+	/**
+	 * System property giving the default time in milliseconds that terminal
+	 * output may be held so it can be delivered in larger chunks. Defaults to
+	 * zero, no coalescing. See {@link CoalescingInputStream} and
+	 * {@link CoalescingProcessListener}.
+	 */
+	public final static String COALESCE_LATENCY_PROPERTY = "forker.pty.coalesceLatency";
+
+	/**
+	 * System property giving the default maximum number of bytes of terminal
+	 * output that may be held before it is delivered. Defaults to
+	 * {@link CoalescingProcessListener#DEFAULT_MAX_BYTES}.
+	 */
+	public final static String COALESCE_BYTES_PROPERTY = "forker.pty.coalesceBytes";
+
+	/**
+	 * System property giving the default window in milliseconds within which
+	 * window size changes are collapsed, only the last being applied. Defaults
+	 * to 50, zero applies every change immediately.
+	 */
+	public final static String RESIZE_DEBOUNCE_PROPERTY = "forker.pty.resizeDebounce";
+
 	static {
 		try {
 			/*
@@ -62,6 +88,12 @@ public class PTYProcess extends ForkerProcess {
 	}
 
 	private PtyProcess nativeProcess;
+	private final ResizeDebouncer resizer = new ResizeDebouncer(this::applySize,
+			ResizeDebouncer.getDefaultWindow());
+	private volatile SessionRecorder recorder;
+	private long coalesceLatency = CoalescingProcessListener.getDefaultLatency();
+	private int coalesceBytes = CoalescingProcessListener.getDefaultMaxBytes();
+	private InputStream in;
 
 	/**
 	 * Constructor
@@ -95,12 +127,65 @@ public class PTYProcess extends ForkerProcess {
 
 	}
 
+	/**
+	 * Set the size of the terminal in characters. Changes are subject to the
+	 * resize debounce window, see {@link #setResizeDebounce(long)}.
+	 * 
+	 * @param cols columns
+	 * @param rows rows
+	 */
 	public void setSize(int cols, int rows) {
-		nativeProcess.setWinSize(new WinSize(cols, rows));
+		resizer.resize(cols, rows, 0, 0);
 	}
 
+	/**
+	 * Set the size of the terminal in characters and pixels. Changes are subject
+	 * to the resize debounce window, see {@link #setResizeDebounce(long)}.
+	 * 
+	 * @param cols   columns
+	 * @param rows   rows
+	 * @param width  width in pixels
+	 * @param height height in pixels
+	 */
 	public void setSize(int cols, int rows, int width, int height) {
-		nativeProcess.setWinSize(new WinSize(cols, rows, width, height));
+		resizer.resize(cols, rows, width, height);
+	}
+
+	/**
+	 * Get the window in milliseconds within which window size changes are
+	 * collapsed.
+	 * 
+	 * @return resize debounce window
+	 */
+	public long getResizeDebounce() {
+		return resizer.getWindow();
+	}
+
+	/**
+	 * Set the window in milliseconds within which window size changes are
+	 * collapsed. The first change after a quiet period is applied at once, the
+	 * last of any further changes within the window is applied when it ends.
+	 * Zero applies every change immediately.
+	 * 
+	 * @param resizeDebounce resize debounce window
+	 */
+	public void setResizeDebounce(long resizeDebounce) {
+		resizer.setWindow(resizeDebounce);
+	}
+
+	/**
+	 * Set how terminal output read from {@link #getInputStream()} is coalesced.
+	 * Must be called before the stream is first obtained.
+	 * 
+	 * @param latency  maximum time in milliseconds to keep collecting output
+	 *                 once some has been read, or zero to disable
+	 * @param maxBytes maximum number of bytes returned from one read
+	 */
+	public void setOutputCoalescing(long latency, int maxBytes) {
+		if (in != null)
+			throw new IllegalStateException("The input stream has already been obtained.");
+		this.coalesceLatency = latency;
+		this.coalesceBytes = maxBytes;
 	}
 	
 	@Override
@@ -113,9 +198,31 @@ public class PTYProcess extends ForkerProcess {
 		return nativeProcess.getOutputStream();
 	}
 
+	/**
+	 * Record all terminal output read from {@link #getInputStream()}, and all
+	 * window size changes, to a {@link SessionRecorder}. Must be called before
+	 * the stream is first obtained. The recorder is closed when the end of the
+	 * stream is reached or it is closed.
+	 * 
+	 * @param recorder recorder
+	 */
+	public void setRecorder(SessionRecorder recorder) {
+		if (in != null)
+			throw new IllegalStateException("The input stream has already been obtained.");
+		this.recorder = recorder;
+	}
+
 	@Override
 	public InputStream getInputStream() {
-		return nativeProcess.getInputStream();
+		if (in == null) {
+			InputStream stream = nativeProcess.getInputStream();
+			if (recorder != null)
+				stream = new RecordingInputStream(stream, recorder);
+			if (coalesceLatency > 0)
+				stream = new CoalescingInputStream(stream, coalesceLatency, coalesceBytes);
+			in = stream;
+		}
+		return in;
 	}
 
 	@Override
@@ -138,4 +245,16 @@ public class PTYProcess extends ForkerProcess {
 		nativeProcess.destroy();
 	}
 
+	private void applySize(int cols, int rows, int width, int height) {
+		nativeProcess.setWinSize(new WinSize(cols, rows, width, height));
+		SessionRecorder recorder = this.recorder;
+		if (recorder != null) {
+			try {
+				recorder.resize(cols, rows, width, height);
+			} catch (IOException ioe) {
+				LOG.log(Level.WARNING, "Session recording failed.", ioe);
+			}
+		}
+	}
+
 }
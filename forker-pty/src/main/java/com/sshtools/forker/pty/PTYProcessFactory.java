@@ -1,18 +1,23 @@
 package com.sshtools.forker.pty;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.sshtools.forker.client.ForkerBuilder;
 import com.sshtools.forker.client.ForkerProcess;
 import com.sshtools.forker.client.ForkerProcessFactory;
 import com.sshtools.forker.client.ForkerProcessListener;
+import com.sshtools.forker.client.NonBlockingProcessFactory;
 import com.sshtools.forker.client.NonBlockingProcessListener;
+import com.sshtools.forker.client.OSCommand;
 import com.sshtools.forker.common.IO;
 import com.sshtools.forker.common.OS;
 import com.sun.jna.Platform;
 
 /**
- * Creates a {@link PTYProcess}.
+ * Creates a {@link PTYProcess}, or on Linux a {@link NonBlockingPTYProcess}
+ * if the listener is a {@link NonBlockingProcessListener}.
  */
 public class PTYProcessFactory implements ForkerProcessFactory {
 
@@ -20,11 +25,55 @@ public class PTYProcessFactory implements ForkerProcessFactory {
 	public ForkerProcess createProcess(ForkerBuilder builder, ForkerProcessListener listener) throws IOException {
 		if (OS.isUnix() && !Platform.isMac() && builder.io() == PTYProcess.PTY) {
 			if(listener instanceof NonBlockingProcessListener) {
-				throw new IllegalArgumentException(String.format("%s is not supported by %s, is your I/O mode set correctly (see %s.io(%s))", listener.getClass(), getClass(), ForkerBuilder.class, IO.class));
+				if(!Platform.isLinux()) {
+					throw new IllegalArgumentException(String.format("%s is only supported by %s on Linux, is your I/O mode set correctly (see %s.io(%s))", listener.getClass(), getClass(), ForkerBuilder.class, IO.class));
+				}
+				return createNonBlockingProcess(builder, (NonBlockingProcessListener) listener);
 			}
 			return new PTYProcess(builder);
 		}
 		return null;
 	}
 
+	private ForkerProcess createNonBlockingProcess(ForkerBuilder builder, NonBlockingProcessListener listener)
+			throws IOException {
+		if (!OSCommand.hasCommand("setsid"))
+			throw new IOException("A non-blocking terminal requires the 'setsid' command, but it is not available.");
+		/*
+		 * The child must start a new session and take the terminal as its
+		 * controlling terminal, so that job control and signals from the
+		 * terminal (e.g. Ctrl+C) work. The JDK's launch cannot do this itself,
+		 * so the command is wrapped for the duration of the launch
+		 */
+		NonBlockingProcessFactory factory = builder.configuration().processFactory(NonBlockingProcessFactory.class);
+		if (factory == null)
+			throw new IOException(String.format("A non-blocking terminal requires a %s to be configured.",
+					NonBlockingProcessFactory.class.getSimpleName()));
+		List<String> original = new ArrayList<String>(builder.command());
+		/*
+		 * The command may already start in a new session, such as when
+		 * ResourceLimits asks for a process group. A second setsid would then be
+		 * run by a session leader, so would fork and leave the real command
+		 * without the terminal, and the process that was started would exit at
+		 * once. Have the existing setsid take the terminal instead
+		 */
+		if (!original.isEmpty() && original.get(0).equals("setsid")) {
+			builder.command().add(1, "--ctty");
+		} else {
+			builder.command().add(0, "setsid");
+			builder.command().add(1, "--ctty");
+		}
+		try {
+			long latency = CoalescingProcessListener.getDefaultLatency();
+			if (latency > 0 && !(listener instanceof CoalescingProcessListener))
+				listener = new CoalescingProcessListener(listener, latency, CoalescingProcessListener.getDefaultMaxBytes());
+			NonBlockingPTYProcess process = new NonBlockingPTYProcess(builder, factory, listener);
+			listener.onStart(process);
+			return process;
+		} finally {
+			builder.command().clear();
+			builder.command().addAll(original);
+		}
+	}
+
 }
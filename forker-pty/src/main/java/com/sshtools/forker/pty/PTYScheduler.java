@@ -0,0 +1,24 @@
+package com.sshtools.forker.pty;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * The single timer thread shared by all terminal sessions, used for delayed
+ * output flushes and window size changes. Tasks run on it must be short.
+ */
+final class PTYScheduler {
+
+	private final static ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "PTYScheduler");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private PTYScheduler() {
+	}
+
+	static ScheduledExecutorService get() {
+		return scheduler;
+	}
+}
@@ -0,0 +1,73 @@
+package com.sshtools.forker.pty;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Copies everything read from a blocking terminal stream to a
+ * {@link SessionRecorder}, closing the recorder at end of stream or when the
+ * stream is closed. Recording failures are logged and recording stops, the
+ * stream itself carries on.
+ */
+class RecordingInputStream extends FilterInputStream {
+	private final static Logger LOG = Logger.getLogger(RecordingInputStream.class.getName());
+
+	private final SessionRecorder recorder;
+	private boolean failed;
+
+	RecordingInputStream(InputStream in, SessionRecorder recorder) {
+		super(in);
+		this.recorder = recorder;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = in.read();
+		if (b == -1)
+			closeRecorder();
+		else
+			record(new byte[] { (byte) b }, 0, 1);
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int read = in.read(b, off, len);
+		if (read == -1)
+			closeRecorder();
+		else
+			record(b, off, read);
+		return read;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			super.close();
+		} finally {
+			closeRecorder();
+		}
+	}
+
+	private void record(byte[] b, int off, int len) {
+		if (!failed && len > 0) {
+			try {
+				recorder.output(b, off, len);
+			} catch (IOException ioe) {
+				failed = true;
+				LOG.log(Level.WARNING, "Session recording failed.", ioe);
+			}
+		}
+	}
+
+	private void closeRecorder() {
+		try {
+			recorder.close();
+		} catch (IOException ioe) {
+			LOG.log(Level.WARNING, "Failed to close session recording.", ioe);
+		}
+	}
+}
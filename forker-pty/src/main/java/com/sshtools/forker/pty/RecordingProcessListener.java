@@ -0,0 +1,117 @@
+package com.sshtools.forker.pty;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.sshtools.forker.client.NonBlockingProcess;
+import com.sshtools.forker.client.NonBlockingProcessListener;
+import com.sshtools.forker.pty.PTYProcess.PTYProcessListener;
+
+/**
+ * Wraps another {@link NonBlockingProcessListener}, recording the terminal
+ * output and window size changes of a {@link NonBlockingPTYProcess} to a
+ * {@link SessionRecorder}. Output is recorded as the wrapped listener consumes
+ * it, so any it leaves in the buffer to be delivered again is only recorded
+ * once. The recorder is closed when the process exits.
+ * <p>
+ * If recording fails, the error is passed to
+ * {@link #onError(Exception, NonBlockingProcess, boolean)} of the wrapped
+ * listener and recording stops, but the session itself carries on.
+ */
+public class RecordingProcessListener implements NonBlockingProcessListener, PTYProcessListener {
+
+	private final NonBlockingProcessListener delegate;
+	private final SessionRecorder recorder;
+	private NonBlockingProcess process;
+	private volatile boolean failed;
+
+	/**
+	 * Constructor
+	 *
+	 * @param delegate listener to pass events on to
+	 * @param recorder recorder
+	 */
+	public RecordingProcessListener(NonBlockingProcessListener delegate, SessionRecorder recorder) {
+		this.delegate = delegate;
+		this.recorder = recorder;
+	}
+
+	/**
+	 * Get the recorder.
+	 *
+	 * @return recorder
+	 */
+	public SessionRecorder getRecorder() {
+		return recorder;
+	}
+
+	@Override
+	public void windowSizeChanged(int ptyWidth, int ptyHeight) {
+		if (!failed) {
+			try {
+				recorder.resize(ptyWidth, ptyHeight, 0, 0);
+			} catch (IOException ioe) {
+				failed(ioe);
+			}
+		}
+		if (delegate instanceof PTYProcessListener)
+			((PTYProcessListener) delegate).windowSizeChanged(ptyWidth, ptyHeight);
+	}
+
+	@Override
+	public void onStdout(NonBlockingProcess process, ByteBuffer buffer, boolean closed) {
+		int start = buffer.position();
+		delegate.onStdout(process, buffer, closed);
+		if (!failed && buffer.position() > start) {
+			ByteBuffer consumed = buffer.duplicate();
+			consumed.flip();
+			consumed.position(start);
+			try {
+				recorder.output(consumed);
+			} catch (IOException ioe) {
+				failed(ioe);
+			}
+		}
+	}
+
+	@Override
+	public void onStderr(NonBlockingProcess process, ByteBuffer buffer, boolean closed) {
+		delegate.onStderr(process, buffer, closed);
+	}
+
+	@Override
+	public boolean onStdinReady(NonBlockingProcess process, ByteBuffer buffer) {
+		return delegate.onStdinReady(process, buffer);
+	}
+
+	@Override
+	public void onError(Exception exception, NonBlockingProcess process, boolean exiting) {
+		delegate.onError(exception, process, exiting);
+	}
+
+	@Override
+	public void onStart(NonBlockingProcess process) {
+		this.process = process;
+		delegate.onStart(process);
+	}
+
+	@Override
+	public void onStarted(NonBlockingProcess process) {
+		delegate.onStarted(process);
+	}
+
+	@Override
+	public void onExit(int exitCode, NonBlockingProcess process) {
+		try {
+			recorder.close();
+		} catch (IOException ioe) {
+			failed(ioe);
+		}
+		delegate.onExit(exitCode, process);
+	}
+
+	private void failed(IOException ioe) {
+		failed = true;
+		delegate.onError(new IOException("Session recording failed.", ioe), process, false);
+	}
+}
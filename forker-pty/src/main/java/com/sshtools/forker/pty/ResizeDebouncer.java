@@ -0,0 +1,81 @@
+package com.sshtools.forker.pty;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Limits how often the window size of a terminal is changed. The first change
+ * after a quiet period is applied immediately. Any further changes within the
+ * window are collapsed, and only the last one is applied when the window ends.
+ * This stops a front end that is being dragged to a new size from sending
+ * the child a stream of <code>SIGWINCH</code> and redraws.
+ */
+final class ResizeDebouncer {
+	private final static Logger LOG = Logger.getLogger(ResizeDebouncer.class.getName());
+
+	/**
+	 * Applies a window size.
+	 */
+	interface Resizer {
+		void resize(int cols, int rows, int width, int height);
+	}
+
+	private final Resizer resizer;
+	private volatile long windowMs;
+	private int[] pending;
+	private ScheduledFuture<?> future;
+	private long quietAt;
+
+	ResizeDebouncer(Resizer resizer, long windowMs) {
+		this.resizer = resizer;
+		this.windowMs = windowMs;
+		quietAt = System.nanoTime();
+	}
+
+	static long getDefaultWindow() {
+		return Long.getLong(PTYProcess.RESIZE_DEBOUNCE_PROPERTY, 50);
+	}
+
+	long getWindow() {
+		return windowMs;
+	}
+
+	void setWindow(long windowMs) {
+		this.windowMs = windowMs;
+	}
+
+	synchronized void resize(int cols, int rows, int width, int height) {
+		long window = windowMs;
+		if (window <= 0) {
+			resizer.resize(cols, rows, width, height);
+			return;
+		}
+		long now = System.nanoTime();
+		if (future == null && now - quietAt >= 0) {
+			quietAt = now + TimeUnit.MILLISECONDS.toNanos(window);
+			resizer.resize(cols, rows, width, height);
+			return;
+		}
+		pending = new int[] { cols, rows, width, height };
+		if (future == null) {
+			future = PTYScheduler.get().schedule(this::fire, Math.max(0, quietAt - now), TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private synchronized void fire() {
+		int[] size = pending;
+		pending = null;
+		future = null;
+		quietAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMs);
+		if (size != null) {
+			try {
+				resizer.resize(size[0], size[1], size[2], size[3]);
+			} catch (RuntimeException e) {
+				/* Most likely the process has exited since the resize was requested */
+				LOG.log(Level.FINE, "Failed to apply deferred window size.", e);
+			}
+		}
+	}
+}
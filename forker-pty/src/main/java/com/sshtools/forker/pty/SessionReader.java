@@ -0,0 +1,469 @@
+package com.sshtools.forker.pty;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a terminal session recorded by {@link SessionRecorder}, either from the
+ * beginning or from any point in time using {@link #seek(long)}. Seeking finds
+ * the block containing the time from the index and decompresses only that
+ * block, so jumping around a long recording is cheap.
+ * <p>
+ * Terminal output frames only make sense when replayed on top of everything
+ * that came before them. A player that seeks should therefore either replay
+ * from the start into an off screen terminal, or accept that the screen will
+ * be incomplete until it is next redrawn. {@link #getSizeAt(long)} gives the
+ * window size that applied at any time, so the terminal can at least be sized
+ * correctly.
+ * <p>
+ * Instances are not thread safe.
+ */
+public class SessionReader implements Closeable {
+
+	/**
+	 * The type of a {@link Frame}.
+	 */
+	public enum Type {
+		/**
+		 * Terminal output
+		 */
+		OUTPUT,
+		/**
+		 * Window size change
+		 */
+		RESIZE
+	}
+
+	/**
+	 * A single recorded event.
+	 */
+	public final static class Frame {
+		private final Type type;
+		private final long time;
+		private final byte[] data;
+		private final int[] size;
+
+		Frame(Type type, long time, byte[] data, int[] size) {
+			this.type = type;
+			this.time = time;
+			this.data = data;
+			this.size = size;
+		}
+
+		/**
+		 * Get the type of frame.
+		 *
+		 * @return type
+		 */
+		public Type getType() {
+			return type;
+		}
+
+		/**
+		 * Get the time of the frame in milliseconds since recording started.
+		 *
+		 * @return time
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * Get the terminal output, or <code>null</code> if this is not an
+		 * {@link Type#OUTPUT} frame.
+		 *
+		 * @return output
+		 */
+		public byte[] getData() {
+			return data;
+		}
+
+		/**
+		 * Get the columns for a {@link Type#RESIZE} frame.
+		 *
+		 * @return columns
+		 */
+		public int getCols() {
+			return size == null ? 0 : size[0];
+		}
+
+		/**
+		 * Get the rows for a {@link Type#RESIZE} frame.
+		 *
+		 * @return rows
+		 */
+		public int getRows() {
+			return size == null ? 0 : size[1];
+		}
+
+		/**
+		 * Get the width in pixels for a {@link Type#RESIZE} frame.
+		 *
+		 * @return width
+		 */
+		public int getWidth() {
+			return size == null ? 0 : size[2];
+		}
+
+		/**
+		 * Get the height in pixels for a {@link Type#RESIZE} frame.
+		 *
+		 * @return height
+		 */
+		public int getHeight() {
+			return size == null ? 0 : size[3];
+		}
+
+		@Override
+		public String toString() {
+			return "Frame [type=" + type + ", time=" + time
+					+ (data == null ? ", size=" + Arrays.toString(size) : ", length=" + data.length) + "]";
+		}
+	}
+
+	private final FileChannel channel;
+	private final long startTime;
+	private final boolean complete;
+	private final Inflater inflater = new Inflater();
+	private final ByteBuffer blockHeader = ByteBuffer.allocate(SessionRecorder.BLOCK_HEADER_SIZE);
+	/* Per block first time, last time and offset, in time order */
+	private long[] firstTimes;
+	private long[] lastTimes;
+	private long[] offsets;
+	private int blocks;
+	private int nextBlock;
+	private ByteBuffer frames = ByteBuffer.allocate(0);
+	private byte[] compressed = new byte[0];
+	private long frameTime;
+
+	/**
+	 * Constructor
+	 *
+	 * @param file recording
+	 * @throws IOException on any error, or if the file is not a recording
+	 */
+	public SessionReader(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(SessionRecorder.HEADER_SIZE);
+			readFully(header, 0);
+			header.flip();
+			if (header.getInt() != SessionRecorder.MAGIC)
+				throw new IOException(String.format("%s is not a session recording.", file));
+			short version = header.getShort();
+			if (version != SessionRecorder.VERSION)
+				throw new IOException(String.format("%s is a version %d session recording, only version %d is supported.",
+						file, version, SessionRecorder.VERSION));
+			startTime = header.getLong();
+			complete = readIndex();
+			if (!complete) {
+				scanIndex();
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Get the time recording started, in milliseconds since the epoch.
+	 *
+	 * @return start time
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Get the time of the last frame, in milliseconds since recording started.
+	 *
+	 * @return duration
+	 */
+	public long getDuration() {
+		return blocks == 0 ? 0 : lastTimes[blocks - 1];
+	}
+
+	/**
+	 * Get whether the recording was closed properly. If not, the index was
+	 * rebuilt from the blocks that were written, and any frames not yet written
+	 * when recording stopped are missing.
+	 *
+	 * @return complete
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Get the window size that applied at a time, as columns and rows, or
+	 * <code>null</code> if no size had been recorded by then. Only the block
+	 * containing the time is decompressed. The current position is not changed.
+	 *
+	 * @param time milliseconds since recording started
+	 * @return columns and rows
+	 * @throws IOException on any error
+	 */
+	public int[] getSizeAt(long time) throws IOException {
+		int block = blockFor(time);
+		if (block < 0) {
+			return null;
+		}
+		long offset = offsets[block];
+		readFully(blockHeader.clear(), offset);
+		int cols = blockHeader.getInt(20);
+		int rows = blockHeader.getInt(24);
+		ByteBuffer buf = decompress(offset);
+		long t = blockHeader.getLong(4);
+		while (buf.hasRemaining()) {
+			byte type = buf.get();
+			t += getVarint(buf);
+			if (t > time) {
+				break;
+			}
+			if (type == SessionRecorder.OUTPUT) {
+				int len = (int) getVarint(buf);
+				buf.position(buf.position() + len);
+			} else {
+				cols = (int) getVarint(buf);
+				rows = (int) getVarint(buf);
+				getVarint(buf);
+				getVarint(buf);
+			}
+		}
+		return cols == 0 && rows == 0 ? null : new int[] { cols, rows };
+	}
+
+	/**
+	 * Position the reader so the next frame returned by {@link #next()} is the
+	 * first at or after a time.
+	 *
+	 * @param time milliseconds since recording started
+	 * @throws IOException on any error
+	 */
+	public void seek(long time) throws IOException {
+		frames = ByteBuffer.allocate(0);
+		int block = Math.max(0, blockFor(time));
+		/* The time may fall in the gap after a block, start at the next one */
+		while (block < blocks && lastTimes[block] < time) {
+			block++;
+		}
+		nextBlock = block;
+		if (nextBlock < blocks) {
+			loadBlock(nextBlock++);
+			while (frames.hasRemaining()) {
+				int mark = frames.position();
+				long was = frameTime;
+				byte type = frames.get();
+				long t = frameTime + getVarint(frames);
+				if (t >= time) {
+					frames.position(mark);
+					frameTime = was;
+					break;
+				}
+				frameTime = t;
+				skipFrame(type);
+			}
+		}
+	}
+
+	/**
+	 * Get the next frame, or <code>null</code> at the end of the recording.
+	 *
+	 * @return frame
+	 * @throws IOException on any error
+	 */
+	public Frame next() throws IOException {
+		while (!frames.hasRemaining()) {
+			if (nextBlock >= blocks) {
+				return null;
+			}
+			loadBlock(nextBlock++);
+		}
+		byte type = frames.get();
+		frameTime += getVarint(frames);
+		if (type == SessionRecorder.OUTPUT) {
+			byte[] data = new byte[(int) getVarint(frames)];
+			frames.get(data);
+			return new Frame(Type.OUTPUT, frameTime, data, null);
+		} else if (type == SessionRecorder.RESIZE) {
+			int[] size = new int[4];
+			for (int i = 0; i < size.length; i++) {
+				size[i] = (int) getVarint(frames);
+			}
+			return new Frame(Type.RESIZE, frameTime, null, size);
+		}
+		throw new IOException(String.format("Corrupt recording, unknown frame type %d.", type));
+	}
+
+	@Override
+	public void close() throws IOException {
+		inflater.end();
+		channel.close();
+	}
+
+	/*
+	 * The last block starting at or before a time, or -1 if the time is
+	 * before the first block
+	 */
+	private int blockFor(long time) {
+		int idx = Arrays.binarySearch(firstTimes, 0, blocks, time);
+		if (idx < 0) {
+			return -idx - 2;
+		}
+		/* Several blocks may start in the same millisecond, use the first */
+		while (idx > 0 && firstTimes[idx - 1] == time) {
+			idx--;
+		}
+		return idx;
+	}
+
+	private void loadBlock(int block) throws IOException {
+		readFully(blockHeader.clear(), offsets[block]);
+		frameTime = blockHeader.getLong(4);
+		frames = decompress(offsets[block]);
+	}
+
+	/*
+	 * Decompress the block whose header has just been read into blockHeader
+	 */
+	private ByteBuffer decompress(long offset) throws IOException {
+		int length = blockHeader.getInt(32);
+		int compressedLength = blockHeader.getInt(36);
+		if (compressed.length < compressedLength) {
+			compressed = new byte[compressedLength];
+		}
+		readFully(ByteBuffer.wrap(compressed, 0, compressedLength), offset + SessionRecorder.BLOCK_HEADER_SIZE);
+		byte[] data = new byte[length];
+		inflater.reset();
+		inflater.setInput(compressed, 0, compressedLength);
+		try {
+			int n = 0;
+			while (n < length && !inflater.finished()) {
+				int inflated = inflater.inflate(data, n, length - n);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				n += inflated;
+			}
+			if (n != length) {
+				throw new IOException("Corrupt recording, block is shorter than expected.");
+			}
+		} catch (DataFormatException dfe) {
+			throw new IOException("Corrupt recording.", dfe);
+		}
+		return ByteBuffer.wrap(data);
+	}
+
+	private void skipFrame(byte type) {
+		if (type == SessionRecorder.OUTPUT) {
+			int len = (int) getVarint(frames);
+			frames.position(frames.position() + len);
+		} else {
+			for (int i = 0; i < 4; i++) {
+				getVarint(frames);
+			}
+		}
+	}
+
+	private boolean readIndex() throws IOException {
+		long size = channel.size();
+		if (size < SessionRecorder.HEADER_SIZE + SessionRecorder.TRAILER_SIZE + 8) {
+			return false;
+		}
+		ByteBuffer trailer = ByteBuffer.allocate(SessionRecorder.TRAILER_SIZE);
+		readFully(trailer, size - SessionRecorder.TRAILER_SIZE);
+		long indexOffset = trailer.getLong(0);
+		if (trailer.getInt(8) != SessionRecorder.TRAILER_MAGIC || indexOffset < SessionRecorder.HEADER_SIZE
+				|| indexOffset > size - SessionRecorder.TRAILER_SIZE - 8) {
+			return false;
+		}
+		ByteBuffer index = ByteBuffer.allocate((int) (size - SessionRecorder.TRAILER_SIZE - indexOffset));
+		readFully(index, indexOffset);
+		index.flip();
+		if (index.getInt() != SessionRecorder.INDEX_MAGIC) {
+			return false;
+		}
+		int count = index.getInt();
+		if (index.remaining() != count * 24) {
+			return false;
+		}
+		allocateIndex(count);
+		for (int i = 0; i < count; i++) {
+			firstTimes[i] = index.getLong();
+			lastTimes[i] = index.getLong();
+			offsets[i] = index.getLong();
+		}
+		blocks = count;
+		return true;
+	}
+
+	/*
+	 * Rebuild the index of a recording that was not closed by reading each
+	 * block header in turn, skipping over the compressed data. A partly
+	 * written block at the end is ignored.
+	 */
+	private void scanIndex() throws IOException {
+		long size = channel.size();
+		long offset = SessionRecorder.HEADER_SIZE;
+		allocateIndex(64);
+		while (offset + SessionRecorder.BLOCK_HEADER_SIZE <= size) {
+			try {
+				readFully(blockHeader.clear(), offset);
+			} catch (EOFException eofe) {
+				break;
+			}
+			if (blockHeader.getInt(0) != SessionRecorder.BLOCK_MAGIC) {
+				break;
+			}
+			long next = offset + SessionRecorder.BLOCK_HEADER_SIZE + blockHeader.getInt(36);
+			if (next > size) {
+				break;
+			}
+			if (blocks == offsets.length) {
+				firstTimes = Arrays.copyOf(firstTimes, blocks * 2);
+				lastTimes = Arrays.copyOf(lastTimes, blocks * 2);
+				offsets = Arrays.copyOf(offsets, blocks * 2);
+			}
+			firstTimes[blocks] = blockHeader.getLong(4);
+			lastTimes[blocks] = blockHeader.getLong(12);
+			offsets[blocks] = offset;
+			blocks++;
+			offset = next;
+		}
+	}
+
+	private void allocateIndex(int count) {
+		firstTimes = new long[count];
+		lastTimes = new long[count];
+		offsets = new long[count];
+	}
+
+	private void readFully(ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, position);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			position += n;
+		}
+	}
+
+	private static long getVarint(ByteBuffer buf) {
+		long value = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = buf.get();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+}
@@ -0,0 +1,388 @@
+package com.sshtools.forker.pty;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Records a terminal session to a file, for auditing and later replay with a
+ * {@link SessionReader}. Terminal output and window size changes are written
+ * as frames, each stamped with the number of milliseconds since recording
+ * started.
+ * <p>
+ * The file is only ever appended to. Frames are gathered into blocks, each of
+ * which is compressed on its own and written when it reaches the block size,
+ * when the block interval has passed since its first frame, or on
+ * {@link #flush()} or {@link #close()}. Each block header records the time of
+ * its first and last frames and the window size at its start, and an index of
+ * the blocks is appended when the recording is closed. A reader can then find
+ * the block for any time from the index, and only has to decompress that one
+ * block. When the interval passes with no further frames, the block is written
+ * on a thread shared by all recorders rather than the terminal timer thread,
+ * so slow storage cannot delay terminal output. If a recording was never
+ * closed (e.g. the process crashed), the index is rebuilt by reading just the
+ * block headers, and only the frames not yet written are lost. Any error writing a block when the interval passes is
+ * thrown from the next call to {@link #output(ByteBuffer)},
+ * {@link #resize(int, int, int, int)}, {@link #flush()} or {@link #close()}.
+ * <p>
+ * The format is, with all integers big endian :-
+ *
+ * <pre>
+ * file    = header block* [index]
+ * header  = MAGIC:int VERSION:short startTime:long
+ * block   = BLOCK_MAGIC:int firstTime:long lastTime:long cols:int rows:int
+ *           frames:int length:int compressedLength:int deflated-frames
+ * frame   = OUTPUT:byte delta:varint length:varint bytes
+ *         | RESIZE:byte delta:varint cols:varint rows:varint width:varint height:varint
+ * index   = INDEX_MAGIC:int blocks:int (firstTime:long lastTime:long offset:long)*
+ *           indexOffset:long TRAILER_MAGIC:int
+ * </pre>
+ *
+ * Each frame's delta is the milliseconds since the previous frame in the same
+ * block, or since the block's first time for the first frame.
+ * <p>
+ * All methods may be called from any thread.
+ */
+public class SessionRecorder implements Closeable {
+
+	/**
+	 * Default uncompressed size at which a block is written.
+	 */
+	public final static int DEFAULT_BLOCK_SIZE = 65536;
+
+	/**
+	 * Default time in milliseconds after which a block is written, however
+	 * small.
+	 */
+	public final static long DEFAULT_BLOCK_INTERVAL = 1000;
+
+	static final int MAGIC = 0x464b5352; // FKSR
+	static final short VERSION = 1;
+	static final int BLOCK_MAGIC = 0x464b424c; // FKBL
+	static final int INDEX_MAGIC = 0x464b4958; // FKIX
+	static final int TRAILER_MAGIC = 0x464b5452; // FKTR
+	static final int HEADER_SIZE = 14;
+	static final int BLOCK_HEADER_SIZE = 40;
+	static final int TRAILER_SIZE = 12;
+	/* Type, a delta of up to 10 bytes and a length of up to 5 */
+	static final int MAX_FRAME_HEADER = 16;
+	static final byte OUTPUT = 1;
+	static final byte RESIZE = 2;
+
+	private final static ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "SessionRecorder");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final FileChannel channel;
+	private final long startNanos;
+	private final long blockInterval;
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private final IndexBuffer index = new IndexBuffer();
+	private ByteBuffer frames;
+	private ByteBuffer compressed;
+	private int frameCount;
+	private long firstTime;
+	private long lastTime;
+	private int cols;
+	private int rows;
+	private int blockCols;
+	private int blockRows;
+	private ScheduledFuture<?> flush;
+	private boolean closed;
+	private IOException failure;
+
+	/**
+	 * Constructor. Any existing file is replaced.
+	 *
+	 * @param file file to record to
+	 * @throws IOException on any error
+	 */
+	public SessionRecorder(Path file) throws IOException {
+		this(file, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCK_INTERVAL);
+	}
+
+	/**
+	 * Constructor. Any existing file is replaced.
+	 *
+	 * @param file          file to record to
+	 * @param blockSize     uncompressed size at which a block is written
+	 * @param blockInterval time in milliseconds after which a block is written,
+	 *                      however small, or zero to only write blocks when
+	 *                      full or flushed
+	 * @throws IOException on any error
+	 */
+	public SessionRecorder(Path file, int blockSize, long blockInterval) throws IOException {
+		if (blockSize < 64)
+			throw new IllegalArgumentException("Block size must be at least 64 bytes.");
+		this.blockInterval = blockInterval;
+		frames = ByteBuffer.allocate(blockSize);
+		compressed = ByteBuffer.allocate(BLOCK_HEADER_SIZE + blockSize + blockSize / 64 + 64);
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+		startNanos = System.nanoTime();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putShort(VERSION);
+		header.putLong(System.currentTimeMillis());
+		header.flip();
+		try {
+			writeFully(header);
+		} catch (IOException ioe) {
+			channel.close();
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Record terminal output. The buffer's position is not changed.
+	 *
+	 * @param output output
+	 * @throws IOException on any error
+	 */
+	public synchronized void output(ByteBuffer output) throws IOException {
+		checkFailure();
+		ByteBuffer data = output.duplicate();
+		while (data.hasRemaining()) {
+			long now = now();
+			/* Room for at least a few bytes after the largest possible frame header */
+			if (frames.remaining() < MAX_FRAME_HEADER * 2) {
+				writeBlock();
+			}
+			int n = Math.min(data.remaining(), frames.remaining() - MAX_FRAME_HEADER);
+			startFrame(OUTPUT, now);
+			putVarint(n);
+			int limit = data.limit();
+			data.limit(data.position() + n);
+			frames.put(data);
+			data.limit(limit);
+		}
+		afterFrame();
+	}
+
+	/**
+	 * Record terminal output.
+	 *
+	 * @param output output
+	 * @param off    offset
+	 * @param len    length
+	 * @throws IOException on any error
+	 */
+	public void output(byte[] output, int off, int len) throws IOException {
+		output(ByteBuffer.wrap(output, off, len));
+	}
+
+	/**
+	 * Record a change of window size.
+	 *
+	 * @param cols   columns
+	 * @param rows   rows
+	 * @param width  width in pixels
+	 * @param height height in pixels
+	 * @throws IOException on any error
+	 */
+	public synchronized void resize(int cols, int rows, int width, int height) throws IOException {
+		checkFailure();
+		long now = now();
+		if (frames.remaining() < MAX_FRAME_HEADER * 2) {
+			writeBlock();
+		}
+		startFrame(RESIZE, now);
+		putVarint(cols);
+		putVarint(rows);
+		putVarint(width);
+		putVarint(height);
+		this.cols = cols;
+		this.rows = rows;
+		afterFrame();
+	}
+
+	/**
+	 * Write any frames held in memory to the file as a block.
+	 *
+	 * @throws IOException on any error
+	 */
+	public synchronized void flush() throws IOException {
+		checkOpen();
+		checkFailure();
+		if (frameCount > 0) {
+			writeBlock();
+		}
+	}
+
+	/**
+	 * Write any remaining frames followed by the index, and close the file.
+	 * Does nothing if already closed.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			flush();
+			long indexOffset = channel.position();
+			ByteBuffer buf = ByteBuffer.allocate(8 + index.size * 24 + TRAILER_SIZE);
+			buf.putInt(INDEX_MAGIC);
+			buf.putInt(index.size);
+			for (int i = 0; i < index.size; i++) {
+				buf.putLong(index.entries[i * 3]);
+				buf.putLong(index.entries[i * 3 + 1]);
+				buf.putLong(index.entries[i * 3 + 2]);
+			}
+			buf.putLong(indexOffset);
+			buf.putInt(TRAILER_MAGIC);
+			buf.flip();
+			writeFully(buf);
+		} finally {
+			closed = true;
+			deflater.end();
+			channel.close();
+		}
+		checkFailure();
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Recorder is closed.");
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		IOException ioe = failure;
+		if (ioe != null) {
+			failure = null;
+			throw new IOException("Failed to write recording.", ioe);
+		}
+	}
+
+	private long now() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+	}
+
+	private void startFrame(byte type, long now) throws IOException {
+		checkOpen();
+		if (frameCount == 0) {
+			firstTime = lastTime = now;
+			blockCols = cols;
+			blockRows = rows;
+		}
+		frames.put(type);
+		putVarint(now - lastTime);
+		lastTime = now;
+		frameCount++;
+	}
+
+	private void afterFrame() throws IOException {
+		if (frameCount == 0) {
+			return;
+		}
+		if (blockInterval <= 0) {
+			return;
+		}
+		if (lastTime - firstTime >= blockInterval) {
+			writeBlock();
+		} else if (flush == null) {
+			flush = flusher.schedule(this::scheduledFlush, blockInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private synchronized void scheduledFlush() {
+		flush = null;
+		if (!closed && frameCount > 0) {
+			try {
+				writeBlock();
+			} catch (IOException ioe) {
+				/* Reported on the next frame, flush or close */
+				if (failure == null)
+					failure = ioe;
+			}
+		}
+	}
+
+	private void putVarint(long value) {
+		while ((value & ~0x7fL) != 0) {
+			frames.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		frames.put((byte) value);
+	}
+
+	private void writeBlock() throws IOException {
+		if (flush != null) {
+			flush.cancel(false);
+			flush = null;
+		}
+		if (frameCount == 0) {
+			return;
+		}
+		frames.flip();
+		int length = frames.remaining();
+		deflater.reset();
+		deflater.setInput(frames.array(), 0, length);
+		deflater.finish();
+		compressed.clear();
+		compressed.position(BLOCK_HEADER_SIZE);
+		while (!deflater.finished()) {
+			if (!compressed.hasRemaining()) {
+				ByteBuffer bigger = ByteBuffer.allocate(compressed.capacity() * 2);
+				compressed.flip();
+				bigger.put(compressed);
+				compressed = bigger;
+			}
+			int n = deflater.deflate(compressed.array(), compressed.position(), compressed.remaining());
+			compressed.position(compressed.position() + n);
+		}
+		int compressedLength = compressed.position() - BLOCK_HEADER_SIZE;
+		compressed.putInt(0, BLOCK_MAGIC);
+		compressed.putLong(4, firstTime);
+		compressed.putLong(12, lastTime);
+		compressed.putInt(20, blockCols);
+		compressed.putInt(24, blockRows);
+		compressed.putInt(28, frameCount);
+		compressed.putInt(32, length);
+		compressed.putInt(36, compressedLength);
+		compressed.flip();
+		long offset = channel.position();
+		frames.clear();
+		frameCount = 0;
+		writeFully(compressed);
+		index.add(firstTime, lastTime, offset);
+	}
+
+	private void writeFully(ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+	}
+
+	/*
+	 * Block index entries as (first time, last time, offset) triples, kept as
+	 * primitives as a long session may have many thousands of blocks
+	 */
+	private final static class IndexBuffer {
+		private long[] entries = new long[96];
+		private int size;
+
+		void add(long firstTime, long lastTime, long offset) {
+			if ((size + 1) * 3 > entries.length) {
+				long[] bigger = new long[entries.length * 2];
+				System.arraycopy(entries, 0, bigger, 0, entries.length);
+				entries = bigger;
+			}
+			entries[size * 3] = firstTime;
+			entries[size * 3 + 1] = lastTime;
+			entries[size * 3 + 2] = offset;
+			size++;
+		}
+	}
+}
@@ -5,6 +5,7 @@ module com.sshtools.forker.pty {
 	requires transitive com.sshtools.forker.common;
 	requires transitive pty4j;
 	requires transitive com.sshtools.forker.client;
+	requires java.logging;
 	exports com.sshtools.forker.pty;
 
     provides com.sshtools.forker.common.IO
@@ -0,0 +1,187 @@
+package com.sshtools.forker.pty;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sshtools.forker.pty.SessionReader.Frame;
+import com.sshtools.forker.pty.SessionReader.Type;
+
+public class SessionRecorderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void outputIsReadBackExactly() throws Exception {
+		Path file = folder.newFile().toPath();
+		byte[] data = new byte[10000];
+		new Random(1).nextBytes(data);
+		try (SessionRecorder recorder = new SessionRecorder(file, 64, 0)) {
+			recorder.resize(80, 24, 640, 480);
+			for (int i = 0; i < data.length; i += 777) {
+				recorder.output(data, i, Math.min(777, data.length - i));
+			}
+		}
+		try (SessionReader reader = new SessionReader(file)) {
+			assertTrue(reader.isComplete());
+			Frame resize = reader.next();
+			assertEquals(Type.RESIZE, resize.getType());
+			assertEquals(80, resize.getCols());
+			assertEquals(24, resize.getRows());
+			assertEquals(640, resize.getWidth());
+			assertEquals(480, resize.getHeight());
+			assertArrayEquals(data, output(reader));
+		}
+	}
+
+	@Test
+	public void seekFindsFirstFrameAtOrAfterTime() throws Exception {
+		Path file = folder.newFile().toPath();
+		try (SessionRecorder recorder = new SessionRecorder(file, 64, 0)) {
+			recorder.output(bytes("first"));
+			recorder.flush();
+			Thread.sleep(50);
+			for (int i = 0; i < 20; i++) {
+				recorder.output(bytes("line " + i + "\r\n"));
+				Thread.sleep(2);
+			}
+		}
+		List<Frame> frames = new ArrayList<>();
+		try (SessionReader reader = new SessionReader(file)) {
+			for (Frame frame = reader.next(); frame != null; frame = reader.next()) {
+				frames.add(frame);
+			}
+			assertEquals(21, frames.size());
+
+			/* Into the gap between the first block and the next */
+			reader.seek(frames.get(0).getTime() + 1);
+			assertEquals("line 0\r\n", text(reader.next()));
+
+			/* Into the middle, possibly within a block */
+			for (int i = 1; i < frames.size(); i++) {
+				long time = frames.get(i).getTime();
+				int expected = i;
+				while (expected > 0 && frames.get(expected - 1).getTime() == time) {
+					expected--;
+				}
+				reader.seek(time);
+				assertEquals(text(frames.get(expected)), text(reader.next()));
+			}
+
+			reader.seek(0);
+			assertEquals("first", text(reader.next()));
+			reader.seek(reader.getDuration() + 1);
+			assertNull(reader.next());
+		}
+	}
+
+	@Test
+	public void sizeAtTimeAppliesResizes() throws Exception {
+		Path file = folder.newFile().toPath();
+		try (SessionRecorder recorder = new SessionRecorder(file, 64, 0)) {
+			Thread.sleep(5);
+			recorder.resize(80, 24, 0, 0);
+			recorder.output(bytes("a"));
+			recorder.flush();
+			Thread.sleep(20);
+			recorder.output(bytes("b"));
+			Thread.sleep(20);
+			recorder.resize(132, 50, 0, 0);
+			recorder.output(bytes("c"));
+		}
+		try (SessionReader reader = new SessionReader(file)) {
+			List<Frame> frames = new ArrayList<>();
+			for (Frame frame = reader.next(); frame != null; frame = reader.next()) {
+				frames.add(frame);
+			}
+			assertNull(reader.getSizeAt(frames.get(0).getTime() - 1));
+			assertArrayEquals(new int[] { 80, 24 }, reader.getSizeAt(frames.get(1).getTime()));
+			assertArrayEquals(new int[] { 80, 24 }, reader.getSizeAt(frames.get(2).getTime()));
+			assertArrayEquals(new int[] { 132, 50 }, reader.getSizeAt(frames.get(3).getTime()));
+			assertArrayEquals(new int[] { 132, 50 }, reader.getSizeAt(reader.getDuration() + 1000));
+		}
+	}
+
+	@Test
+	public void indexIsRebuiltForUnclosedRecording() throws Exception {
+		Path file = folder.newFile().toPath();
+		SessionRecorder recorder = new SessionRecorder(file, 64, 0);
+		try {
+			recorder.output(bytes("one"));
+			recorder.flush();
+			recorder.output(bytes("two"));
+			recorder.flush();
+			recorder.output(bytes("never written"));
+			try (SessionReader reader = new SessionReader(file)) {
+				assertFalse(reader.isComplete());
+				assertEquals("onetwo", new String(output(reader), StandardCharsets.UTF_8));
+			}
+
+			/* A partly written block at the end is ignored */
+			Path truncated = folder.newFile().toPath();
+			Files.copy(file, truncated, StandardCopyOption.REPLACE_EXISTING);
+			try (FileChannel channel = FileChannel.open(truncated, StandardOpenOption.WRITE)) {
+				channel.truncate(channel.size() - 5);
+			}
+			try (SessionReader reader = new SessionReader(truncated)) {
+				assertFalse(reader.isComplete());
+				assertEquals("one", new String(output(reader), StandardCharsets.UTF_8));
+			}
+		} finally {
+			recorder.close();
+		}
+	}
+
+	@Test
+	public void blockIsWrittenWhenIntervalPasses() throws Exception {
+		Path file = folder.newFile().toPath();
+		try (SessionRecorder recorder = new SessionRecorder(file, 65536, 20)) {
+			recorder.output(bytes("idle"));
+			long waitUntil = System.currentTimeMillis() + 5000;
+			while (Files.size(file) == SessionRecorder.HEADER_SIZE && System.currentTimeMillis() < waitUntil) {
+				Thread.sleep(10);
+			}
+			try (SessionReader reader = new SessionReader(file)) {
+				assertEquals("idle", text(reader.next()));
+			}
+		}
+	}
+
+	private static byte[] output(SessionReader reader) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (Frame frame = reader.next(); frame != null; frame = reader.next()) {
+			if (frame.getType() == Type.OUTPUT) {
+				out.write(frame.getData());
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static String text(Frame frame) {
+		return new String(frame.getData(), StandardCharsets.UTF_8);
+	}
+
+	private static ByteBuffer bytes(String text) {
+		return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,330 @@
+package com.sshtools.forker.wrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An alternative to {@link LazyLogStream} for chatty applications. Writes are
+ * copied into a bounded lock-free ring and return immediately, and a dedicated
+ * writer thread drains the ring, writing everything queued in as few
+ * {@link FileChannel} writes as possible.
+ * <p>
+ * As with {@link LazyLogStream}, the file is closed once nothing has been
+ * written for the log delay so external log rotation keeps working, but it is
+ * only ever opened and closed by the writer thread, once per burst of output
+ * rather than once per write. When the file is forced to the storage device is
+ * decided by the {@link LogSyncPolicy}.
+ * <p>
+ * {@link #flush()} only wakes the writer thread, it does not wait for it.
+ * {@link #close()} waits until everything written has reached the file. If the
+ * ring is full, writers wait for the writer thread to make room rather than
+ * drop output. Any error writing the file is thrown from the next call to
+ * {@link #write(byte[], int, int)}, {@link #flush()} or {@link #close()}.
+ */
+public class AsyncLogStream extends OutputStream {
+
+	/**
+	 * Number of writes that may be queued before writers must wait.
+	 */
+	public final static int DEFAULT_CAPACITY = 1024;
+
+	private final static int BATCH_SIZE = 65536;
+	private final static long MAX_PARK = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final File outputFile;
+	private final boolean append;
+	private final long logDelay;
+	private final LogSyncPolicy syncPolicy;
+	private final long syncInterval;
+	private final Ring ring;
+	private final Thread writer;
+	private final AtomicBoolean waiting = new AtomicBoolean();
+	private final AtomicReference<IOException> error = new AtomicReference<>();
+	private volatile boolean closed;
+
+	/* Only used by the writer thread */
+	private FileChannel channel;
+	private long opens;
+	private boolean dirty;
+	private long lastWrite;
+	private long lastSync;
+
+	/**
+	 * Constructor
+	 *
+	 * @param logDelay     time in milliseconds with no output after which the
+	 *                     file is closed
+	 * @param outputFile   file to write to
+	 * @param append       append to any existing file rather than replace it
+	 * @param syncPolicy   when to force output to the storage device
+	 * @param syncInterval time in milliseconds for
+	 *                     {@link LogSyncPolicy#INTERVAL}
+	 */
+	public AsyncLogStream(long logDelay, File outputFile, boolean append, LogSyncPolicy syncPolicy,
+			long syncInterval) {
+		this.outputFile = outputFile;
+		this.append = append;
+		this.logDelay = TimeUnit.MILLISECONDS.toNanos(Math.max(0, logDelay));
+		this.syncPolicy = syncPolicy;
+		this.syncInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(0, syncInterval));
+		ring = new Ring(DEFAULT_CAPACITY);
+		writer = new Thread(this::drainLoop, "LogWriter-" + outputFile.getName());
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		checkOpen();
+		checkError();
+		if (len == 0)
+			return;
+		byte[] data = Arrays.copyOfRange(b, off, off + len);
+		int spins = 0;
+		while (!ring.offer(data)) {
+			wakeWriter();
+			checkOpen();
+			if (++spins < 100)
+				Thread.onSpinWait();
+			else
+				LockSupport.parkNanos(100000);
+		}
+		wakeWriter();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		checkError();
+		LockSupport.unpark(writer);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for log to be written.");
+		}
+		checkError();
+	}
+
+	@Override
+	public String toString() {
+		return outputFile.getPath();
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed)
+			throw new IOException("Log is closed.");
+	}
+
+	private void checkError() throws IOException {
+		IOException ioe = error.getAndSet(null);
+		if (ioe != null)
+			throw new IOException(String.format("Failed to write log %s.", outputFile), ioe);
+	}
+
+	private void wakeWriter() {
+		if (waiting.get() && waiting.compareAndSet(true, false))
+			LockSupport.unpark(writer);
+	}
+
+	private void drainLoop() {
+		ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_SIZE);
+		while (true) {
+			/* Read before draining, so anything written before close is drained */
+			boolean closing = closed;
+			if (drain(batch))
+				continue;
+			if (closing)
+				break;
+			long wait = idle(System.nanoTime());
+			waiting.set(true);
+			if (ring.isEmpty() && !closed)
+				LockSupport.parkNanos(this, wait);
+			waiting.set(false);
+		}
+		closeChannel();
+	}
+
+	private boolean drain(ByteBuffer batch) {
+		byte[] data;
+		boolean drained = false;
+		while ((data = ring.poll()) != null) {
+			drained = true;
+			if (data.length > batch.remaining())
+				writeBatch(batch);
+			if (data.length > batch.capacity())
+				writeOut(ByteBuffer.wrap(data));
+			else
+				batch.put(data);
+		}
+		if (drained)
+			writeBatch(batch);
+		return drained;
+	}
+
+	private long idle(long now) {
+		long wait = MAX_PARK;
+		if (channel != null) {
+			wait = Math.min(wait, syncIfDue(now));
+			long closeAt = lastWrite + logDelay;
+			if (now - closeAt >= 0)
+				closeChannel();
+			else
+				wait = Math.min(wait, closeAt - now);
+		}
+		return wait;
+	}
+
+	private void writeBatch(ByteBuffer batch) {
+		batch.flip();
+		if (batch.hasRemaining())
+			writeOut(batch);
+		batch.clear();
+	}
+
+	private void writeOut(ByteBuffer buf) {
+		try {
+			if (channel == null) {
+				channel = opens > 0 || append
+						? FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+								StandardOpenOption.APPEND)
+						: FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+								StandardOpenOption.TRUNCATE_EXISTING);
+				opens++;
+				lastSync = System.nanoTime();
+			}
+			while (buf.hasRemaining())
+				channel.write(buf);
+			dirty = true;
+			lastWrite = System.nanoTime();
+			/* Under sustained output the ring may never drain, so check here too */
+			syncIfDue(lastWrite);
+		} catch (IOException ioe) {
+			/* This output is lost, the file will be opened again for the next */
+			failed(ioe);
+			closeChannel();
+		}
+	}
+
+	/*
+	 * Sync if the interval has passed since the last, returning how long until
+	 * the next is due
+	 */
+	private long syncIfDue(long now) {
+		if (syncPolicy == LogSyncPolicy.INTERVAL && dirty) {
+			long due = lastSync + syncInterval;
+			if (now - due < 0)
+				return due - now;
+			sync();
+		}
+		return Long.MAX_VALUE;
+	}
+
+	private void sync() {
+		try {
+			channel.force(false);
+		} catch (IOException ioe) {
+			failed(ioe);
+		}
+		dirty = false;
+		lastSync = System.nanoTime();
+	}
+
+	private void closeChannel() {
+		if (channel == null)
+			return;
+		try {
+			if (dirty && syncPolicy != LogSyncPolicy.NONE)
+				sync();
+			channel.close();
+		} catch (IOException ioe) {
+			failed(ioe);
+		} finally {
+			channel = null;
+			dirty = false;
+		}
+	}
+
+	private void failed(IOException ioe) {
+		error.compareAndSet(null, ioe);
+	}
+
+	/*
+	 * Bounded multiple producer, single consumer queue. Each slot carries a
+	 * sequence number that tells producers when it is free and the consumer
+	 * when it has been filled, so the only contention is producers racing to
+	 * claim the tail.
+	 */
+	private final static class Ring {
+		private final byte[][] slots;
+		private final AtomicLongArray sequences;
+		private final AtomicLong tail = new AtomicLong();
+		private final int mask;
+		private long head;
+
+		Ring(int capacity) {
+			if (Integer.bitCount(capacity) != 1)
+				throw new IllegalArgumentException("Capacity must be a power of 2.");
+			slots = new byte[capacity][];
+			sequences = new AtomicLongArray(capacity);
+			for (int i = 0; i < capacity; i++)
+				sequences.set(i, i);
+			mask = capacity - 1;
+		}
+
+		boolean offer(byte[] data) {
+			while (true) {
+				long pos = tail.get();
+				int idx = (int) pos & mask;
+				long dif = sequences.get(idx) - pos;
+				if (dif == 0) {
+					if (tail.compareAndSet(pos, pos + 1)) {
+						slots[idx] = data;
+						sequences.set(idx, pos + 1);
+						return true;
+					}
+				} else if (dif < 0)
+					return false;
+			}
+		}
+
+		byte[] poll() {
+			int idx = (int) head & mask;
+			if (sequences.get(idx) != head + 1)
+				return null;
+			byte[] data = slots[idx];
+			slots[idx] = null;
+			sequences.lazySet(idx, head + mask + 1);
+			head++;
+			return data;
+		}
+
+		boolean isEmpty() {
+			return sequences.get((int) head & mask) != head + 1;
+		}
+	}
+}
@@ -161,6 +161,9 @@ public class ForkerWrapper extends AbstractWrapper implements ForkerWrapperMXBea
 	/** The Constant WRAPPED_MX_BEAN_NAME. */
 	public final static String WRAPPED_MX_BEAN_NAME = "WrappedMXBean";
 	
+	/** How long to wait for stderr to be copied after the process exits, in milliseconds. */
+	private final static long STDERR_DRAIN_TIMEOUT = 5000;
+	
 	/** The Constant EXITED_WRAPPER. */
 	public final static String EXITED_WRAPPER = "exited-wrapper";
 	
@@ -1594,6 +1597,20 @@ public class ForkerWrapper extends AbstractWrapper implements ForkerWrapperMXBea
 								+ "written within this time will not need to open the file again. The time is in milliseconds "
 								+ "with a default of 50ms. A value of zero indicates to always immmediately reopen the log.")
 				.build());
+		options.addOption(OptionSpec.builder("--log-async")
+				.description("Write log files from a separate thread. Output is queued and written in batches, "
+						+ "and log files are only closed (see 'log-write-delay') once output stops. Intended for "
+						+ "applications that write a lot of small pieces of output.")
+				.build());
+		options.addOption(OptionSpec.builder("--log-sync").paramLabel("policy").type(String.class)
+				.description("When 'log-async' is set, determines when log output is forced to the storage device. "
+						+ "Possible values are 'NONE' (the default, leave it to the operating system), 'INTERVAL' "
+						+ "(within 'log-sync-interval' of output being written, and when the file is closed), and "
+						+ "'ON_CLOSE' (whenever the file is closed).")
+				.build());
+		options.addOption(OptionSpec.builder("--log-sync-interval").paramLabel("milliseconds").type(Long.class)
+				.description("The interval to use with a 'log-sync' policy of 'INTERVAL'. The default is 1000ms.")
+				.build());
 		options.addOption(OptionSpec.builder("-e", "--errors").paramLabel("file").type(String.class).description(
 				"Where to log stderr. If not specified, will be output on stderr of this process or to 'log' if specified.")
 				.build());
@@ -2699,13 +2716,13 @@ public class ForkerWrapper extends AbstractWrapper implements ForkerWrapperMXBea
 		OutputStream errlog = null;
 		long logDelay = Long.parseLong(configuration.getOptionValue("log-write-delay", "50"));
 		if (Util.isNotBlank(logpath)) {
-			outlog = new LazyLogStream(logDelay, makeDirectoryForFile(relativize(cwd, logpath)), !logoverwrite);
+			outlog = createLogStream(logDelay, makeDirectoryForFile(relativize(cwd, logpath)), !logoverwrite);
 		}
 		if (errpath != null) {
 			if (Objects.equals(logpath, errpath))
 				errlog = outlog;
 			else {
-				errlog = new LazyLogStream(logDelay, makeDirectoryForFile(relativize(cwd, errpath)), !logoverwrite);
+				errlog = createLogStream(logDelay, makeDirectoryForFile(relativize(cwd, errpath)), !logoverwrite);
 			}
 		}
 		OutputStream stdout = quietStdOut ? null : defaultOut;
@@ -2770,6 +2787,15 @@ public class ForkerWrapper extends AbstractWrapper implements ForkerWrapperMXBea
 			if (inThread != null) {
 				inThread.interrupt();
 			}
+			/*
+			 * Let the rest of stderr reach the log before it is closed, but do not
+			 * wait forever if something else still holds the pipe open
+			 */
+			try {
+				errThread.join(STDERR_DRAIN_TIMEOUT);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
 			errThread.interrupt();
 			if (outlog != null && !outlog.equals(defaultOut)) {
 				outlog.close();
@@ -2781,6 +2807,25 @@ public class ForkerWrapper extends AbstractWrapper implements ForkerWrapperMXBea
 		return retval;
 	}
 
+	/**
+	 * Creates the stream to write a log file with, either a {@link LazyLogStream}
+	 * or when 'log-async' is set, an {@link AsyncLogStream}.
+	 *
+	 * @param logDelay the log delay
+	 * @param file the file
+	 * @param append the append
+	 * @return the output stream
+	 */
+	private OutputStream createLogStream(long logDelay, File file, boolean append) {
+		if (configuration.getSwitch("log-async", false)) {
+			LogSyncPolicy syncPolicy = LogSyncPolicy.valueOf(configuration
+					.getOptionValue("log-sync", LogSyncPolicy.NONE.name()).toUpperCase().replace('-', '_'));
+			long syncInterval = Long.parseLong(configuration.getOptionValue("log-sync-interval", "1000"));
+			return new AsyncLogStream(logDelay, file, append, syncPolicy, syncInterval);
+		}
+		return new LazyLogStream(logDelay, file, append);
+	}
+
 	/**
 	 * Builds the command.
 	 *
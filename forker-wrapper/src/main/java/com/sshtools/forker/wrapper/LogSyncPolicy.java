@@ -0,0 +1,21 @@
+package com.sshtools.forker.wrapper;
+
+/**
+ * When an {@link AsyncLogStream} forces written log output to the storage
+ * device.
+ */
+public enum LogSyncPolicy {
+	/**
+	 * Never, leave it to the operating system.
+	 */
+	NONE,
+	/**
+	 * Within the sync interval of output being written, and whenever the log
+	 * file is closed.
+	 */
+	INTERVAL,
+	/**
+	 * Whenever the log file is closed.
+	 */
+	ON_CLOSE
+}